@@ -0,0 +1,196 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.httpclient5;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducerWrapper;
+import uk.co.lucasweb.aws.v4.signer.AwsChunkedEncoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * An {@link AsyncEntityProducer} framing the body of another producer with the {@code aws-chunked} content encoding
+ * while it is being sent, so that the body is produced once and never buffered beyond a single chunk.
+ * <p>
+ * The wrapped producer writes into the chunk buffer; once the chunk is full, it is written to the connection between
+ * its header and line break, and the wrapped producer is pushed back until the connection has taken the whole chunk.
+ * Releasing the resources of the producer, as the client does before sending it again, restarts from a fresh
+ * {@link AwsChunkedEncoder}, so that chunk signatures are chained from the request signature each time.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class AwsChunkedEntityProducer extends AsyncEntityProducerWrapper {
+
+    private static final String AWS_CHUNKED = "aws-chunked";
+
+    private final Supplier<AwsChunkedEncoder> encoders;
+    private final int chunkSize;
+    private final long contentLength;
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>(3);
+    private final ChunkChannel chunkChannel = new ChunkChannel();
+    private AwsChunkedEncoder encoder;
+    private ByteBuffer chunk;
+    private DataStreamChannel channel;
+    private boolean upstreamDone;
+    private boolean ended;
+
+    AwsChunkedEntityProducer(AsyncEntityProducer entityProducer, Supplier<AwsChunkedEncoder> encoders, int chunkSize,
+                             long contentLength) {
+        super(entityProducer);
+        this.encoders = encoders;
+        this.chunkSize = chunkSize;
+        this.contentLength = contentLength;
+        this.encoder = encoders.get();
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return AWS_CHUNKED;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getTrailerNames() {
+        // the trailing checksum is part of the aws-chunked body, not an HTTP trailer
+        return null;
+    }
+
+    @Override
+    public int available() {
+        if (!pending.isEmpty() || upstreamDone) {
+            return Integer.MAX_VALUE;
+        }
+        return super.available();
+    }
+
+    @Override
+    public void produce(DataStreamChannel channel) throws IOException {
+        this.channel = channel;
+        while (!ended) {
+            if (!flush(channel)) {
+                return;
+            }
+            if (upstreamDone) {
+                ended = true;
+                channel.endStream();
+                return;
+            }
+            long before = chunkChannel.written;
+            super.produce(chunkChannel);
+            if (chunkChannel.written == before && pending.isEmpty() && !upstreamDone) {
+                // the wrapped producer has nothing more for now and requests output once it has
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void releaseResources() {
+        super.releaseResources();
+        pending.clear();
+        chunk = null;
+        upstreamDone = false;
+        ended = false;
+        encoder = encoders.get();
+    }
+
+    /**
+     * @return true if the connection took all the pending buffers
+     */
+    private boolean flush(DataStreamChannel channel) throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = pending.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return false;
+            }
+            pending.poll();
+        }
+        if (chunk != null && !chunk.hasRemaining() && chunk.position() > 0) {
+            // the chunk has been written, it can take the next one
+            chunk.clear();
+        }
+        return true;
+    }
+
+    private void emitChunk() {
+        chunk.flip();
+        pending.add(encoder.beginChunk(chunk));
+        pending.add(chunk);
+        pending.add(encoder.endChunk());
+    }
+
+    /**
+     * The channel the wrapped producer writes to, copying into the chunk buffer.
+     */
+    private final class ChunkChannel implements DataStreamChannel {
+
+        private long written;
+
+        @Override
+        public void requestOutput() {
+            channel.requestOutput();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            if (!pending.isEmpty()) {
+                return 0;
+            }
+            if (chunk == null) {
+                chunk = ByteBuffer.allocate(chunkSize);
+            }
+            int length = Math.min(src.remaining(), chunk.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + length);
+            chunk.put(src);
+            src.limit(limit);
+            written += length;
+            if (!chunk.hasRemaining()) {
+                emitChunk();
+            }
+            return length;
+        }
+
+        @Override
+        public void endStream() {
+            endStream(null);
+        }
+
+        @Override
+        public void endStream(List<? extends Header> trailers) {
+            if (chunk != null && chunk.position() > 0 && pending.isEmpty()) {
+                emitChunk();
+            }
+            pending.add(encoder.finish());
+            upstreamDone = true;
+        }
+    }
+}
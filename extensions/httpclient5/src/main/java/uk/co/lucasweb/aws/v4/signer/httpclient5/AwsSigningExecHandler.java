@@ -0,0 +1,157 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.httpclient5;
+
+import org.apache.hc.client5.http.async.AsyncExecCallback;
+import org.apache.hc.client5.http.async.AsyncExecChain;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import uk.co.lucasweb.aws.v4.signer.AwsChunkedEncoder;
+import uk.co.lucasweb.aws.v4.signer.PayloadMode;
+import uk.co.lucasweb.aws.v4.signer.Signer;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Signs the requests of an Apache HttpClient 5 async client with a shared {@link HttpClient5RequestSigner}, as the
+ * last element of the execution chain so that retries and redirects are signed again.
+ * <p>
+ * Requests without a body are signed with the hash of the empty payload, and requests that already carry
+ * {@code x-amz-content-sha256} with that value. Repeatable bodies of known length up to
+ * {@link HttpClient5RequestSigner.Builder#maxHashedBodyLength(long)} are produced once into a digest, then produced
+ * again when they are sent. Other bodies of known length are framed with the {@code aws-chunked} encoding while they
+ * are sent, each chunk being signed on the fly, so that at most one chunk per request is held in memory; bodies of
+ * unknown length are sent as {@code UNSIGNED-PAYLOAD}. Both of the latter are only accepted by S3.
+ * </p>
+ * <pre>{@code
+ * HttpClient5RequestSigner signer = HttpClient5RequestSigner.builder().region("eu-west-1").service("s3").build();
+ * CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+ *         .addExecInterceptorLast("aws-signer", new AwsSigningExecHandler(signer))
+ *         .build();
+ * }</pre>
+ *
+ * @author Richard Lucas
+ */
+public class AwsSigningExecHandler implements AsyncExecChainHandler {
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String AWS_CHUNKED = "aws-chunked";
+    private static final String X_AMZ_DECODED_CONTENT_LENGTH = "x-amz-decoded-content-length";
+    private static final String X_AMZ_TRAILER = "x-amz-trailer";
+
+    private final HttpClient5RequestSigner signer;
+
+    public AwsSigningExecHandler(HttpClient5RequestSigner signer) {
+        this.signer = signer;
+    }
+
+    @Override
+    public void execute(HttpRequest request, AsyncEntityProducer entityProducer, AsyncExecChain.Scope scope,
+                        AsyncExecChain chain, AsyncExecCallback asyncExecCallback) throws HttpException, IOException {
+        CompletableFuture<AwsCredentials> credentials = signer.getCredentials();
+        if (credentials.isDone() && !credentials.isCompletedExceptionally()) {
+            proceedSigned(request, entityProducer, scope, chain, asyncExecCallback, credentials.join());
+            return;
+        }
+        credentials.whenComplete((awsCredentials, e) -> {
+            if (e != null) {
+                asyncExecCallback.failed(getCause(e));
+                return;
+            }
+            try {
+                proceedSigned(request, entityProducer, scope, chain, asyncExecCallback, awsCredentials);
+            } catch (HttpException | IOException | RuntimeException ex) {
+                asyncExecCallback.failed(ex);
+            }
+        });
+    }
+
+    private void proceedSigned(HttpRequest request, AsyncEntityProducer entityProducer, AsyncExecChain.Scope scope,
+                               AsyncExecChain chain, AsyncExecCallback asyncExecCallback, AwsCredentials awsCredentials)
+            throws HttpException, IOException {
+        if (entityProducer == null) {
+            signer.sign(request, HttpClient5RequestSigner.EMPTY_SHA256, awsCredentials);
+            chain.proceed(request, null, scope, asyncExecCallback);
+            return;
+        }
+        String contentSha256 = getDeclaredContentSha256(request);
+        long length = entityProducer.getContentLength();
+        if (contentSha256 == null && entityProducer.isRepeatable() && length >= 0 && length <= signer.getMaxHashedBodyLength()) {
+            contentSha256 = EntityProducerHashing.sha256(entityProducer);
+        }
+        if (contentSha256 == null && length < 0) {
+            contentSha256 = PayloadMode.UNSIGNED_PAYLOAD.getContentSha256();
+        }
+        if (contentSha256 != null) {
+            signer.sign(request, contentSha256, awsCredentials);
+            chain.proceed(request, entityProducer, scope, asyncExecCallback);
+            return;
+        }
+
+        PayloadMode mode = signer.getStreamingMode();
+        ChecksumAlgorithm trailer = signer.getChecksumAlgorithm();
+        request.setHeader(CONTENT_ENCODING, getContentEncoding(request, entityProducer));
+        request.setHeader(X_AMZ_DECODED_CONTENT_LENGTH, Long.toString(length));
+        if (trailer != null) {
+            request.setHeader(X_AMZ_TRAILER, trailer.getHeaderName());
+        }
+        Signer requestSigner = signer.newSigner(request, mode.getContentSha256(), awsCredentials);
+        int chunkSize = signer.getChunkSize();
+        AsyncEntityProducer chunked = new AwsChunkedEntityProducer(entityProducer, () -> mode.hasSignedChunks()
+                ? AwsChunkedEncoder.signed(requestSigner, trailer)
+                : AwsChunkedEncoder.unsigned(trailer), (int) Math.min(chunkSize, Math.max(length, 1)),
+                AwsChunkedEncoder.getEncodedLength(mode, trailer, length, chunkSize));
+        chain.proceed(request, chunked, scope, asyncExecCallback);
+    }
+
+    /**
+     * @return the payload hash set by the caller, or by an earlier execution of a request that was not streamed
+     */
+    private static String getDeclaredContentSha256(HttpRequest request) {
+        Header header = request.getFirstHeader(HttpClient5RequestSigner.X_AMZ_CONTENT_SHA256);
+        if (header == null) {
+            return null;
+        }
+        for (PayloadMode mode : PayloadMode.values()) {
+            if (mode.isChunked() && mode.getContentSha256().equals(header.getValue())) {
+                return null;
+            }
+        }
+        return header.getValue();
+    }
+
+    /**
+     * @return {@code aws-chunked}, followed by the encoding of the body if any, as S3 expects
+     */
+    private static String getContentEncoding(HttpRequest request, AsyncEntityProducer entityProducer) {
+        Header header = request.getFirstHeader(CONTENT_ENCODING);
+        String encoding = header != null ? header.getValue() : entityProducer.getContentEncoding();
+        if (encoding == null || encoding.isEmpty() || encoding.startsWith(AWS_CHUNKED)) {
+            return encoding == null || encoding.isEmpty() ? AWS_CHUNKED : encoding;
+        }
+        return AWS_CHUNKED + "," + encoding;
+    }
+
+    private static Exception getCause(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof Exception ? (Exception) cause : new CompletionException(cause);
+    }
+}
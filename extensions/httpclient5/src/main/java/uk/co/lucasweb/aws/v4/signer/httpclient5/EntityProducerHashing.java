@@ -0,0 +1,107 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.httpclient5;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Hashes the body of a repeatable {@link AsyncEntityProducer} by producing it into a digest rather than a buffer.
+ *
+ * @author Richard Lucas
+ */
+final class EntityProducerHashing {
+
+    /**
+     * The number of calls in a row to {@link AsyncEntityProducer#produce(DataStreamChannel)} writing nothing after
+     * which the producer is deemed to wait for data that is not available yet.
+     */
+    private static final int MAX_IDLE_PRODUCE_CALLS = 16;
+
+    private EntityProducerHashing() {
+        // hide default constructor
+    }
+
+    /**
+     * Produces the whole body into a digest, then releases the resources of the producer so that it produces the
+     * body again from the start.
+     *
+     * @return the hex encoded SHA-256 of the body, or {@code null} if the producer does not produce the whole body
+     * at once
+     */
+    static String sha256(AsyncEntityProducer entityProducer) throws IOException {
+        DigestChannel channel = new DigestChannel();
+        try {
+            int idle = 0;
+            while (!channel.ended) {
+                long written = channel.written;
+                entityProducer.produce(channel);
+                if (channel.written != written) {
+                    idle = 0;
+                } else if (++idle == MAX_IDLE_PRODUCE_CALLS) {
+                    return null;
+                }
+            }
+            return Base16.encodeLowerCase(channel.digest.digest());
+        } finally {
+            entityProducer.releaseResources();
+        }
+    }
+
+    private static final class DigestChannel implements DataStreamChannel {
+
+        private final MessageDigest digest;
+        private long written;
+        private boolean ended;
+
+        private DigestChannel() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new SigningException("Error hashing request body", e);
+            }
+        }
+
+        @Override
+        public void requestOutput() {
+            // the producer is called again straight away
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            digest.update(src);
+            written += length;
+            return length;
+        }
+
+        @Override
+        public void endStream() {
+            ended = true;
+        }
+
+        @Override
+        public void endStream(List<? extends Header> trailers) {
+            ended = true;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.httpclient5;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.net.URIAuthority;
+import uk.co.lucasweb.aws.v4.signer.PayloadMode;
+import uk.co.lucasweb.aws.v4.signer.Signer;
+import uk.co.lucasweb.aws.v4.signer.SignerRegistry;
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+import uk.co.lucasweb.aws.v4.signer.credentials.AsyncAwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProvider;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProviderChain;
+import uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Signs Apache HttpClient 5 {@link HttpRequest}s in place, adding the {@code x-amz-date},
+ * {@code x-amz-content-sha256} and {@code Authorization} headers; see {@link AwsSigningExecHandler} for how bodies
+ * are hashed.
+ * <p>
+ * Header names and values are read once from the request into the {@link Signer}. The {@code Host} header, which
+ * the client only adds once the request reaches the connection, is signed from the authority of the request.
+ * </p>
+ * <p>
+ * Instances are thread safe and meant to be shared by every request. Credentials are resolved on the configured
+ * executor, so that providers doing I/O never run on an I/O reactor thread, and again in the background once the
+ * refresh interval is over; see {@link AsyncAwsCredentials}. Signing keys are derived once per credentials and
+ * scope, and reused by every request.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class HttpClient5RequestSigner {
+
+    static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    static final String X_AMZ_CONTENT_SHA256 = "x-amz-content-sha256";
+
+    private static final String X_AMZ_DATE = "x-amz-date";
+    private static final String X_AMZN_TRACE_ID = "x-amzn-trace-id";
+    // the credentials in use and those they are being replaced with
+    private static final int MAXIMUM_KEYED_CREDENTIALS = 4;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT)
+            .withZone(ZoneOffset.UTC);
+
+    private final String region;
+    private final String service;
+    private final Clock clock;
+    private final int chunkSize;
+    private final long maxHashedBodyLength;
+    private final PayloadMode streamingMode;
+    private final ChecksumAlgorithm checksumAlgorithm;
+    private final SignerRegistry signingKeys = SignerRegistry.builder()
+            .maximumTenants(MAXIMUM_KEYED_CREDENTIALS)
+            .build();
+    private final AsyncAwsCredentials credentials;
+
+    private HttpClient5RequestSigner(Builder builder, Supplier<AwsCredentials> credentialsSupplier) {
+        this.region = builder.region;
+        this.service = builder.service;
+        this.clock = builder.clock;
+        this.chunkSize = builder.chunkSize;
+        this.maxHashedBodyLength = builder.maxHashedBodyLength;
+        this.streamingMode = builder.streamingMode;
+        this.checksumAlgorithm = builder.checksumAlgorithm;
+        this.credentials = AsyncAwsCredentials.builder(credentialsSupplier)
+                .executor(builder.executor)
+                .refreshInterval(builder.credentialsRefreshInterval)
+                .ticker(builder.ticker)
+                .onResolved(this::warmUp)
+                .build();
+    }
+
+    /**
+     * @return the credentials, resolved on the configured executor the first time they are needed and again after
+     * a failed resolution; once the refresh interval is over, the current credentials are returned while they are
+     * resolved again in the background
+     */
+    public CompletableFuture<AwsCredentials> getCredentials() {
+        return credentials.get();
+    }
+
+    /**
+     * Forgets the resolved credentials; the next request resolves them again, off the I/O reactor.
+     */
+    public void refreshCredentials() {
+        credentials.invalidate();
+    }
+
+    /**
+     * Signs the request in place with already resolved credentials; this does no I/O.
+     *
+     * @param contentSha256 the hash of the body, or one of the {@link PayloadMode} values
+     */
+    public void sign(HttpRequest request, String contentSha256, AwsCredentials awsCredentials) {
+        newSigner(request, contentSha256, awsCredentials);
+    }
+
+    /**
+     * Signs the request in place, returning the signer that chunk signatures are chained from.
+     */
+    Signer newSigner(HttpRequest request, String contentSha256, AwsCredentials awsCredentials) {
+        if (!request.containsHeader(X_AMZ_DATE)) {
+            request.setHeader(X_AMZ_DATE, DATE_FORMATTER.format(clock.instant()));
+        }
+        request.setHeader(X_AMZ_CONTENT_SHA256, contentSha256);
+        request.removeHeaders(HttpHeaders.AUTHORIZATION);
+
+        Signer.Builder builder = signingKeys.signer(awsCredentials)
+                .region(region);
+        if (!request.containsHeader(HttpHeaders.HOST)) {
+            URIAuthority authority = request.getAuthority();
+            if (authority == null) {
+                throw new SigningException("request has neither an authority nor a 'Host' header");
+            }
+            builder.header(HttpHeaders.HOST, authority.toString());
+        }
+        Iterator<Header> iterator = request.headerIterator();
+        while (iterator.hasNext()) {
+            Header header = iterator.next();
+            if (isSigned(header.getName())) {
+                builder.header(header.getName(), header.getValue());
+            }
+        }
+        Signer signer = builder.build(new uk.co.lucasweb.aws.v4.signer.HttpRequest(request.getMethod(), request.getPath()),
+                service, contentSha256);
+        request.setHeader(HttpHeaders.AUTHORIZATION, signer.getSignature());
+        return signer;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    long getMaxHashedBodyLength() {
+        return maxHashedBodyLength;
+    }
+
+    PayloadMode getStreamingMode() {
+        return streamingMode;
+    }
+
+    ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * Headers that proxies and the transport are free to change are left out of the signature, as AWS SDKs do.
+     */
+    private static boolean isSigned(String name) {
+        return !HttpHeaders.CONNECTION.equalsIgnoreCase(name)
+                && !HttpHeaders.USER_AGENT.equalsIgnoreCase(name)
+                && !HttpHeaders.EXPECT.equalsIgnoreCase(name)
+                && !X_AMZN_TRACE_ID.equalsIgnoreCase(name);
+    }
+
+    /**
+     * Loads the JCA providers used to sign and the signing key of the current day, which may read files, before the
+     * first request signed with the credentials reaches the I/O reactor.
+     */
+    private void warmUp(AwsCredentials awsCredentials) {
+        signingKeys.signer(awsCredentials)
+                .region(region)
+                .header(HttpHeaders.HOST, "localhost")
+                .header(X_AMZ_DATE, DATE_FORMATTER.format(clock.instant()))
+                .build(new uk.co.lucasweb.aws.v4.signer.HttpRequest("GET", "/"), service, EMPTY_SHA256)
+                .getSignature();
+    }
+
+    public static class Builder {
+
+        private static final String DEFAULT_REGION = "us-east-1";
+        private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+        private static final long DEFAULT_MAX_HASHED_BODY_LENGTH = 1024 * 1024;
+        private static final Duration DEFAULT_CREDENTIALS_REFRESH_INTERVAL = Duration.ofMinutes(15);
+
+        private Supplier<AwsCredentials> credentialsSupplier;
+        private Executor executor = ForkJoinPool.commonPool();
+        private String region = DEFAULT_REGION;
+        private String service;
+        private Clock clock = Clock.systemUTC();
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private long maxHashedBodyLength = DEFAULT_MAX_HASHED_BODY_LENGTH;
+        private PayloadMode streamingMode = PayloadMode.STREAMING_SIGNED;
+        private ChecksumAlgorithm checksumAlgorithm;
+        private Duration credentialsRefreshInterval = DEFAULT_CREDENTIALS_REFRESH_INTERVAL;
+        private LongSupplier ticker = System::nanoTime;
+
+        public Builder awsCredentials(AwsCredentials awsCredentials) {
+            this.credentialsSupplier = () -> awsCredentials;
+            return this;
+        }
+
+        public Builder awsCredentialsProvider(AwsCredentialsProvider provider) {
+            this.credentialsSupplier = () -> provider.getCredentials()
+                    .orElseThrow(() -> new SigningException("no AWS credentials were provided"));
+            return this;
+        }
+
+        /**
+         * The executor credentials are resolved on, which must not be an I/O reactor thread.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder service(String service) {
+            this.service = service;
+            return this;
+        }
+
+        /**
+         * The clock used for the {@code x-amz-date} header of requests that do not already have one.
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * The size of every chunk but the last one when streaming, at least 8KB as required by S3.
+         */
+        public Builder chunkSize(int chunkSize) {
+            if (chunkSize < 8 * 1024) {
+                throw new IllegalArgumentException("chunkSize must be at least 8KB");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Repeatable bodies up to this length are read once to be hashed before they are sent, 1MB by default;
+         * longer and non-repeatable bodies are streamed. Zero streams every body.
+         */
+        public Builder maxHashedBodyLength(long maxHashedBodyLength) {
+            if (maxHashedBodyLength < 0) {
+                throw new IllegalArgumentException("maxHashedBodyLength must not be negative");
+            }
+            this.maxHashedBodyLength = maxHashedBodyLength;
+            return this;
+        }
+
+        /**
+         * How bodies that are not hashed up front are framed, {@link PayloadMode#STREAMING_SIGNED} by default.
+         *
+         * @param mode a chunked payload mode
+         * @param checksumAlgorithm the trailing checksum, required by the trailer modes and ignored otherwise
+         */
+        public Builder streamingMode(PayloadMode mode, ChecksumAlgorithm checksumAlgorithm) {
+            if (!mode.isChunked()) {
+                throw new IllegalArgumentException(mode + " is not a chunked payload mode");
+            }
+            if (mode.hasTrailer() && checksumAlgorithm == null) {
+                throw new IllegalArgumentException(mode + " requires a checksum algorithm");
+            }
+            this.streamingMode = mode;
+            this.checksumAlgorithm = mode.hasTrailer() ? checksumAlgorithm : null;
+            return this;
+        }
+
+        /**
+         * How long resolved credentials are used before they are resolved again.
+         */
+        public Builder credentialsRefreshInterval(Duration credentialsRefreshInterval) {
+            if (credentialsRefreshInterval.isNegative() || credentialsRefreshInterval.isZero()) {
+                throw new IllegalArgumentException("credentialsRefreshInterval must be positive");
+            }
+            this.credentialsRefreshInterval = credentialsRefreshInterval;
+            return this;
+        }
+
+        Builder ticker(LongSupplier ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public HttpClient5RequestSigner build() {
+            if (service == null) {
+                throw new SigningException("service must be set");
+            }
+            Supplier<AwsCredentials> supplier = credentialsSupplier != null
+                    ? credentialsSupplier
+                    : () -> new AwsCredentialsProviderChain().getCredentials();
+            return new HttpClient5RequestSigner(this, supplier);
+        }
+    }
+}
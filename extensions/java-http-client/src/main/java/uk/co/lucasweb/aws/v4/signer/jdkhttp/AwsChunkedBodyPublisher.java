@@ -0,0 +1,189 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.jdkhttp;
+
+import uk.co.lucasweb.aws.v4.signer.AwsChunkedEncoder;
+
+import java.net.http.HttpRequest.BodyPublisher;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A {@link BodyPublisher} framing the body of another publisher with the {@code aws-chunked} content encoding while
+ * it is being sent, so that the body is read once and never buffered beyond a single chunk.
+ * <p>
+ * Every subscription (the client subscribes again on retries and redirects) starts from a fresh
+ * {@link AwsChunkedEncoder}, so that chunk signatures are chained from the request signature each time.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class AwsChunkedBodyPublisher implements BodyPublisher {
+
+    private final BodyPublisher body;
+    private final Supplier<AwsChunkedEncoder> encoders;
+    private final int chunkSize;
+    private final long contentLength;
+
+    AwsChunkedBodyPublisher(BodyPublisher body, Supplier<AwsChunkedEncoder> encoders, int chunkSize, long contentLength) {
+        this.body = body;
+        this.encoders = encoders;
+        this.chunkSize = chunkSize;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        body.subscribe(new ChunkingSubscriber(subscriber, encoders.get(), chunkSize));
+    }
+
+    /**
+     * Re-frames the upstream buffers into chunks and relays them downstream, requesting one upstream buffer at a
+     * time and only while downstream has outstanding demand.
+     */
+    private static final class ChunkingSubscriber implements Flow.Subscriber<ByteBuffer>, Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> downstream;
+        private final AwsChunkedEncoder encoder;
+        private final int chunkSize;
+        private final Queue<ByteBuffer> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean upstreamRequested = new AtomicBoolean();
+        private volatile Flow.Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private boolean terminated;
+        private ByteBuffer chunk;
+
+        private ChunkingSubscriber(Flow.Subscriber<? super ByteBuffer> downstream, AwsChunkedEncoder encoder, int chunkSize) {
+            this.downstream = downstream;
+            this.encoder = encoder;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            while (item.hasRemaining()) {
+                if (chunk == null) {
+                    chunk = ByteBuffer.allocate(chunkSize);
+                }
+                int length = Math.min(item.remaining(), chunk.remaining());
+                ByteBuffer slice = item.slice();
+                slice.limit(length);
+                chunk.put(slice);
+                item.position(item.position() + length);
+                if (!chunk.hasRemaining()) {
+                    emitChunk();
+                }
+            }
+            upstreamRequested.set(false);
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                if (chunk != null && chunk.position() > 0) {
+                    emitChunk();
+                }
+                ready.add(encoder.finish());
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                downstream.onError(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Flow.Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+
+        private void emitChunk() {
+            chunk.flip();
+            ready.add(encoder.beginChunk(chunk));
+            ready.add(chunk);
+            ready.add(encoder.endChunk());
+            chunk = null;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (cancelled || terminated) {
+                    ready.clear();
+                    continue;
+                }
+                while (demand.get() > 0 && !ready.isEmpty()) {
+                    demand.decrementAndGet();
+                    downstream.onNext(ready.poll());
+                }
+                if (ready.isEmpty()) {
+                    if (upstreamDone) {
+                        terminated = true;
+                        if (error != null) {
+                            downstream.onError(error);
+                        } else {
+                            downstream.onComplete();
+                        }
+                    } else if (demand.get() > 0 && upstreamRequested.compareAndSet(false, true)) {
+                        upstream.request(1);
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+}
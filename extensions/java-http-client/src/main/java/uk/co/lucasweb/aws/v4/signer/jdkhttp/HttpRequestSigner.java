@@ -0,0 +1,273 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.jdkhttp;
+
+import uk.co.lucasweb.aws.v4.signer.AwsChunkedEncoder;
+import uk.co.lucasweb.aws.v4.signer.HttpRequest;
+import uk.co.lucasweb.aws.v4.signer.PayloadMode;
+import uk.co.lucasweb.aws.v4.signer.Signer;
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProviderChain;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm;
+
+import java.net.URI;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Signs {@link java.net.http.HttpRequest}s, returning a copy of the request carrying the {@code x-amz-date},
+ * {@code x-amz-content-sha256} and {@code Authorization} headers.
+ * <p>
+ * The signature covers the method, URI and headers of the request, plus the {@code Host} header that the client
+ * derives from the URI. The payload hash must be known before the request is sent, so the body is either given as
+ * bytes and hashed up front, sent as {@code UNSIGNED-PAYLOAD}, or framed with the {@code aws-chunked} encoding while
+ * it is being sent, in which case each chunk is signed (or checksummed) on the fly and the body is never buffered.
+ * </p>
+ * <pre>{@code
+ * HttpRequestSigner signer = HttpRequestSigner.builder()
+ *         .awsCredentials(credentials)
+ *         .region("eu-west-1")
+ *         .service("s3")
+ *         .build();
+ * HttpRequest request = HttpRequest.newBuilder(URI.create("https://examplebucket.s3.amazonaws.com/photo.jpg"))
+ *         .PUT(BodyPublishers.ofFile(file))
+ *         .build();
+ * client.send(signer.signStreaming(request, PayloadMode.STREAMING_SIGNED, null), BodyHandlers.discarding());
+ * }</pre>
+ *
+ * @author Richard Lucas
+ */
+public final class HttpRequestSigner {
+
+    private static final String X_AMZ_DATE = "x-amz-date";
+    private static final String X_AMZ_CONTENT_SHA256 = "x-amz-content-sha256";
+    private static final String X_AMZ_DECODED_CONTENT_LENGTH = "x-amz-decoded-content-length";
+    private static final String X_AMZ_TRAILER = "x-amz-trailer";
+    private static final String CONTENT_ENCODING = "content-encoding";
+    private static final String AWS_CHUNKED = "aws-chunked";
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String HOST = "Host";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT)
+            .withZone(ZoneOffset.UTC);
+
+    private final AwsCredentials awsCredentials;
+    private final String region;
+    private final String service;
+    private final Clock clock;
+    private final int chunkSize;
+
+    private HttpRequestSigner(AwsCredentials awsCredentials, String region, String service, Clock clock, int chunkSize) {
+        this.awsCredentials = awsCredentials;
+        this.region = region;
+        this.service = service;
+        this.clock = clock;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Signs a request without a body, or whose body is sent as {@code UNSIGNED-PAYLOAD}.
+     *
+     * @throws SigningException if the request has a non-empty body, which must then be given to
+     * {@link #sign(java.net.http.HttpRequest, byte[])} or {@link #signStreaming(java.net.http.HttpRequest, PayloadMode, ChecksumAlgorithm)}
+     */
+    public java.net.http.HttpRequest sign(java.net.http.HttpRequest request) {
+        BodyPublisher body = request.bodyPublisher().orElse(null);
+        if (body != null && body.contentLength() != 0) {
+            throw new SigningException("the body of a " + request.method() + " request must be hashed or streamed");
+        }
+        return sign(request, body, sha256(new byte[0]));
+    }
+
+    /**
+     * Signs a request with the given body, which replaces the body of {@code request}.
+     */
+    public java.net.http.HttpRequest sign(java.net.http.HttpRequest request, byte[] body) {
+        return sign(request, BodyPublishers.ofByteArray(body), sha256(body));
+    }
+
+    /**
+     * Signs a request whose body is sent as is but not covered by the signature.
+     */
+    public java.net.http.HttpRequest signUnsignedPayload(java.net.http.HttpRequest request) {
+        return sign(request, request.bodyPublisher().orElse(null), PayloadMode.UNSIGNED_PAYLOAD.getContentSha256());
+    }
+
+    /**
+     * Signs a request whose body is framed with the {@code aws-chunked} encoding while it is being sent.
+     *
+     * @param request the request, whose body publisher must report its length
+     * @param mode a chunked payload mode
+     * @param checksumAlgorithm the trailing checksum, required by the trailer modes and ignored otherwise
+     */
+    public java.net.http.HttpRequest signStreaming(java.net.http.HttpRequest request, PayloadMode mode,
+                                                   ChecksumAlgorithm checksumAlgorithm) {
+        if (!mode.isChunked()) {
+            throw new IllegalArgumentException(mode + " is not a chunked payload mode");
+        }
+        if (mode.hasTrailer() && checksumAlgorithm == null) {
+            throw new IllegalArgumentException(mode + " requires a checksum algorithm");
+        }
+        BodyPublisher body = request.bodyPublisher()
+                .orElseThrow(() -> new SigningException("streaming requests must have a body"));
+        long decodedLength = body.contentLength();
+        if (decodedLength < 0) {
+            throw new SigningException("the length of streamed bodies must be known in advance");
+        }
+        ChecksumAlgorithm trailer = mode.hasTrailer() ? checksumAlgorithm : null;
+
+        java.net.http.HttpRequest.Builder builder = copy(request, mode.getContentSha256())
+                .header(CONTENT_ENCODING, AWS_CHUNKED)
+                .header(X_AMZ_DECODED_CONTENT_LENGTH, Long.toString(decodedLength));
+        if (trailer != null) {
+            builder.header(X_AMZ_TRAILER, trailer.getHeaderName());
+        }
+        Signer signer = newSigner(request.uri(), builder.build(), mode.getContentSha256());
+        long encodedLength = AwsChunkedEncoder.getEncodedLength(mode, trailer, decodedLength, chunkSize);
+        BodyPublisher chunked = new AwsChunkedBodyPublisher(body, () -> mode.hasSignedChunks()
+                ? AwsChunkedEncoder.signed(signer, trailer)
+                : AwsChunkedEncoder.unsigned(trailer), chunkSize, encodedLength);
+        return builder.method(request.method(), chunked)
+                .header(AUTHORIZATION, signer.getSignature())
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private java.net.http.HttpRequest sign(java.net.http.HttpRequest request, BodyPublisher body, String contentSha256) {
+        java.net.http.HttpRequest.Builder builder = copy(request, contentSha256);
+        Signer signer = newSigner(request.uri(), builder.build(), contentSha256);
+        return builder.method(request.method(), body == null ? BodyPublishers.noBody() : body)
+                .header(AUTHORIZATION, signer.getSignature())
+                .build();
+    }
+
+    /**
+     * Copies the request, adding the {@code x-amz-date} header unless it is already set and replacing any
+     * {@code x-amz-content-sha256} header with the one the request is signed with.
+     */
+    private java.net.http.HttpRequest.Builder copy(java.net.http.HttpRequest request, String contentSha256) {
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(request.uri())
+                .method(request.method(), request.bodyPublisher().orElse(BodyPublishers.noBody()))
+                .expectContinue(request.expectContinue());
+        request.timeout().ifPresent(builder::timeout);
+        request.version().ifPresent(builder::version);
+        for (Map.Entry<String, List<String>> header : request.headers().map().entrySet()) {
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        if (!request.headers().firstValue(X_AMZ_DATE).isPresent()) {
+            builder.header(X_AMZ_DATE, DATE_FORMATTER.format(clock.instant()));
+        }
+        return builder.setHeader(X_AMZ_CONTENT_SHA256, contentSha256);
+    }
+
+    /**
+     * Signs the headers of {@code headers}, which carry {@code x-amz-content-sha256}, plus the {@code Host} header.
+     */
+    private Signer newSigner(URI uri, java.net.http.HttpRequest headers, String contentSha256) {
+        Signer.Builder builder = Signer.builder()
+                .awsCredentials(awsCredentials)
+                .region(region)
+                .header(HOST, getHost(uri));
+        for (Map.Entry<String, List<String>> header : headers.headers().map().entrySet()) {
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        return builder.build(new HttpRequest(headers.method(), uri), service, contentSha256);
+    }
+
+    /**
+     * @return the {@code Host} header sent by the client, which includes the port only if the URI has one
+     */
+    static String getHost(URI uri) {
+        return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    }
+
+    private static String sha256(byte[] body) {
+        try {
+            return Base16.encodeLowerCase(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new SigningException("Error hashing request body", e);
+        }
+    }
+
+    public static class Builder {
+
+        private static final String DEFAULT_REGION = "us-east-1";
+        private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+        private AwsCredentials awsCredentials;
+        private String region = DEFAULT_REGION;
+        private String service;
+        private Clock clock = Clock.systemUTC();
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+        public Builder awsCredentials(AwsCredentials awsCredentials) {
+            this.awsCredentials = awsCredentials;
+            return this;
+        }
+
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder service(String service) {
+            this.service = service;
+            return this;
+        }
+
+        /**
+         * The clock used for the {@code x-amz-date} header of requests that do not already have one.
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * The size of every chunk but the last one when streaming, at least 8KB as required by S3.
+         */
+        public Builder chunkSize(int chunkSize) {
+            if (chunkSize < 8 * 1024) {
+                throw new IllegalArgumentException("chunkSize must be at least 8KB");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public HttpRequestSigner build() {
+            if (service == null) {
+                throw new SigningException("service must be set");
+            }
+            AwsCredentials credentials = Optional.ofNullable(awsCredentials)
+                    .orElseGet(() -> new AwsCredentialsProviderChain().getCredentials());
+            return new HttpRequestSigner(credentials, region, service, clock, chunkSize);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A lookup of credentials, recorded when it takes 10 ms or more by default.
+ *
+ * @author Richard Lucas
+ */
+@Name(CredentialsEvent.NAME)
+@Label("AWS Credentials Lookup")
+@Category({"AWS", "Signer"})
+@Description("Looking up credentials from a provider, such as the refresh of cached credentials")
+@Threshold("10 ms")
+final class CredentialsEvent extends Event {
+
+    static final String NAME = "uk.co.lucasweb.aws.v4.signer.Credentials";
+
+    @Label("Provider")
+    @Description("The class name of the provider")
+    String provider;
+
+    @Label("Found")
+    @Description("Whether the provider returned credentials")
+    boolean found;
+}
@@ -0,0 +1,89 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.jfr;
+
+import jdk.jfr.Event;
+import uk.co.lucasweb.aws.v4.signer.event.SigningEventSink;
+
+/**
+ * Records signatures, credential lookups and payload hashing as JDK Flight Recorder events, so that they show up as
+ * such in recordings rather than as anonymous {@code Mac} and {@code MessageDigest} frames.
+ * <p>
+ * It is picked up through {@link java.util.ServiceLoader} when this module is on the class path. By default only slow
+ * operations are recorded, see the thresholds of the events; they can be changed like those of any other event, in a
+ * {@code .jfc} settings file or with {@code Recording.enable("uk.co.lucasweb.aws.v4.signer.Signature").withThreshold(...)}.
+ * While no recording enables the events, each operation only costs a check of whether they are enabled.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class JfrSigningEventSink implements SigningEventSink {
+
+    @Override
+    public Object beginSignature() {
+        return begin(new SignatureEvent());
+    }
+
+    @Override
+    public Object beginCredentials() {
+        return begin(new CredentialsEvent());
+    }
+
+    @Override
+    public Object beginPayloadHash() {
+        return begin(new PayloadHashEvent());
+    }
+
+    @Override
+    public boolean end(Object token) {
+        Event event = (Event) token;
+        event.end();
+        return event.shouldCommit();
+    }
+
+    @Override
+    public void commitSignature(Object token, String service, String region, int canonicalRequestLength,
+                                int headerCount, boolean signingKeyReused) {
+        SignatureEvent event = (SignatureEvent) token;
+        event.service = service;
+        event.region = region;
+        event.canonicalRequestLength = canonicalRequestLength;
+        event.headerCount = headerCount;
+        event.signingKeyReused = signingKeyReused;
+        event.commit();
+    }
+
+    @Override
+    public void commitCredentials(Object token, String provider, boolean found) {
+        CredentialsEvent event = (CredentialsEvent) token;
+        event.provider = provider;
+        event.found = found;
+        event.commit();
+    }
+
+    @Override
+    public void commitPayloadHash(Object token, String algorithm, long bytes) {
+        PayloadHashEvent event = (PayloadHashEvent) token;
+        event.algorithm = algorithm;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    private static Event begin(Event event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+}
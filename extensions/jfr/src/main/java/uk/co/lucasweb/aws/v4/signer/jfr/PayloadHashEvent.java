@@ -0,0 +1,43 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * The hashing of a payload, recorded when it takes 10 ms or more by default.
+ *
+ * @author Richard Lucas
+ */
+@Name(PayloadHashEvent.NAME)
+@Label("AWS Payload Hash")
+@Category({"AWS", "Signer"})
+@Description("Hashing a payload, including its serialisation when it is hashed while being serialised")
+@Threshold("10 ms")
+final class PayloadHashEvent extends Event {
+
+    static final String NAME = "uk.co.lucasweb.aws.v4.signer.PayloadHash";
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
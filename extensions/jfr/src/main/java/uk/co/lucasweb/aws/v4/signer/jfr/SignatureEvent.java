@@ -0,0 +1,53 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * The signature of a request, recorded when it takes 1 ms or more by default.
+ *
+ * @author Richard Lucas
+ */
+@Name(SignatureEvent.NAME)
+@Label("AWS Signature")
+@Category({"AWS", "Signer"})
+@Description("Hashing the canonical request of a request and signing its string to sign")
+@Threshold("1 ms")
+final class SignatureEvent extends Event {
+
+    static final String NAME = "uk.co.lucasweb.aws.v4.signer.Signature";
+
+    @Label("Service")
+    String service;
+
+    @Label("Region")
+    String region;
+
+    @Label("Canonical Request Length")
+    @Description("The number of characters of the canonical request")
+    int canonicalRequestLength;
+
+    @Label("Header Count")
+    @Description("The number of signed headers")
+    int headerCount;
+
+    @Label("Signing Key Reused")
+    @Description("Whether a signing key derived beforehand was used, rather than one derived for this signature")
+    boolean signingKeyReused;
+}
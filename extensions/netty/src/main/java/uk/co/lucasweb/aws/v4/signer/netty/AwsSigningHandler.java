@@ -0,0 +1,147 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.PendingWriteQueue;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.ReferenceCountUtil;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Signs outbound {@link HttpRequest}s inline on the event loop with a shared {@link NettyRequestSigner}.
+ * <p>
+ * Signing itself does no I/O. Until the credentials have been resolved (off the event loop) outbound messages are
+ * queued in order, flushes included, and written once the credentials are available; if they cannot be resolved the
+ * queued writes fail. The handler must be placed after the {@code HttpClientCodec}, i.e. closer to the application,
+ * and a new instance is needed per channel.
+ * </p>
+ * <pre>{@code
+ * NettyRequestSigner signer = NettyRequestSigner.builder().region("eu-west-1").service("s3").build();
+ * pipeline.addLast(new HttpClientCodec(), new HttpObjectAggregator(1024 * 1024), new AwsSigningHandler(signer));
+ * }</pre>
+ *
+ * @author Richard Lucas
+ */
+public class AwsSigningHandler extends ChannelOutboundHandlerAdapter {
+
+    private final NettyRequestSigner signer;
+    private PendingWriteQueue pendingWrites;
+    private boolean flushPending;
+
+    public AwsSigningHandler(NettyRequestSigner signer) {
+        this.signer = signer;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        pendingWrites = new PendingWriteQueue(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        pendingWrites.removeAndFailAll(new ClosedChannelException());
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (!pendingWrites.isEmpty()) {
+            pendingWrites.add(msg, promise);
+            return;
+        }
+        if (!(msg instanceof HttpRequest)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        CompletableFuture<AwsCredentials> credentials = signer.getCredentials();
+        if (credentials.isDone()) {
+            writeSigned(ctx, msg, promise, credentials);
+            return;
+        }
+        pendingWrites.add(msg, promise);
+        credentials.whenCompleteAsync((c, e) -> writePending(ctx, credentials), ctx.executor());
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (pendingWrites.isEmpty()) {
+            ctx.flush();
+        } else {
+            flushPending = true;
+        }
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        pendingWrites.removeAndFailAll(new ClosedChannelException());
+        super.close(ctx, promise);
+    }
+
+    private void writeSigned(ChannelHandlerContext ctx, Object msg, ChannelPromise promise,
+                             CompletableFuture<AwsCredentials> credentials) {
+        try {
+            signer.sign((HttpRequest) msg, credentials.join());
+        } catch (CompletionException e) {
+            ReferenceCountUtil.release(msg);
+            promise.setFailure(e.getCause());
+            return;
+        } catch (RuntimeException e) {
+            ReferenceCountUtil.release(msg);
+            promise.setFailure(e);
+            return;
+        }
+        ctx.write(msg, promise);
+    }
+
+    /**
+     * Runs on the event loop once the credentials are resolved, writing the queued messages in order.
+     */
+    private void writePending(ChannelHandlerContext ctx, CompletableFuture<AwsCredentials> credentials) {
+        if (credentials.isCompletedExceptionally()) {
+            pendingWrites.removeAndFailAll(getCause(credentials));
+        } else {
+            AwsCredentials awsCredentials = credentials.join();
+            Object msg;
+            while ((msg = pendingWrites.current()) != null) {
+                if (msg instanceof HttpRequest) {
+                    try {
+                        signer.sign((HttpRequest) msg, awsCredentials);
+                    } catch (RuntimeException e) {
+                        pendingWrites.removeAndFail(e);
+                        continue;
+                    }
+                }
+                pendingWrites.removeAndWrite();
+            }
+        }
+        if (flushPending) {
+            flushPending = false;
+            ctx.flush();
+        }
+    }
+
+    private static Throwable getCause(CompletableFuture<AwsCredentials> credentials) {
+        try {
+            credentials.join();
+            return new IllegalStateException("credentials were resolved");
+        } catch (CompletionException e) {
+            return e.getCause();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.AsciiString;
+import uk.co.lucasweb.aws.v4.signer.Signer;
+import uk.co.lucasweb.aws.v4.signer.SignerRegistry;
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+import uk.co.lucasweb.aws.v4.signer.credentials.AsyncAwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProvider;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProviderChain;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Signs Netty {@link HttpRequest}s in place, adding the {@code x-amz-date}, {@code x-amz-content-sha256} and
+ * {@code Authorization} headers.
+ * <p>
+ * Header names and values are read straight from {@link HttpHeaders} as {@link CharSequence}s and the content of a
+ * {@link FullHttpRequest} is hashed from the NIO views of its {@link ByteBuf}, so that direct buffers are never
+ * copied to the heap. Requests whose content follows as separate {@code HttpContent} messages are signed with the
+ * {@code x-amz-content-sha256} header they already carry, or as {@code UNSIGNED-PAYLOAD}.
+ * </p>
+ * <p>
+ * Instances are thread safe and meant to be shared by every channel. Credentials are resolved on the configured
+ * executor, so that providers doing I/O never run on an event loop; see {@link AwsSigningHandler}. They are resolved
+ * again in the background once the refresh interval is over, requests being signed with the previous credentials
+ * until the new ones are known. Signing keys are derived once per credentials and scope, and reused by every request.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class NettyRequestSigner {
+
+    static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+    private static final AsciiString X_AMZ_DATE = AsciiString.cached("x-amz-date");
+    private static final AsciiString X_AMZ_CONTENT_SHA256 = AsciiString.cached("x-amz-content-sha256");
+    private static final AsciiString X_AMZN_TRACE_ID = AsciiString.cached("x-amzn-trace-id");
+    // the credentials in use and those they are being replaced with
+    private static final int MAXIMUM_KEYED_CREDENTIALS = 4;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT)
+            .withZone(ZoneOffset.UTC);
+
+    private final String region;
+    private final String service;
+    private final Clock clock;
+    private final SignerRegistry signingKeys = SignerRegistry.builder()
+            .maximumTenants(MAXIMUM_KEYED_CREDENTIALS)
+            .build();
+    private final AsyncAwsCredentials credentials;
+
+    private NettyRequestSigner(AsyncAwsCredentials.Builder credentials, String region, String service, Clock clock) {
+        this.region = region;
+        this.service = service;
+        this.clock = clock;
+        this.credentials = credentials.onResolved(this::warmUp).build();
+    }
+
+    /**
+     * @return the credentials, resolved on the configured executor the first time they are needed and again after
+     * a failed resolution; once the refresh interval is over, the current credentials are returned while they are
+     * resolved again in the background
+     */
+    public CompletableFuture<AwsCredentials> getCredentials() {
+        return credentials.get();
+    }
+
+    /**
+     * Forgets the resolved credentials; the next request resolves them again, off the event loop.
+     */
+    public void refreshCredentials() {
+        credentials.invalidate();
+    }
+
+    /**
+     * Signs the request in place with already resolved credentials; this does no I/O.
+     */
+    public void sign(HttpRequest request, AwsCredentials awsCredentials) {
+        HttpHeaders headers = request.headers();
+        if (!headers.contains(HttpHeaderNames.HOST)) {
+            throw new SigningException("headers missing 'Host' header");
+        }
+        if (!headers.contains(X_AMZ_DATE)) {
+            headers.set(X_AMZ_DATE, DATE_FORMATTER.format(clock.instant()));
+        }
+        String contentSha256;
+        if (request instanceof FullHttpRequest) {
+            contentSha256 = sha256(((FullHttpRequest) request).content());
+            headers.set(X_AMZ_CONTENT_SHA256, contentSha256);
+        } else {
+            contentSha256 = headers.get(X_AMZ_CONTENT_SHA256);
+            if (contentSha256 == null) {
+                contentSha256 = UNSIGNED_PAYLOAD;
+                headers.set(X_AMZ_CONTENT_SHA256, contentSha256);
+            }
+        }
+        headers.remove(HttpHeaderNames.AUTHORIZATION);
+
+        Signer.Builder builder = signingKeys.signer(awsCredentials)
+                .region(region);
+        Iterator<Map.Entry<CharSequence, CharSequence>> iterator = headers.iteratorCharSequence();
+        while (iterator.hasNext()) {
+            Map.Entry<CharSequence, CharSequence> header = iterator.next();
+            if (isSigned(header.getKey())) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        String authorization = builder
+                .build(new uk.co.lucasweb.aws.v4.signer.HttpRequest(request.method().name(), getPathAndQuery(request.uri())),
+                        service, contentSha256)
+                .getSignature();
+        headers.set(HttpHeaderNames.AUTHORIZATION, authorization);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the origin form of a request target, which may be in absolute form when talking to a proxy
+     */
+    static String getPathAndQuery(String uri) {
+        int schemeEnd = uri.indexOf("://");
+        if (schemeEnd < 0 || uri.startsWith("/")) {
+            return uri;
+        }
+        int pathStart = uri.indexOf('/', schemeEnd + 3);
+        if (pathStart >= 0) {
+            return uri.substring(pathStart);
+        }
+        int queryStart = uri.indexOf('?', schemeEnd + 3);
+        return queryStart >= 0 ? "/" + uri.substring(queryStart) : "/";
+    }
+
+    /**
+     * Headers that proxies and the transport are free to change are left out of the signature, as AWS SDKs do.
+     */
+    private static boolean isSigned(CharSequence name) {
+        return !AsciiString.contentEqualsIgnoreCase(name, HttpHeaderNames.CONNECTION)
+                && !AsciiString.contentEqualsIgnoreCase(name, HttpHeaderNames.USER_AGENT)
+                && !AsciiString.contentEqualsIgnoreCase(name, HttpHeaderNames.EXPECT)
+                && !AsciiString.contentEqualsIgnoreCase(name, X_AMZN_TRACE_ID);
+    }
+
+    static String sha256(ByteBuf content) {
+        MessageDigest digest = newSha256();
+        if (content.isReadable()) {
+            for (ByteBuffer buffer : content.nioBuffers()) {
+                digest.update(buffer);
+            }
+        }
+        return Base16.encodeLowerCase(digest.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new SigningException("Error hashing request content", e);
+        }
+    }
+
+    /**
+     * Loads the JCA providers used to sign and the signing key of the current day, which may read files, before the
+     * first request signed with the credentials reaches an event loop.
+     */
+    private void warmUp(AwsCredentials awsCredentials) {
+        signingKeys.signer(awsCredentials)
+                .region(region)
+                .header("Host", "localhost")
+                .header("x-amz-date", DATE_FORMATTER.format(clock.instant()))
+                .build(new uk.co.lucasweb.aws.v4.signer.HttpRequest("GET", "/"), service, EMPTY_SHA256)
+                .getSignature();
+    }
+
+    public static class Builder {
+
+        private static final String DEFAULT_REGION = "us-east-1";
+        private static final Duration DEFAULT_CREDENTIALS_REFRESH_INTERVAL = Duration.ofMinutes(15);
+
+        private Supplier<AwsCredentials> credentialsSupplier;
+        private Executor executor = ForkJoinPool.commonPool();
+        private String region = DEFAULT_REGION;
+        private String service;
+        private Clock clock = Clock.systemUTC();
+        private Duration credentialsRefreshInterval = DEFAULT_CREDENTIALS_REFRESH_INTERVAL;
+        private LongSupplier ticker = System::nanoTime;
+
+        public Builder awsCredentials(AwsCredentials awsCredentials) {
+            this.credentialsSupplier = () -> awsCredentials;
+            return this;
+        }
+
+        public Builder awsCredentialsProvider(AwsCredentialsProvider provider) {
+            this.credentialsSupplier = () -> provider.getCredentials()
+                    .orElseThrow(() -> new SigningException("no AWS credentials were provided"));
+            return this;
+        }
+
+        /**
+         * The executor credentials are resolved on, which must not be an event loop.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder service(String service) {
+            this.service = service;
+            return this;
+        }
+
+        /**
+         * The clock used for the {@code x-amz-date} header of requests that do not already have one.
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * How long resolved credentials are used before they are resolved again.
+         */
+        public Builder credentialsRefreshInterval(Duration credentialsRefreshInterval) {
+            if (credentialsRefreshInterval.isNegative() || credentialsRefreshInterval.isZero()) {
+                throw new IllegalArgumentException("credentialsRefreshInterval must be positive");
+            }
+            this.credentialsRefreshInterval = credentialsRefreshInterval;
+            return this;
+        }
+
+        Builder ticker(LongSupplier ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public NettyRequestSigner build() {
+            if (service == null) {
+                throw new SigningException("service must be set");
+            }
+            Supplier<AwsCredentials> supplier = credentialsSupplier != null
+                    ? credentialsSupplier
+                    : () -> new AwsCredentialsProviderChain().getCredentials();
+            AsyncAwsCredentials.Builder credentials = AsyncAwsCredentials.builder(supplier)
+                    .executor(executor)
+                    .refreshInterval(credentialsRefreshInterval)
+                    .ticker(ticker);
+            return new NettyRequestSigner(credentials, region, service, clock);
+        }
+    }
+}
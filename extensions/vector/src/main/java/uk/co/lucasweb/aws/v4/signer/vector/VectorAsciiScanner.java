@@ -0,0 +1,105 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.vector;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import uk.co.lucasweb.aws.v4.signer.encoding.AsciiScanner;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An {@link AsciiScanner} comparing as many characters at a time as the preferred vector shape of the CPU holds, 16
+ * with AVX2, using the incubating Vector API. It is found by {@link java.util.ServiceLoader} once this module is on
+ * the class path, provided the JVM is started with {@code --add-modules jdk.incubator.vector}.
+ * <p>
+ * Strings are copied to a {@code char[]} first, which the JDK does with SIMD instructions too, a window of 256
+ * characters at a time, so that a long string escaped early is not copied in full. The scanner keeps one window
+ * buffer for reuse; a caller finding it in use by another thread allocates its own. Strings shorter than a vector,
+ * and the tails of longer ones, are scanned one character at a time.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class VectorAsciiScanner implements AsciiScanner {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int MIN_LANES = 8;
+    private static final AsciiScanner SCALAR = AsciiScanner.scalar();
+    // a multiple of every vector length
+    private static final int WINDOW = 256;
+
+    private final AtomicReference<char[]> spare = new AtomicReference<>(new char[WINDOW]);
+
+    /**
+     * @throws UnsupportedOperationException if the CPU has no vectors of at least 128 bits, on which the Vector API
+     *                                       would be slower than scalar code
+     */
+    public VectorAsciiScanner() {
+        if (SPECIES.length() < MIN_LANES) {
+            throw new UnsupportedOperationException("vectors of " + SPECIES.vectorBitSize() + " bits are too narrow");
+        }
+    }
+
+    @Override
+    public int unescapedPrefixLength(String value, boolean path) {
+        int length = value.length();
+        if (length < SPECIES.length()) {
+            return SCALAR.unescapedPrefixLength(value, path);
+        }
+        char[] chars = spare.getAndSet(null);
+        if (chars == null) {
+            chars = new char[WINDOW];
+        }
+        try {
+            // '-', '.' and, in paths, '/' are consecutive
+            return scan(value, length, path ? 3 : 2, chars);
+        } finally {
+            spare.set(chars);
+        }
+    }
+
+    private static int scan(String value, int length, int punctuation, char[] chars) {
+        for (int start = 0; start < length; start += WINDOW) {
+            int count = Math.min(WINDOW, length - start);
+            value.getChars(start, start + count, chars, 0);
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length()) {
+                ShortVector v = ShortVector.fromCharArray(SPECIES, chars, i);
+                VectorMask<Short> unescaped = v.or((short) 0x20).sub((short) 'a').compare(VectorOperators.UNSIGNED_LT, 26)
+                        .or(v.sub((short) '0').compare(VectorOperators.UNSIGNED_LT, 10))
+                        .or(v.sub((short) '-').compare(VectorOperators.UNSIGNED_LT, punctuation))
+                        .or(v.eq((short) '_'))
+                        .or(v.eq((short) '~'));
+                if (!unescaped.allTrue()) {
+                    return start + i + unescaped.not().firstTrue();
+                }
+            }
+            for (; i < count; i++) {
+                if (!isUnescaped(chars[i], punctuation)) {
+                    return start + i;
+                }
+            }
+        }
+        return length;
+    }
+
+    private static boolean isUnescaped(char c, int punctuation) {
+        char lowerCase = (char) (c | 0x20);
+        return lowerCase >= 'a' && lowerCase <= 'z' || c >= '0' && c <= '9' || c >= '-' && c < '-' + punctuation
+                || c == '_' || c == '~';
+    }
+}
@@ -0,0 +1,119 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.vector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.lucasweb.aws.v4.signer.encoding.AsciiScanner;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and the SIMD {@link AsciiScanner} on S3 keys whose lengths follow a realistic distribution:
+ * keys made of a few path segments of dates, names and ids, log normal with a median of about 50 characters. Results
+ * are per key.
+ * <p>
+ * Run it with {@code --add-modules jdk.incubator.vector}, e.g. after
+ * {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt -Dmdep.includeScope=test}:
+ * {@code java --add-modules jdk.incubator.vector -cp target/classes:target/test-classes:$(cat target/classpath.txt)
+ * org.openjdk.jmh.Main AsciiScannerBenchmark -jvmArgsAppend "--add-modules jdk.incubator.vector"}.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class AsciiScannerBenchmark {
+
+    private static final int COUNT = 1024;
+    private static final String[] WORDS = {
+            "logs", "photos", "backup", "data", "uploads", "thumbnails", "app-server", "part", "year=2024",
+            "month=05", "invoice", "report_final", "user", "tenant", "images", "raw", "processed", "v2", "archive"
+    };
+    private static final String[] EXTENSIONS = {".jpg", ".json.gz", ".parquet", ".csv", ".png", ".log", ""};
+
+    /**
+     * The share of keys with a character to escape, e.g. a space, somewhere after their first segment.
+     */
+    @Param({"0", "10"})
+    public int escapedPercent;
+
+    private final AsciiScanner scalar = AsciiScanner.scalar();
+    private final AsciiScanner vector = new VectorAsciiScanner();
+    private final String[] keys = new String[COUNT];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < COUNT; i++) {
+            keys[i] = key(random);
+        }
+    }
+
+    private String key(Random random) {
+        int length = (int) Math.min(512, Math.max(8, Math.exp(Math.log(50) + 0.6 * random.nextGaussian())));
+        StringBuilder key = new StringBuilder("/");
+        while (key.length() < length) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    key.append(WORDS[random.nextInt(WORDS.length)]);
+                    break;
+                case 1:
+                    key.append(String.format("%04d/%02d/%02d", 2015 + random.nextInt(10), 1 + random.nextInt(12),
+                            1 + random.nextInt(28)));
+                    break;
+                default:
+                    key.append(Long.toHexString(random.nextLong()));
+            }
+            key.append('/');
+        }
+        key.setLength(length);
+        key.append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+        if (random.nextInt(100) < escapedPercent) {
+            key.setCharAt(1 + random.nextInt(key.length() - 1), ' ');
+        }
+        return key.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void scalarKeys(Blackhole blackhole) {
+        for (String key : keys) {
+            blackhole.consume(scalar.unescapedPrefixLength(key, true));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void vectorKeys(Blackhole blackhole) {
+        for (String key : keys) {
+            blackhole.consume(vector.unescapedPrefixLength(key, true));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.vector;
+
+import org.junit.Test;
+import uk.co.lucasweb.aws.v4.signer.encoding.AsciiScanner;
+import uk.co.lucasweb.aws.v4.signer.encoding.URLEncoding;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Richard Lucas
+ */
+public class VectorAsciiScannerTest {
+
+    // the characters around the boundaries of every range the scanner checks, plus non-ASCII ones
+    private static final char[] ALPHABET = ("azAZ09-._~/ @[`{:,+%\u007f\u0080ÁéŁš’😀"
+            + "photoslogs").toCharArray();
+
+    private final AsciiScanner scalar = AsciiScanner.scalar();
+    private final VectorAsciiScanner vector = new VectorAsciiScanner();
+
+    @Test
+    public void shouldBeLoadedByServiceLoader() {
+        assertThat(AsciiScanner.getInstance()).isInstanceOf(VectorAsciiScanner.class);
+        assertThat(URLEncoding.encodePath("/photos/2013/05/24/my photo.jpg")).isEqualTo("/photos/2013/05/24/my%20photo.jpg");
+    }
+
+    @Test
+    public void shouldMatchScalarScanner() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 20_000; iteration++) {
+            // longer than one window of the scanner now and then
+            String value = randomString(random, random.nextInt(10) == 0 ? random.nextInt(600) : random.nextInt(200));
+            for (boolean path : new boolean[]{true, false}) {
+                assertThat(vector.unescapedPrefixLength(value, path)).as("%s, path %s", value, path)
+                        .isEqualTo(scalar.unescapedPrefixLength(value, path));
+            }
+        }
+    }
+
+    @Test
+    public void shouldFindEscapedCharacterInEveryLane() {
+        // spans three windows of the scanner
+        String key = "photos/2013/05/24/" + repeat('a', 600);
+        for (int i = 0; i < key.length(); i++) {
+            String value = key.substring(0, i) + ' ' + key.substring(i + 1);
+            assertThat(vector.unescapedPrefixLength(value, true)).isEqualTo(i);
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        // mostly unescaped characters, so that the first escaped one lands in any lane or in the tail
+        boolean plain = random.nextBoolean();
+        for (int i = 0; i < length; i++) {
+            if (plain && random.nextInt(64) != 0) {
+                builder.append((char) ('a' + random.nextInt(26)));
+            } else {
+                builder.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes fields of HTTP messages held as bytes.
+ * <p>
+ * Request lines and headers are almost always ASCII, in which case the bytes are copied to a String as is; anything
+ * else is decoded as UTF-8, which is how the canonical request encodes them again.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class Ascii {
+
+    private Ascii() {
+    }
+
+    /**
+     * @return the bytes of {@code buffer} in {@code [from, to)} as a String, without moving its position
+     */
+    static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        boolean ascii = true;
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = buffer.get(from + i);
+            ascii &= b >= 0;
+            bytes[i] = b;
+        }
+        return new String(bytes, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Same as {@link #decode(ByteBuffer, int, int)}, lower casing ASCII letters in the same pass.
+     */
+    static String decodeLowerCase(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        boolean ascii = true;
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = buffer.get(from + i);
+            ascii &= b >= 0;
+            bytes[i] = b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+        }
+        return ascii
+                ? new String(bytes, StandardCharsets.ISO_8859_1)
+                : new String(bytes, StandardCharsets.UTF_8).toLowerCase();
+    }
+
+    static int indexOf(ByteBuffer buffer, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,57 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A {@link ReadableByteChannel} reading the payload of an {@code aws-chunked} encoded body from the underlying
+ * channel, verifying it with an {@link AwsChunkedDecoder}.
+ * <p>
+ * Payload bytes are read from the underlying channel straight into the buffer given to {@link #read(ByteBuffer)}, so
+ * a direct buffer lets them go from the socket to a {@code FileChannel} without a copy on the heap. Reads fail with a
+ * {@link SigningException} on the first bad chunk; the end of the stream is only reported once the whole payload has
+ * been verified. A non-blocking channel may return zero bytes while the payload is not finished.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public class AwsChunkedChannel implements ReadableByteChannel {
+
+    private final ReadableByteChannel channel;
+    private final AwsChunkedDecoder decoder;
+    private final AwsChunkedDecoder.Source source;
+
+    public AwsChunkedChannel(ReadableByteChannel channel, AwsChunkedDecoder decoder) {
+        this.channel = channel;
+        this.decoder = decoder;
+        this.source = channel::read;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return decoder.read(source, dst);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,359 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm;
+import uk.co.lucasweb.aws.v4.signer.hash.PayloadChecksum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Verifies and strips the {@code aws-chunked} framing of a payload on the receiving side, the counterpart of
+ * {@link AwsChunkedEncoder}. Read the payload through an {@link AwsChunkedInputStream} or an
+ * {@link AwsChunkedChannel}.
+ * <p>
+ * Chunk data is read straight into the buffer of the caller and hashed there, only the few bytes read along with a
+ * chunk header go through the small internal buffer, so memory use does not depend on the chunk size. The signature
+ * of a chunk is checked as soon as its last byte is read, before that byte is handed to the caller, and the first bad
+ * chunk fails the payload with a {@link SigningException}. The earlier bytes of a bad chunk have already been handed
+ * over by then, so the payload must not be trusted until the end of the stream has been reached.
+ * </p>
+ * <p>
+ * Chunk signatures are chained from the signature computed by the given {@link Signer}: the signer must be built from
+ * the received request, and its signature compared with the one of the {@code Authorization} header beforehand.
+ * Instances are stateful and not thread-safe; use one decoder per request.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class AwsChunkedDecoder {
+
+    private static final int SIGNATURE_LENGTH = 64;
+    private static final int MAX_SIZE_DIGITS = 8;
+    private static final int MAX_LINE_LENGTH = 256;
+    private static final byte[] CHUNK_SIGNATURE = AwsChunkedEncoder.CHUNK_SIGNATURE.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRAILER_SIGNATURE = AwsChunkedEncoder.TRAILER_SIGNATURE.getBytes(StandardCharsets.US_ASCII);
+
+    private enum State {
+        HEADER, DATA, DATA_END, TRAILER, TRAILER_END, DONE, FAILED
+    }
+
+    private final PayloadMode mode;
+    private final SigningKey signingKey;
+    private final String date;
+    private final PayloadChecksum checksum;
+    private final MessageDigest digest;
+    private final ByteBuffer lookahead = ByteBuffer.allocate(MAX_LINE_LENGTH);
+    private final byte[] expectedSignature = new byte[SIGNATURE_LENGTH];
+    private String previousSignature;
+    private String trailer;
+    private State state = State.HEADER;
+    private int remaining;
+    private int lineLength;
+
+    private AwsChunkedDecoder(PayloadMode mode, Signer signer, ChecksumAlgorithm checksumAlgorithm) {
+        this.mode = mode;
+        if (mode.hasSignedChunks()) {
+            // a copy, as cached keys may be destroyed on eviction while the payload is still being received
+            this.signingKey = signer.useSigningKey(SigningKey::copy);
+            this.date = signer.getDate();
+            this.previousSignature = signer.computeSignature();
+            this.digest = Throwables.returnableInstance(() -> MessageDigest.getInstance("SHA-256"), SigningException::new);
+        } else {
+            this.signingKey = null;
+            this.date = null;
+            this.digest = null;
+        }
+        this.checksum = checksumAlgorithm != null ? checksumAlgorithm.newChecksum() : null;
+        lookahead.flip();
+    }
+
+    /**
+     * {@link PayloadMode#STREAMING_SIGNED}: chunks are signed, starting from the signature of the given request.
+     */
+    public static AwsChunkedDecoder signed(Signer signer) {
+        return new AwsChunkedDecoder(PayloadMode.STREAMING_SIGNED, signer, null);
+    }
+
+    /**
+     * {@link PayloadMode#STREAMING_SIGNED_TRAILER}: chunks are signed and followed by a signed trailing checksum.
+     */
+    public static AwsChunkedDecoder signed(Signer signer, ChecksumAlgorithm checksumAlgorithm) {
+        return new AwsChunkedDecoder(PayloadMode.STREAMING_SIGNED_TRAILER, signer, checksumAlgorithm);
+    }
+
+    /**
+     * {@link PayloadMode#STREAMING_UNSIGNED_TRAILER}: chunks are not signed and followed by a trailing checksum.
+     */
+    public static AwsChunkedDecoder unsigned(ChecksumAlgorithm checksumAlgorithm) {
+        return new AwsChunkedDecoder(PayloadMode.STREAMING_UNSIGNED_TRAILER, null, checksumAlgorithm);
+    }
+
+    public PayloadMode getMode() {
+        return mode;
+    }
+
+    /**
+     * The encoded payload, read by {@link #read(Source, ByteBuffer)}.
+     */
+    interface Source {
+        /**
+         * Reads encoded bytes into the given buffer, either the heap buffer of the decoder or the buffer of the caller.
+         *
+         * @return the number of bytes read, zero when no bytes are available yet, or -1 at the end of the payload
+         */
+        int read(ByteBuffer dst) throws IOException;
+    }
+
+    /**
+     * Reads decoded payload bytes into {@code dst}.
+     *
+     * @return the number of bytes read, zero when {@code dst} is full or the source had no bytes available, or -1
+     * once the payload, and its trailer if any, has been read and verified
+     * @throws SigningException if the payload is malformed, truncated or a signature or checksum does not match
+     */
+    int read(Source source, ByteBuffer dst) throws IOException {
+        while (true) {
+            switch (state) {
+                case HEADER:
+                    if (!readLine(source)) {
+                        return 0;
+                    }
+                    parseHeader();
+                    break;
+                case DATA:
+                    return readData(source, dst);
+                case DATA_END:
+                case TRAILER_END:
+                    if (!readLine(source)) {
+                        return 0;
+                    }
+                    if (lineLength != 0) {
+                        throw fail(state == State.DATA_END ? "expected a line break after the chunk data"
+                                : "expected the end of the aws-chunked payload");
+                    }
+                    consumeLine();
+                    state = state == State.DATA_END ? State.HEADER : State.DONE;
+                    break;
+                case TRAILER:
+                    if (!readLine(source)) {
+                        return 0;
+                    }
+                    parseTrailer();
+                    break;
+                case DONE:
+                    return -1;
+                default:
+                    throw new SigningException("the aws-chunked payload has already failed verification");
+            }
+        }
+    }
+
+    /**
+     * @return the number of decoded bytes that can be read without reading from the source
+     */
+    int available() {
+        return state == State.DATA ? Math.min(remaining, lookahead.remaining()) : 0;
+    }
+
+    private int readData(Source source, ByteBuffer dst) throws IOException {
+        int length = Math.min(dst.remaining(), remaining);
+        if (length == 0) {
+            return 0;
+        }
+        int start = dst.position();
+        int copied = 0;
+        if (lookahead.hasRemaining()) {
+            copied = Math.min(length, lookahead.remaining());
+            int limit = lookahead.limit();
+            lookahead.limit(lookahead.position() + copied);
+            dst.put(lookahead);
+            lookahead.limit(limit);
+        }
+        int read = 0;
+        if (copied < length) {
+            int limit = dst.limit();
+            dst.limit(start + length);
+            try {
+                read = source.read(dst);
+            } finally {
+                dst.limit(limit);
+            }
+            if (read < 0) {
+                throw fail("the aws-chunked payload is truncated");
+            }
+        }
+        length = copied + read;
+        if (length == 0) {
+            return 0;
+        }
+        ByteBuffer data = dst.duplicate();
+        data.position(start);
+        data.limit(start + length);
+        if (checksum != null) {
+            checksum.update(data);
+        }
+        if (digest != null) {
+            digest.update(data);
+        }
+        remaining -= length;
+        if (remaining == 0) {
+            if (signingKey != null) {
+                verifyChunk(Base16.encodeLowerCase(digest.digest()));
+            }
+            state = State.DATA_END;
+        }
+        return length;
+    }
+
+    private void parseHeader() {
+        int start = lookahead.position();
+        int end = start + lineLength;
+        long size = 0;
+        int index = start;
+        while (index < end && index - start < MAX_SIZE_DIGITS) {
+            int digit = Character.digit(lookahead.get(index), 16);
+            if (digit < 0) {
+                break;
+            }
+            size = size << 4 | digit;
+            index++;
+        }
+        if (index == start || size > Integer.MAX_VALUE) {
+            throw fail("malformed aws-chunked chunk size");
+        }
+        if (signingKey != null) {
+            if (end - index != CHUNK_SIGNATURE.length + SIGNATURE_LENGTH || !startsWith(index, CHUNK_SIGNATURE)) {
+                throw fail("malformed aws-chunked chunk signature");
+            }
+            index += CHUNK_SIGNATURE.length;
+            for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+                expectedSignature[i] = lookahead.get(index + i);
+            }
+        } else if (index < end && lookahead.get(index) != ';') {
+            throw fail("malformed aws-chunked chunk size");
+        }
+        consumeLine();
+        remaining = (int) size;
+        if (remaining > 0) {
+            state = State.DATA;
+            return;
+        }
+        if (signingKey != null) {
+            verifyChunk(AwsChunkedEncoder.EMPTY_SHA256);
+        }
+        state = mode.hasTrailer() ? State.TRAILER : State.TRAILER_END;
+    }
+
+    private void parseTrailer() {
+        if (trailer == null) {
+            String line = line();
+            String expected = checksum.getAlgorithm().getHeaderName() + ':';
+            if (!line.regionMatches(true, 0, expected, 0, expected.length())) {
+                throw fail("expected the " + checksum.getAlgorithm().getHeaderName() + " trailer");
+            }
+            if (!line.substring(expected.length()).trim().equals(checksum.getBase64())) {
+                throw fail("the " + checksum.getAlgorithm().getHeaderName() + " checksum does not match the payload");
+            }
+            trailer = line;
+            consumeLine();
+            state = signingKey != null ? State.TRAILER : State.TRAILER_END;
+            return;
+        }
+        if (lineLength != TRAILER_SIGNATURE.length + SIGNATURE_LENGTH || !startsWith(lookahead.position(), TRAILER_SIGNATURE)) {
+            throw fail("malformed aws-chunked trailer signature");
+        }
+        for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+            expectedSignature[i] = lookahead.get(lookahead.position() + TRAILER_SIGNATURE.length + i);
+        }
+        consumeLine();
+        String trailerSha256 = Base16.encodeLowerCase(digest.digest((trailer + '\n').getBytes(StandardCharsets.UTF_8)));
+        verify(signingKey.sign(AwsChunkedEncoder.TRAILER_STRING_TO_SIGN, date, previousSignature, trailerSha256), "trailer");
+        state = State.TRAILER_END;
+    }
+
+    private void verifyChunk(String chunkSha256) {
+        verify(signingKey.sign(AwsChunkedEncoder.CHUNK_STRING_TO_SIGN, date, previousSignature,
+                AwsChunkedEncoder.EMPTY_SHA256, chunkSha256), "chunk");
+    }
+
+    private void verify(String signature, String part) {
+        if (!MessageDigest.isEqual(signature.getBytes(StandardCharsets.US_ASCII), expectedSignature)) {
+            throw fail("the aws-chunked " + part + " signature does not match");
+        }
+        previousSignature = signature;
+    }
+
+    /**
+     * Makes sure a whole line is in the lookahead buffer, {@link #lineLength} being set to its length without the
+     * line break.
+     *
+     * @return false if the source had no bytes available yet
+     */
+    private boolean readLine(Source source) throws IOException {
+        int scanned = 0;
+        while (true) {
+            int start = lookahead.position();
+            for (int i = start + Math.max(scanned - 1, 0); i < lookahead.limit() - 1; i++) {
+                if (lookahead.get(i) == '\r' && lookahead.get(i + 1) == '\n') {
+                    lineLength = i - start;
+                    return true;
+                }
+            }
+            scanned = lookahead.remaining();
+            if (scanned == lookahead.capacity()) {
+                throw fail("aws-chunked line too long");
+            }
+            lookahead.compact();
+            int read;
+            try {
+                read = source.read(lookahead);
+            } finally {
+                lookahead.flip();
+            }
+            if (read < 0) {
+                throw fail("the aws-chunked payload is truncated");
+            }
+            if (read == 0) {
+                return false;
+            }
+        }
+    }
+
+    private void consumeLine() {
+        lookahead.position(lookahead.position() + lineLength + AwsChunkedEncoder.CRLF.length());
+    }
+
+    private String line() {
+        return new String(lookahead.array(), lookahead.arrayOffset() + lookahead.position(), lineLength, StandardCharsets.UTF_8);
+    }
+
+    private boolean startsWith(int index, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (lookahead.get(index + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private SigningException fail(String message) {
+        state = State.FAILED;
+        return new SigningException(message);
+    }
+}
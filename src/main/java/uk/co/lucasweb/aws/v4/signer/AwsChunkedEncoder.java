@@ -0,0 +1,199 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm;
+import uk.co.lucasweb.aws.v4.signer.hash.PayloadChecksum;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Frames a payload with the {@code aws-chunked} content encoding, for the streaming {@link PayloadMode}s.
+ * <p>
+ * The encoder never copies the payload: for each chunk, write the buffer returned by {@link #beginChunk(ByteBuffer)},
+ * then the chunk data itself, then {@link #endChunk()}. Once all the data has been written, write the buffer returned
+ * by {@link #finish()}, which holds the final empty chunk and the trailing checksum if any. Chunk signatures are
+ * chained from the signature of the request, and the trailing checksum is computed on the fly, so the payload only
+ * has to be read once.
+ * </p>
+ * <p>
+ * Instances are stateful and not thread-safe; use one encoder per request.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class AwsChunkedEncoder {
+
+    static final StringToSign CHUNK_STRING_TO_SIGN = new StringToSign("AWS4-HMAC-SHA256-PAYLOAD");
+    static final StringToSign TRAILER_STRING_TO_SIGN = new StringToSign("AWS4-HMAC-SHA256-TRAILER");
+    static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    static final String CHUNK_SIGNATURE = ";chunk-signature=";
+    static final String TRAILER_SIGNATURE = "x-amz-trailer-signature:";
+    static final String CRLF = "\r\n";
+
+    private static final int SIGNATURE_LENGTH = 64;
+    private static final ByteBuffer CRLF_BUFFER = ByteBuffer.wrap(CRLF.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
+    private final PayloadMode mode;
+    private final SigningKey signingKey;
+    private final String date;
+    private final PayloadChecksum checksum;
+    private final MessageDigest digest;
+    private String previousSignature;
+    private boolean finished;
+
+    private AwsChunkedEncoder(PayloadMode mode, Signer signer, ChecksumAlgorithm checksumAlgorithm) {
+        this.mode = mode;
+        if (mode.hasSignedChunks()) {
+            // a copy, as cached keys may be destroyed on eviction while the payload is still being sent
+            this.signingKey = signer.useSigningKey(SigningKey::copy);
+            this.date = signer.getDate();
+            this.previousSignature = signer.computeSignature();
+            this.digest = Throwables.returnableInstance(() -> MessageDigest.getInstance("SHA-256"), SigningException::new);
+        } else {
+            this.signingKey = null;
+            this.date = null;
+            this.digest = null;
+        }
+        this.checksum = checksumAlgorithm != null ? checksumAlgorithm.newChecksum() : null;
+    }
+
+    /**
+     * {@link PayloadMode#STREAMING_SIGNED}: chunks are signed, starting from the signature of the given request.
+     */
+    public static AwsChunkedEncoder signed(Signer signer) {
+        return new AwsChunkedEncoder(PayloadMode.STREAMING_SIGNED, signer, null);
+    }
+
+    /**
+     * {@link PayloadMode#STREAMING_SIGNED_TRAILER}: chunks are signed and followed by a signed trailing checksum.
+     */
+    public static AwsChunkedEncoder signed(Signer signer, ChecksumAlgorithm checksumAlgorithm) {
+        return new AwsChunkedEncoder(PayloadMode.STREAMING_SIGNED_TRAILER, signer, checksumAlgorithm);
+    }
+
+    /**
+     * {@link PayloadMode#STREAMING_UNSIGNED_TRAILER}: chunks are not signed and followed by a trailing checksum.
+     */
+    public static AwsChunkedEncoder unsigned(ChecksumAlgorithm checksumAlgorithm) {
+        return new AwsChunkedEncoder(PayloadMode.STREAMING_UNSIGNED_TRAILER, null, checksumAlgorithm);
+    }
+
+    public PayloadMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Computes the header of a chunk holding the remaining bytes of {@code data}; the position of {@code data} is
+     * left untouched.
+     *
+     * @param data the chunk data, must not be empty
+     * @return the chunk header, to be written before the data
+     */
+    public ByteBuffer beginChunk(ByteBuffer data) {
+        if (finished) {
+            throw new IllegalStateException("the payload is already finished");
+        }
+        if (!data.hasRemaining()) {
+            throw new IllegalArgumentException("chunks must not be empty");
+        }
+        if (checksum != null) {
+            checksum.update(data);
+        }
+        StringBuilder header = new StringBuilder(96).append(Integer.toHexString(data.remaining()));
+        if (signingKey != null) {
+            digest.update(data.duplicate());
+            appendSignature(header, Base16.encodeLowerCase(digest.digest()));
+        }
+        return ascii(header.append(CRLF));
+    }
+
+    /**
+     * @return the line break that must follow the data of every chunk
+     */
+    public ByteBuffer endChunk() {
+        return CRLF_BUFFER.duplicate();
+    }
+
+    /**
+     * @return the final empty chunk, followed by the trailing checksum if any
+     */
+    public ByteBuffer finish() {
+        if (finished) {
+            throw new IllegalStateException("the payload is already finished");
+        }
+        finished = true;
+        StringBuilder end = new StringBuilder(256).append('0');
+        if (signingKey != null) {
+            appendSignature(end, EMPTY_SHA256);
+        }
+        end.append(CRLF);
+        if (checksum != null) {
+            String trailer = checksum.getAlgorithm().getHeaderName() + ':' + checksum.getBase64();
+            end.append(trailer).append(CRLF);
+            if (signingKey != null) {
+                String trailerSha256 = Base16.encodeLowerCase(digest.digest((trailer + '\n').getBytes(StandardCharsets.UTF_8)));
+                previousSignature = signingKey.sign(TRAILER_STRING_TO_SIGN, date, previousSignature, trailerSha256);
+                end.append(TRAILER_SIGNATURE).append(previousSignature).append(CRLF);
+            }
+        }
+        return ascii(end.append(CRLF));
+    }
+
+    /**
+     * Computes the {@code Content-Length} of an encoded payload.
+     *
+     * @param mode the streaming mode
+     * @param checksumAlgorithm the trailing checksum, or {@code null} for {@link PayloadMode#STREAMING_SIGNED}
+     * @param decodedLength the length of the payload itself, i.e. {@code x-amz-decoded-content-length}
+     * @param chunkSize the size of every chunk but the last one
+     * @return the length of the encoded payload
+     */
+    public static long getEncodedLength(PayloadMode mode, ChecksumAlgorithm checksumAlgorithm, long decodedLength, int chunkSize) {
+        if (!mode.isChunked()) {
+            return decodedLength;
+        }
+        int signatureLength = mode.hasSignedChunks() ? CHUNK_SIGNATURE.length() + SIGNATURE_LENGTH : 0;
+        long fullChunks = decodedLength / chunkSize;
+        int lastChunkSize = (int) (decodedLength % chunkSize);
+        long length = fullChunks * chunkLength(chunkSize, signatureLength);
+        if (lastChunkSize > 0) {
+            length += chunkLength(lastChunkSize, signatureLength);
+        }
+        length += 1 + signatureLength + CRLF.length();
+        if (mode.hasTrailer()) {
+            length += checksumAlgorithm.getHeaderName().length() + 1 + checksumAlgorithm.getEncodedLength() + CRLF.length();
+            if (mode.hasSignedChunks()) {
+                length += TRAILER_SIGNATURE.length() + SIGNATURE_LENGTH + CRLF.length();
+            }
+        }
+        return length + CRLF.length();
+    }
+
+    private static long chunkLength(int size, int signatureLength) {
+        return Integer.toHexString(size).length() + signatureLength + CRLF.length() + size + CRLF.length();
+    }
+
+    private void appendSignature(StringBuilder builder, String chunkSha256) {
+        previousSignature = signingKey.sign(CHUNK_STRING_TO_SIGN, date, previousSignature, EMPTY_SHA256, chunkSha256);
+        builder.append(CHUNK_SIGNATURE).append(previousSignature);
+    }
+
+    private static ByteBuffer ascii(StringBuilder builder) {
+        return ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} reading the payload of an {@code aws-chunked} encoded body from the underlying stream,
+ * verifying it with an {@link AwsChunkedDecoder}.
+ * <p>
+ * Payload bytes are read from the underlying stream straight into the array given to {@link #read(byte[], int, int)}.
+ * Reads fail with a {@link SigningException} on the first bad chunk; the end of the stream is only reported once the
+ * whole payload has been verified.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public class AwsChunkedInputStream extends FilterInputStream {
+
+    private static final int SKIP_BUFFER_SIZE = 2048;
+
+    private final AwsChunkedDecoder decoder;
+    private final AwsChunkedDecoder.Source source;
+    private byte[] single;
+
+    public AwsChunkedInputStream(InputStream in, AwsChunkedDecoder decoder) {
+        super(in);
+        this.decoder = decoder;
+        this.source = this::readEncoded;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (single == null) {
+            single = new byte[1];
+        }
+        int read = read(single, 0, 1);
+        return read == 1 ? single[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+        int read;
+        do {
+            // only a source returning no bytes makes the decoder return none, which streams must not do
+            read = decoder.read(source, dst);
+        } while (read == 0);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipped = new byte[(int) Math.min(SKIP_BUFFER_SIZE, Math.max(n, 0))];
+        long remaining = n;
+        while (remaining > 0) {
+            int read = read(skipped, 0, (int) Math.min(skipped.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+        }
+        return n - Math.max(remaining, 0);
+    }
+
+    @Override
+    public int available() {
+        return decoder.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private int readEncoded(ByteBuffer dst) throws IOException {
+        int read = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+        if (read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link OutputStream} writing an {@code aws-chunked} encoded payload to the underlying stream.
+ * <p>
+ * Data is buffered until a full chunk is available; closing the stream writes the last chunk and the trailer, then
+ * closes the underlying stream.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public class AwsChunkedOutputStream extends FilterOutputStream {
+
+    /**
+     * The minimum chunk size accepted by S3, except for the last chunk.
+     */
+    public static final int MIN_CHUNK_SIZE = 8 * 1024;
+
+    private final AwsChunkedEncoder encoder;
+    private final byte[] chunk;
+    private int count;
+    private boolean closed;
+
+    public AwsChunkedOutputStream(OutputStream out, AwsChunkedEncoder encoder, int chunkSize) {
+        super(out);
+        if (chunkSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("chunkSize must be at least " + MIN_CHUNK_SIZE);
+        }
+        this.encoder = encoder;
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        chunk[count++] = (byte) b;
+        if (count == chunk.length) {
+            writeChunk();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int length = Math.min(len, chunk.length - count);
+            System.arraycopy(b, off, chunk, count, length);
+            count += length;
+            off += length;
+            len -= length;
+            if (count == chunk.length) {
+                writeChunk();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0) {
+                writeChunk();
+            }
+            write(encoder.finish());
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(chunk, 0, count);
+        write(encoder.beginChunk(data));
+        out.write(chunk, 0, count);
+        write(encoder.endChunk());
+        count = 0;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            out.write(bytes);
+        }
+    }
+}
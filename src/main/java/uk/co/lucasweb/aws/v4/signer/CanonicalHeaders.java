@@ -13,26 +13,25 @@
 package uk.co.lucasweb.aws.v4.signer;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Canonical Headers.
  * <p>
  * See http://docs.aws.amazon.com/general/latest/gr/sigv4-create-canonical-request.html for more information
  * </p>
+ * <p>
+ * Headers are canonicalised with plain loops rather than streams, lambdas and regular expressions, whose bootstrap
+ * would add to the time to the first signature of short lived processes.
+ * </p>
  *
  * @author Richard Lucas
  */
 class CanonicalHeaders {
 
-    private static final Collector<CharSequence, ?, String> HEADER_VALUE_COLLECTOR = Collectors.joining( "," );
-
     private final String names;
     private final String canonicalizedHeaders;
     private final TreeMap<String, List<String>> internalMap;
@@ -51,9 +50,16 @@ class CanonicalHeaders {
         return names;
     }
 
+    /**
+     * @return the number of distinct headers
+     */
+    int size() {
+        return internalMap.size();
+    }
+
     Optional<String> getFirstValue(String name) {
-        return Optional.ofNullable(internalMap.get(name.toLowerCase()))
-                .map(values -> values.get(0));
+        List<String> values = internalMap.get(name.toLowerCase());
+        return values == null ? Optional.empty() : Optional.of(values.get(0));
     }
 
     static Builder builder() {
@@ -73,56 +79,98 @@ class CanonicalHeaders {
             if (value == null) {
                 throw new IllegalArgumentException("value is null");
             }
-            String lowerCaseName = name.toLowerCase();
-            internalMap.put(lowerCaseName, Optional.ofNullable(internalMap.get(lowerCaseName))
-                    .map(values -> {
-                        values.add(value);
-                        return values;
-                    })
-                    .orElse(newValueListWithValue(value)));
+            return addLowerCase(name.toLowerCase(), value);
+        }
+
+        /**
+         * Same as {@link #add(String, String)} for a name that is already lower case.
+         */
+        Builder addLowerCase(String lowerCaseName, String value) {
+            List<String> values = internalMap.get(lowerCaseName);
+            if (values == null) {
+                values = new ArrayList<>();
+                internalMap.put(lowerCaseName, values);
+            }
+            values.add(value);
             return this;
         }
 
         CanonicalHeaders build() {
-            String names = internalMap.keySet()
-                    .stream()
-                    .map(String::toLowerCase)
-                    .collect(Collectors.joining(";"));
-
+            StringBuilder names = new StringBuilder();
             StringBuilder canonicalizedHeadersBuilder = new StringBuilder();
-            internalMap.entrySet()
-                    .forEach(header -> canonicalizedHeadersBuilder
-                            .append(header.getKey().toLowerCase())
-                            .append(':')
-                            .append(header.getValue().stream()
-                                    .map(Builder::normalizeHeaderValue).collect(HEADER_VALUE_COLLECTOR)
-                             )
-                            .append('\n')
-                    );
-
-            return new CanonicalHeaders(names, canonicalizedHeadersBuilder.toString(), internalMap);
+            for (Map.Entry<String, List<String>> header : internalMap.entrySet()) {
+                if (names.length() > 0) {
+                    names.append(';');
+                }
+                names.append(header.getKey());
+                canonicalizedHeadersBuilder.append(header.getKey()).append(':');
+                List<String> values = header.getValue();
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        canonicalizedHeadersBuilder.append(',');
+                    }
+                    appendNormalizedHeaderValue(canonicalizedHeadersBuilder, values.get(i));
+                }
+                canonicalizedHeadersBuilder.append('\n');
+            }
+
+            return new CanonicalHeaders(names.toString(), canonicalizedHeadersBuilder.toString(), internalMap);
         }
 
-        private List<String> newValueListWithValue(String value) {
-            List<String> values = new ArrayList<>();
-            values.add(value);
-            return values;
+        static String normalizeHeaderValue(String value) {
+            StringBuilder builder = new StringBuilder(value.length());
+            appendNormalizedHeaderValue(builder, value);
+            return builder.toString();
         }
 
-        private static String normalizeHeaderValue(String value) {
+        /**
+         * Appends the normalised form of {@code value}, as it appears in the canonical headers, to {@code builder}.
+         */
+        static void appendNormalizedHeaderValue(StringBuilder builder, CharSequence value) {
             /*
              * Strangely, the AWS test suite expects us to handle lines in
              * multi-line values as individual values, even though this is not
-             * mentioned in the specs.
+             * mentioned in the specs. Like String.split, trailing empty lines
+             * are ignored.
              */
-            Stream<String> stream = Arrays.stream(value.split("\n"));
-
-            // Remove spaces on the edges of the string
-            stream = stream.map(String::trim);
-            // Remove duplicate spaces inside the string
-            stream = stream.map(s -> s.replaceAll(" +", " "));
+            int end = value.length();
+            while (end > 0 && value.charAt(end - 1) == '\n') {
+                end--;
+            }
+            int start = 0;
+            while (true) {
+                int lineEnd = start;
+                while (lineEnd < end && value.charAt(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                appendNormalizedLine(builder, value, start, lineEnd);
+                if (lineEnd == end) {
+                    return;
+                }
+                builder.append(',');
+                start = lineEnd + 1;
+            }
+        }
 
-            return stream.collect(HEADER_VALUE_COLLECTOR);
+        /**
+         * Appends a line without the spaces on its edges, as {@link String#trim()} removes them, and with duplicate
+         * spaces inside it collapsed.
+         */
+        private static void appendNormalizedLine(StringBuilder builder, CharSequence value, int start, int end) {
+            while (start < end && value.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && value.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            boolean space = false;
+            for (int i = start; i < end; i++) {
+                char c = value.charAt(i);
+                if (c != ' ' || !space) {
+                    builder.append(c);
+                }
+                space = c == ' ';
+            }
         }
 
     }
@@ -0,0 +1,159 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.cache.BoundedCache;
+import uk.co.lucasweb.aws.v4.signer.cache.CacheStats;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Caches the canonical form of request paths, for workloads where a small set of object keys receives most of the
+ * requests.
+ * <p>
+ * Encoding a path, and normalising it for services other than S3, is otherwise repeated on every signature. S3 paths
+ * are only encoded while other paths are also normalised, so both kinds are cached apart, each in a
+ * {@link BoundedCache} evicting the least recently used paths beyond {@link Builder#maximumSize(long)}. A cache is
+ * used by the signers it is {@link Signer.Builder#canonicalPathCache(CanonicalPathCache) given to}; signers without
+ * one encode every path as before.
+ * </p>
+ * <pre>{@code
+ * CanonicalPathCache paths = CanonicalPathCache.builder().maximumSize(10_000).build();
+ * String authorization = Signer.builder()
+ *         .canonicalPathCache(paths)
+ *         .header("Host", host)
+ *         .header("x-amz-date", date)
+ *         .buildS3(request, contentSha256)
+ *         .getSignature();
+ * }</pre>
+ *
+ * @author Richard Lucas
+ */
+public final class CanonicalPathCache {
+
+    private static final String S3 = "s3";
+    /*
+     * Rough size of an entry besides its strings: the linked map entry, the cache entry and its timestamp; each String
+     * adds its header and array header to at most two bytes per char.
+     */
+    private static final long ENTRY_OVERHEAD_BYTES = 80;
+    private static final long STRING_OVERHEAD_BYTES = 40;
+
+    private final BoundedCache<String, String> s3Paths;
+    private final BoundedCache<String, String> normalizedPaths;
+    private final LongAdder estimatedBytes = new LongAdder();
+    // created once, so that lookups allocate nothing
+    private final Function<String, String> s3Loader = path -> load(true, path);
+    private final Function<String, String> normalizedLoader = path -> load(false, path);
+
+    private CanonicalPathCache(Builder builder) {
+        this.s3Paths = newCache(builder);
+        this.normalizedPaths = newCache(builder);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the encoded, and unless {@code service} is S3 normalised, form of {@code path}
+     */
+    String get(String service, String path) {
+        return S3.equals(service) ? s3Paths.get(path, s3Loader) : normalizedPaths.get(path, normalizedLoader);
+    }
+
+    public void invalidateAll() {
+        s3Paths.invalidateAll();
+        normalizedPaths.invalidateAll();
+    }
+
+    /**
+     * @return the number of cached paths of both kinds
+     */
+    public long size() {
+        return s3Paths.size() + normalizedPaths.size();
+    }
+
+    /**
+     * @return the statistics of both kinds of paths together
+     */
+    public CacheStats getStats() {
+        CacheStats s3 = s3Paths.stats();
+        CacheStats normalized = normalizedPaths.stats();
+        return new CacheStats(s3.getHitCount() + normalized.getHitCount(), s3.getMissCount() + normalized.getMissCount(),
+                s3.getEvictionCount() + normalized.getEvictionCount());
+    }
+
+    /**
+     * @return an estimate of the heap retained by the cached paths, in bytes
+     */
+    public long getEstimatedMemoryBytes() {
+        return estimatedBytes.sum();
+    }
+
+    private String load(boolean s3, String path) {
+        String canonical = CanonicalRequest.canonicalPath(s3, path);
+        estimatedBytes.add(estimate(path, canonical));
+        return canonical;
+    }
+
+    private BoundedCache<String, String> newCache(Builder builder) {
+        return BoundedCache.<String, String>builder()
+                .maximumSize(builder.maximumSize)
+                .concurrencyLevel(builder.concurrencyLevel)
+                .removalListener((path, canonical) -> estimatedBytes.add(-estimate(path, canonical)))
+                .build();
+    }
+
+    private static long estimate(String path, String canonical) {
+        long bytes = ENTRY_OVERHEAD_BYTES + STRING_OVERHEAD_BYTES + 2L * path.length();
+        // paths that need no encoding are cached as their own canonical form
+        if (canonical != path) {
+            bytes += STRING_OVERHEAD_BYTES + 2L * canonical.length();
+        }
+        return bytes;
+    }
+
+    public static class Builder {
+
+        private long maximumSize = 10_000;
+        private int concurrencyLevel = 16;
+
+        /**
+         * The number of paths kept of each kind, S3 and normalised; defaults to 10000.
+         */
+        public Builder maximumSize(long maximumSize) {
+            if (maximumSize < 1) {
+                throw new IllegalArgumentException("maximumSize must be positive");
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * The number of lock-striped segments of each kind of path, rounded up to a power of two; defaults to 16.
+         */
+        public Builder concurrencyLevel(int concurrencyLevel) {
+            if (concurrencyLevel < 1) {
+                throw new IllegalArgumentException("concurrencyLevel must be positive");
+            }
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        public CanonicalPathCache build() {
+            return new CanonicalPathCache(this);
+        }
+    }
+}
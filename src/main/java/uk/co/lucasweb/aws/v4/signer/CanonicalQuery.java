@@ -0,0 +1,133 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.encoding.URLEncoding;
+
+import java.util.Arrays;
+
+/**
+ * Renders the canonical query string of a request: its parameters sorted by name, their names and values URL-encoded.
+ * <p>
+ * Parameters are kept as offsets in the query rather than as substrings, and the arrays holding them grow to the
+ * largest number of parameters seen, so that an instance kept by a {@link SigningContext} renders queries without
+ * allocating. Instances are not thread-safe.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class CanonicalQuery {
+
+    private static final char QUERY_PARAMETER_SEPARATOR = '&';
+    private static final char QUERY_PARAMETER_VALUE_SEPARATOR = '=';
+
+    private int[] starts = new int[8];
+    private int[] separators = new int[8];
+    private int[] ends = new int[8];
+    private int[] order = new int[8];
+
+    /**
+     * Appends the canonical form of {@code rawQuery}, which may be {@code null}, to {@code out}.
+     *
+     * @return {@code out}
+     */
+    StringBuilder append(StringBuilder out, String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return out;
+        }
+        int count = extractQueryParameters(rawQuery);
+        for (int i = 0; i < count; i++) {
+            int parameter = order[i];
+            if (i > 0) {
+                out.append(QUERY_PARAMETER_SEPARATOR);
+            }
+            URLEncoding.appendQueryComponent(out, rawQuery, starts[parameter], separators[parameter])
+                    .append(QUERY_PARAMETER_VALUE_SEPARATOR);
+            // no value => an empty string as per the spec
+            if (separators[parameter] < ends[parameter]) {
+                URLEncoding.appendQueryComponent(out, rawQuery, separators[parameter] + 1, ends[parameter]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Extracts the parameters of a query string, preserving encoding, and sorts them by name.
+     *
+     * @return the number of parameters
+     */
+    private int extractQueryParameters(String rawQuery) {
+        int count = 0;
+        int length = rawQuery.length();
+        int index = 0;
+        while (index < length) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                separators = Arrays.copyOf(separators, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                order = Arrays.copyOf(order, count * 2);
+            }
+            /*
+             * Ideally we should first look for '&', then look for '=' before
+             * the '&', but obviously that's not how AWS understand query
+             * parsing; see the test "post-vanilla-query-nonunreserved" in the
+             * test suite. A string such as "?foo&bar=qux" will be understood as
+             * one parameter with name "foo&bar" and value "qux". Don't ask me
+             * why.
+             */
+            int separator = rawQuery.indexOf(QUERY_PARAMETER_VALUE_SEPARATOR, index);
+            int end;
+            if (separator < 0) {
+                // No value
+                separator = length;
+                end = length;
+            } else {
+                end = rawQuery.indexOf(QUERY_PARAMETER_SEPARATOR, separator);
+                if (end < 0) {
+                    end = length;
+                }
+            }
+            starts[count] = index;
+            separators[count] = separator;
+            ends[count] = end;
+            /*
+             * Sort lexicographically by character code, which is equivalent to
+             * comparing code points (as mandated by AWS). The insertion sort is
+             * stable, so that repeated names keep their order.
+             */
+            int position = count;
+            while (position > 0 && compareNames(rawQuery, order[position - 1], count) > 0) {
+                order[position] = order[position - 1];
+                position--;
+            }
+            order[position] = count;
+            count++;
+            index = end + 1;
+        }
+        return count;
+    }
+
+    private int compareNames(String query, int left, int right) {
+        int leftStart = starts[left];
+        int leftLength = separators[left] - leftStart;
+        int rightStart = starts[right];
+        int rightLength = separators[right] - rightStart;
+        for (int i = 0; i < Math.min(leftLength, rightLength); i++) {
+            int difference = query.charAt(leftStart + i) - query.charAt(rightStart + i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return leftLength - rightLength;
+    }
+}
@@ -15,10 +15,13 @@ package uk.co.lucasweb.aws.v4.signer;
 import java.net.URI;
 import java.net.URISyntaxException;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import uk.co.lucasweb.aws.v4.signer.encoding.URLEncoding;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.Sha256;
 
 /**
  * @author Richard Lucas
@@ -26,19 +29,26 @@ import uk.co.lucasweb.aws.v4.signer.encoding.URLEncoding;
 class CanonicalRequest {
 
     private static final String S3_SERVICE = "s3";
-    private static final char QUERY_PARAMETER_SEPARATOR = '&';
-    private static final char QUERY_PARAMETER_VALUE_SEPARATOR = '=';
+    private static final String DATE_HEADER_LINE = "\nx-amz-date:";
 
     private final String service;
     private final HttpRequest httpRequest;
     private final CanonicalHeaders headers;
     private final String contentSha256;
+    private final CanonicalPathCache pathCache;
+    private volatile DateTemplate dateTemplate;
 
     CanonicalRequest(String service, HttpRequest httpRequest, CanonicalHeaders headers, String contentSha256) {
+        this(service, httpRequest, headers, contentSha256, null);
+    }
+
+    CanonicalRequest(String service, HttpRequest httpRequest, CanonicalHeaders headers, String contentSha256,
+                     CanonicalPathCache pathCache) {
         this.service = service;
         this.httpRequest = httpRequest;
         this.headers = headers;
         this.contentSha256 = contentSha256;
+        this.pathCache = pathCache;
     }
 
     String get() {
@@ -50,10 +60,36 @@ class CanonicalRequest {
                 "\n" + contentSha256;
     }
 
+    String getHash() {
+        return Sha256.get(get(), StandardCharsets.UTF_8);
+    }
+
     CanonicalHeaders getHeaders() {
         return headers;
     }
 
+    /**
+     * Returns the same request with another {@code x-amz-date} value, as when a request is retried.
+     * <p>
+     * The canonical request is rendered once and split around the date, and the SHA-256 state of everything before
+     * the date is kept, so that another date only costs hashing the date and the lines that follow it. The headers of
+     * the returned request still hold the original date, only their names are meant to be used.
+     * </p>
+     */
+    CanonicalRequest withDate(String date) {
+        return new Redated(this, getDateTemplate(), CanonicalHeaders.Builder.normalizeHeaderValue(date));
+    }
+
+    private DateTemplate getDateTemplate() {
+        // single-check idiom: at worst the template is computed more than once by concurrent callers
+        DateTemplate template = dateTemplate;
+        if (template == null) {
+            template = DateTemplate.of(get());
+            dateTemplate = template;
+        }
+        return template;
+    }
+
     @Override
     public String toString() {
         return get();
@@ -63,9 +99,13 @@ class CanonicalRequest {
         if (path == null || path.isEmpty()) {
             return "/";
         }
+        return pathCache != null ? pathCache.get(service, path) : canonicalPath(S3_SERVICE.equals(service), path);
+    }
+
+    static String canonicalPath(boolean s3, String path) {
         // Encode characters as mandated by AWS
         String encoded = URLEncoding.encodePath(path);
-        if (S3_SERVICE.equals(service)) {
+        if (s3) {
             /*
              * S3 requests should not be normalized.
              * See http://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-header-based-auth.html#canonical-request
@@ -88,94 +128,99 @@ class CanonicalRequest {
         if (rawQuery == null || rawQuery.isEmpty()) {
             return "";
         }
+        return new CanonicalQuery().append(new StringBuilder(rawQuery.length() + 16), rawQuery).toString();
+    }
 
-        List<Parameter> parameters = extractQueryParameters(rawQuery);
-
-        /*
-         * Sort query parameters. Simply sort lexicographically by character
-         * code, which is equivalent to comparing code points (as mandated by
-         * AWS)
-         */
-        parameters.sort((l, r) -> l.name.compareTo(r.name));
-
-        StringBuilder builder = new StringBuilder();
-        boolean first = true;
-        for (Parameter parameter : parameters) {
-            if (first) {
-                first = false;
-            } else {
-                builder.append(QUERY_PARAMETER_SEPARATOR);
-            }
-            String name = parameter.name;
-            String value = parameter.value;
-            if (value == null) {
-                // No value => use an empty string as per the spec
-                value = "";
-            }
-            builder.append(URLEncoding.encodeQueryComponent(name))
-                    .append(QUERY_PARAMETER_VALUE_SEPARATOR)
-                    .append(URLEncoding.encodeQueryComponent(value));
+    /**
+     * A canonical request that only differs from another one by its {@code x-amz-date} value.
+     */
+    private static final class Redated extends CanonicalRequest {
+        private final DateTemplate template;
+        private final String date;
+
+        private Redated(CanonicalRequest original, DateTemplate template, String date) {
+            super(original.service, original.httpRequest, original.headers, original.contentSha256);
+            this.template = template;
+            this.date = date;
+        }
+
+        @Override
+        String get() {
+            return template.render(date);
+        }
+
+        @Override
+        String getHash() {
+            return template.hash(date);
         }
 
-        return builder.toString();
+        @Override
+        CanonicalRequest withDate(String date) {
+            return new Redated(this, template, CanonicalHeaders.Builder.normalizeHeaderValue(date));
+        }
     }
 
     /**
-     * Extract parameters from a query string, preserving encoding.
-     * <p>
-     * We can't use Apache HTTP Client's URLEncodedUtils.parse, mainly because
-     * we don't want to decode names/values.
-     *
-     * @param rawQuery
-     *            the query to parse
-     * @return The list of parameters, in the order they were found.
+     * A rendered canonical request split around the value of its {@code x-amz-date} header.
      */
-    private static List<Parameter> extractQueryParameters(String rawQuery) {
-        List<Parameter> results = new ArrayList<>();
-        int endIndex = rawQuery.length() - 1;
-        int index = 0;
-        while (0 <= index && index <= endIndex) {
-            /*
-             * Ideally we should first look for '&', then look for '=' before
-             * the '&', but obviously that's not how AWS understand query
-             * parsing; see the test "post-vanilla-query-nonunreserved" in the
-             * test suite. A string such as "?foo&bar=qux" will be understood as
-             * one parameter with name "foo&bar" and value "qux". Don't ask me
-             * why.
-             */
-            String name;
-            String value;
-            int nameValueSeparatorIndex = rawQuery.indexOf(QUERY_PARAMETER_VALUE_SEPARATOR, index);
-            if (nameValueSeparatorIndex < 0) {
-                // No value
-                name = rawQuery.substring(index);
-                value = null;
-
-                index = endIndex + 1;
-            } else {
-                int parameterSeparatorIndex = rawQuery.indexOf(QUERY_PARAMETER_SEPARATOR, nameValueSeparatorIndex);
-                if (parameterSeparatorIndex < 0) {
-                    parameterSeparatorIndex = endIndex + 1;
-                }
-                name = rawQuery.substring(index, nameValueSeparatorIndex);
-                value = rawQuery.substring(nameValueSeparatorIndex + 1, parameterSeparatorIndex);
-
-                index = parameterSeparatorIndex + 1;
+    private static final class DateTemplate {
+        private static final String SHA_256 = "SHA-256";
+
+        private final String prefix;
+        private final String suffix;
+        private final byte[] prefixBytes;
+        private final byte[] suffixBytes;
+        private final MessageDigest prefixDigest;
+
+        private DateTemplate(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+            this.suffixBytes = suffix.getBytes(StandardCharsets.UTF_8);
+            MessageDigest md = newSha256();
+            md.update(prefixBytes);
+            this.prefixDigest = md;
+        }
+
+        static DateTemplate of(String canonicalRequest) {
+            // header values are normalized to a single line and the path and query are encoded, so the line is unique
+            int start = canonicalRequest.indexOf(DATE_HEADER_LINE);
+            if (start < 0) {
+                throw new SigningException("canonical request has no 'x-amz-date' header");
             }
+            int valueStart = start + DATE_HEADER_LINE.length();
+            int valueEnd = canonicalRequest.indexOf('\n', valueStart);
+            return new DateTemplate(canonicalRequest.substring(0, valueStart), canonicalRequest.substring(valueEnd));
+        }
 
-            results.add(new Parameter(name, value));
+        String render(String date) {
+            return prefix + date + suffix;
         }
-        return results;
-    }
 
-    private static final class Parameter {
-        private final String name;
-        private final String value;
+        String hash(String date) {
+            MessageDigest md = copyPrefixDigest();
+            md.update(date.getBytes(StandardCharsets.UTF_8));
+            md.update(suffixBytes);
+            return Base16.encodeLowerCase(md.digest());
+        }
 
-        public Parameter(String name, String value) {
-            super();
-            this.name = name;
-            this.value = value;
+        private MessageDigest copyPrefixDigest() {
+            try {
+                // the digest is never updated once built, cloning it concurrently is safe
+                return (MessageDigest) prefixDigest.clone();
+            } catch (CloneNotSupportedException e) {
+                MessageDigest md = newSha256();
+                md.update(prefixBytes);
+                return md;
+            }
+        }
+
+        private static MessageDigest newSha256() {
+            try {
+                return MessageDigest.getInstance(SHA_256);
+            } catch (NoSuchAlgorithmException e) {
+                throw new SigningException(e);
+            }
         }
     }
 }
@@ -12,21 +12,57 @@
  */
 package uk.co.lucasweb.aws.v4.signer;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
+ * The credential scope of a signature, i.e. {@code date/region/service/aws4_request}.
+ * <p>
+ * Instances obtained through {@link #of(String, String, String)} are interned, so that the rendered scope and its
+ * UTF-8 bytes are computed once per distinct scope rather than on every signature.
+ * </p>
+ *
  * @author Yoann Rodiere
  */
 class CredentialScope {
     static final String TERMINATION_STRING = "aws4_request";
 
+    /*
+     * Scopes change once a day per region and service, so the table stays small; it is simply cleared if it ever
+     * grows past this size so that a long running process cannot leak old dates.
+     */
+    private static final int MAX_INTERNED_SCOPES = 1024;
+    private static final ConcurrentMap<CredentialScope, CredentialScope> INTERNED = new ConcurrentHashMap<>();
+
     private final String dateWithoutTimestamp;
     private final String service;
     private final String region;
+    private final String scope;
+    private volatile byte[] scopeBytes;
 
     public CredentialScope(String dateWithoutTimestamp, String service, String region) {
         super();
         this.dateWithoutTimestamp = dateWithoutTimestamp;
         this.service = service;
         this.region = region;
+        // SigV4a scopes are not bound to a region, the region set is a signed header instead
+        this.scope = region == null
+                ? dateWithoutTimestamp + "/" + service + "/" + TERMINATION_STRING
+                : dateWithoutTimestamp + "/" + region + "/" + service + "/" + TERMINATION_STRING;
+    }
+
+    static CredentialScope of(String dateWithoutTimestamp, String service, String region) {
+        CredentialScope candidate = new CredentialScope(dateWithoutTimestamp, service, region);
+        CredentialScope interned = INTERNED.get(candidate);
+        if (interned != null) {
+            return interned;
+        }
+        if (INTERNED.size() >= MAX_INTERNED_SCOPES) {
+            INTERNED.clear();
+        }
+        interned = INTERNED.putIfAbsent(candidate, candidate);
+        return interned != null ? interned : candidate;
     }
 
     String getDateWithoutTimestamp() {
@@ -42,7 +78,41 @@ class CredentialScope {
     }
 
     String get() {
-        return dateWithoutTimestamp + "/" + region + "/" + service + "/" + TERMINATION_STRING;
+        return scope;
+    }
+
+    /**
+     * @return the UTF-8 encoding of {@link #get()}; callers must not modify the returned array
+     */
+    byte[] getBytes() {
+        // single-check idiom: at worst the bytes are computed more than once by concurrent callers
+        byte[] bytes = scopeBytes;
+        if (bytes == null) {
+            bytes = scope.getBytes(StandardCharsets.UTF_8);
+            scopeBytes = bytes;
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return scope.equals(((CredentialScope) o).scope);
+    }
+
+    @Override
+    public int hashCode() {
+        return scope.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return scope;
     }
 
 }
@@ -0,0 +1,83 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes messages in the binary event-stream format: a prelude holding the total and headers lengths and their CRC,
+ * the headers, the payload, and a CRC of the whole message.
+ * <p>
+ * Instances reuse their CRC state and are not thread-safe.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class EventStreamEncoder {
+
+    static final int PRELUDE_LENGTH = 12;
+    static final int CRC_LENGTH = 4;
+    static final int OVERHEAD = PRELUDE_LENGTH + CRC_LENGTH;
+
+    private final CRC32 crc = new CRC32();
+
+    public static int getEncodedLength(int headersLength, int payloadLength) {
+        return OVERHEAD + headersLength + payloadLength;
+    }
+
+    /**
+     * Encodes a message into {@code destination}; the remaining bytes of {@code payload} are consumed.
+     *
+     * @return the number of bytes written
+     */
+    public int encode(EventStreamHeaders headers, ByteBuffer payload, ByteBuffer destination) {
+        int start = destination.position();
+        int length = getEncodedLength(headers.getEncodedLength(), payload.remaining());
+        writePrelude(destination, length, headers.getEncodedLength());
+        headers.writeTo(destination);
+        destination.put(payload);
+        writeMessageCrc(destination, start);
+        return length;
+    }
+
+    void writePrelude(ByteBuffer destination, int totalLength, int headersLength) {
+        int start = destination.position();
+        destination.putInt(totalLength);
+        destination.putInt(headersLength);
+        destination.putInt((int) crc(destination, start, 8));
+    }
+
+    /**
+     * Writes the CRC of everything written to {@code destination} since {@code start}.
+     */
+    void writeMessageCrc(ByteBuffer destination, int start) {
+        destination.putInt((int) crc(destination, start, destination.position() - start));
+    }
+
+    private long crc(ByteBuffer buffer, int offset, int length) {
+        crc.reset();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + offset, length);
+        } else {
+            int position = buffer.position();
+            int limit = buffer.limit();
+            buffer.limit(offset + length);
+            buffer.position(offset);
+            crc.update(buffer);
+            buffer.limit(limit);
+            buffer.position(position);
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The headers of an event-stream message, encoded once in the binary event-stream format so that they can be reused
+ * for every message of a stream.
+ *
+ * @author Richard Lucas
+ */
+public final class EventStreamHeaders {
+
+    static final byte TYPE_BYTE_ARRAY = 6;
+    static final byte TYPE_STRING = 7;
+    static final byte TYPE_TIMESTAMP = 8;
+
+    private static final int MAX_NAME_LENGTH = 255;
+    private static final int MAX_VALUE_LENGTH = 0xFFFF;
+
+    private final byte[] encoded;
+
+    private EventStreamHeaders(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    public int getEncodedLength() {
+        return encoded.length;
+    }
+
+    void writeTo(ByteBuffer destination) {
+        destination.put(encoded);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        public Builder string(String name, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            name(name, TYPE_STRING);
+            writeValue(bytes);
+            return this;
+        }
+
+        public Builder byteArray(String name, byte[] value) {
+            name(name, TYPE_BYTE_ARRAY);
+            writeValue(value);
+            return this;
+        }
+
+        public Builder timestamp(String name, long epochMillis) {
+            name(name, TYPE_TIMESTAMP);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (epochMillis >>> shift));
+            }
+            return this;
+        }
+
+        public EventStreamHeaders build() {
+            return new EventStreamHeaders(out.toByteArray());
+        }
+
+        private void name(String name, byte type) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length == 0 || bytes.length > MAX_NAME_LENGTH) {
+                throw new IllegalArgumentException("header names must be between 1 and " + MAX_NAME_LENGTH + " bytes long");
+            }
+            out.write(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            out.write(type);
+        }
+
+        private void writeValue(byte[] bytes) {
+            if (bytes.length > MAX_VALUE_LENGTH) {
+                throw new IllegalArgumentException("header values must be at most " + MAX_VALUE_LENGTH + " bytes long");
+            }
+            out.write(bytes.length >>> 8);
+            out.write(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * Signs the messages of an event stream, as used by streaming APIs such as Transcribe streaming.
+ * <p>
+ * Each message (usually an event encoded with {@link EventStreamEncoder}) becomes the payload of a signed message
+ * carrying a {@code :date} and a {@code :chunk-signature} header. Signatures are chained: the first message is signed
+ * from the signature of the HTTP request, whose {@code x-amz-content-sha256} must be {@link #CONTENT_SHA256}, and each
+ * following message from the previous one. An empty message ends the stream, see {@link #signEnd(long, ByteBuffer)}.
+ * </p>
+ * <p>
+ * The signing key, {@link Mac}, digest and all scratch buffers are kept for the lifetime of the stream, so that once
+ * the first message has been signed no further allocation happens until the date changes. Instances are stateful and
+ * not thread-safe; use one signer per stream.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class EventStreamSigner {
+
+    /**
+     * The {@code x-amz-content-sha256} of the HTTP request opening an event stream.
+     */
+    public static final String CONTENT_SHA256 = "STREAMING-AWS4-HMAC-SHA256-EVENTS";
+
+    private static final StringToSign STRING_TO_SIGN = AwsChunkedEncoder.CHUNK_STRING_TO_SIGN;
+    private static final byte[] DATE_HEADER = ":date".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SIGNATURE_HEADER = ":chunk-signature".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int SIGNATURE_LENGTH = 32;
+    private static final int DATE_HEADER_LENGTH = 1 + DATE_HEADER.length + 1 + 8;
+    private static final int SIGNATURE_HEADER_LENGTH = 1 + SIGNATURE_HEADER.length + 1 + 2 + SIGNATURE_LENGTH;
+    private static final int HEADERS_LENGTH = DATE_HEADER_LENGTH + SIGNATURE_HEADER_LENGTH;
+    static final int PREFIX_LENGTH = EventStreamEncoder.PRELUDE_LENGTH + HEADERS_LENGTH;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    // the payload of the message ending the stream; it is only ever read, and empty, so it can be shared
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final Signer signer;
+    private final String service;
+    private final String region;
+    private final MessageDigest digest;
+    private final CRC32 crc = new CRC32();
+    private final byte[] prefix = new byte[PREFIX_LENGTH];
+    private final byte[] date = new byte[16];
+    private final byte[] hash = new byte[32];
+    private final byte[] hex = new byte[64];
+    private final byte[] priorSignature = new byte[64];
+    private final ByteBuffer crcBuffer = ByteBuffer.allocate(EventStreamEncoder.CRC_LENGTH);
+    private CredentialScope scope;
+    private Mac mac;
+    private long day;
+
+    private EventStreamSigner(Signer signer) {
+        this.signer = signer;
+        this.scope = signer.getScope();
+        this.service = scope.getService();
+        this.region = scope.getRegion();
+        this.mac = signer.useSigningKey(SigningKey::newMac);
+        this.day = Long.MIN_VALUE;
+        this.digest = Throwables.returnableInstance(() -> MessageDigest.getInstance("SHA-256"), SigningException::new);
+        byte[] seed = signer.computeSignature().getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(seed, 0, priorSignature, 0, priorSignature.length);
+
+        prefix[EventStreamEncoder.PRELUDE_LENGTH] = (byte) DATE_HEADER.length;
+        System.arraycopy(DATE_HEADER, 0, prefix, EventStreamEncoder.PRELUDE_LENGTH + 1, DATE_HEADER.length);
+        prefix[EventStreamEncoder.PRELUDE_LENGTH + 1 + DATE_HEADER.length] = EventStreamHeaders.TYPE_TIMESTAMP;
+        int signatureHeader = EventStreamEncoder.PRELUDE_LENGTH + DATE_HEADER_LENGTH;
+        prefix[signatureHeader] = (byte) SIGNATURE_HEADER.length;
+        System.arraycopy(SIGNATURE_HEADER, 0, prefix, signatureHeader + 1, SIGNATURE_HEADER.length);
+        prefix[signatureHeader + 1 + SIGNATURE_HEADER.length] = EventStreamHeaders.TYPE_BYTE_ARRAY;
+        prefix[signatureHeader + 2 + SIGNATURE_HEADER.length] = 0;
+        prefix[signatureHeader + 3 + SIGNATURE_HEADER.length] = SIGNATURE_LENGTH;
+    }
+
+    /**
+     * @param signer the signer of the HTTP request opening the stream
+     */
+    public static EventStreamSigner of(Signer signer) {
+        return new EventStreamSigner(signer);
+    }
+
+    /**
+     * @return the length of a signed message wrapping a payload of the given length
+     */
+    public static int getSignedLength(int payloadLength) {
+        return PREFIX_LENGTH + payloadLength + EventStreamEncoder.CRC_LENGTH;
+    }
+
+    /**
+     * Signs a message and writes it to {@code destination}; the remaining bytes of {@code payload} are consumed.
+     *
+     * @param payload the encoded event
+     * @param epochMillis the signing time, sent as the {@code :date} header
+     * @param destination the buffer receiving the signed message
+     * @return the number of bytes written
+     */
+    public int sign(ByteBuffer payload, long epochMillis, ByteBuffer destination) {
+        int length = getSignedLength(payload.remaining());
+        sign(payload, epochMillis);
+        destination.put(prefix);
+        destination.put(payload);
+        destination.putInt((int) crc.getValue());
+        return length;
+    }
+
+    /**
+     * Signs a message without copying its payload, for gathering writes: the signed message is the prefix written to
+     * {@code prefixDestination}, then {@code payload}, then the returned CRC buffer. {@code payload} is left untouched.
+     *
+     * @param payload the encoded event
+     * @param epochMillis the signing time, sent as the {@code :date} header
+     * @param prefixDestination the buffer receiving the prelude and the headers
+     * @return the message CRC to write after the payload; the buffer is reused by the next call
+     */
+    public ByteBuffer signPrefix(ByteBuffer payload, long epochMillis, ByteBuffer prefixDestination) {
+        sign(payload, epochMillis);
+        prefixDestination.put(prefix);
+        crcBuffer.clear();
+        crcBuffer.putInt(0, (int) crc.getValue());
+        return crcBuffer;
+    }
+
+    /**
+     * Signs the empty message that ends the stream.
+     */
+    public int signEnd(long epochMillis, ByteBuffer destination) {
+        return sign(EMPTY, epochMillis, destination);
+    }
+
+    private void sign(ByteBuffer payload, long epochMillis) {
+        int payloadLength = payload.remaining();
+        writeDate(epochMillis);
+
+        STRING_TO_SIGN.updatePrefix(mac, date, scope);
+        mac.update(priorSignature);
+        mac.update((byte) '\n');
+        // hash of the non-signature headers, i.e. the encoded :date header
+        digest.update(prefix, EventStreamEncoder.PRELUDE_LENGTH, DATE_HEADER_LENGTH);
+        mac.update(hexDigest());
+        mac.update((byte) '\n');
+        int position = payload.position();
+        digest.update(payload);
+        payload.position(position);
+        mac.update(hexDigest());
+        int signatureOffset = PREFIX_LENGTH - SIGNATURE_LENGTH;
+        try {
+            mac.doFinal(prefix, signatureOffset);
+        } catch (ShortBufferException e) {
+            throw new SigningException("Error signing event", e);
+        }
+        toHex(prefix, signatureOffset, priorSignature);
+
+        writeInt(0, PREFIX_LENGTH + payloadLength + EventStreamEncoder.CRC_LENGTH);
+        writeInt(4, HEADERS_LENGTH);
+        crc.reset();
+        crc.update(prefix, 0, 8);
+        writeInt(8, (int) crc.getValue());
+        crc.reset();
+        crc.update(prefix, 0, PREFIX_LENGTH);
+        crc.update(payload);
+        payload.position(position);
+    }
+
+    private byte[] hexDigest() {
+        try {
+            digest.digest(hash, 0, hash.length);
+        } catch (DigestException e) {
+            throw new SigningException("Error hashing event", e);
+        }
+        toHex(hash, 0, hex);
+        return hex;
+    }
+
+    private static void toHex(byte[] bytes, int offset, byte[] destination) {
+        for (int i = 0; i < destination.length / 2; i++) {
+            int b = bytes[offset + i];
+            destination[2 * i] = HEX[(b >> 4) & 0xF];
+            destination[2 * i + 1] = HEX[b & 0xF];
+        }
+    }
+
+    private void writeInt(int offset, int value) {
+        prefix[offset] = (byte) (value >>> 24);
+        prefix[offset + 1] = (byte) (value >>> 16);
+        prefix[offset + 2] = (byte) (value >>> 8);
+        prefix[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Writes the {@code :date} header value and the ISO 8601 basic date used in the string to sign, taking the signing
+     * key of the new day from the signer of the stream when the day changes.
+     */
+    private void writeDate(long epochMillis) {
+        int timestamp = EventStreamEncoder.PRELUDE_LENGTH + 1 + DATE_HEADER.length + 1;
+        for (int i = 0; i < 8; i++) {
+            prefix[timestamp + i] = (byte) (epochMillis >>> (56 - 8 * i));
+        }
+
+        long epochDay = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        int secondOfDay = (int) (Math.floorMod(epochMillis, MILLIS_PER_DAY) / 1000);
+        if (epochDay != day) {
+            writeDay(epochDay);
+            String dateWithoutTimestamp = new String(date, 0, 8, StandardCharsets.US_ASCII);
+            if (!dateWithoutTimestamp.equals(scope.getDateWithoutTimestamp())) {
+                scope = CredentialScope.of(dateWithoutTimestamp, service, region);
+                mac = signer.useSigningKey(scope, SigningKey::newMac);
+            }
+            day = epochDay;
+        }
+        date[8] = 'T';
+        writeDigits(9, secondOfDay / 3600, 2);
+        writeDigits(11, secondOfDay / 60 % 60, 2);
+        writeDigits(13, secondOfDay % 60, 2);
+        date[15] = 'Z';
+    }
+
+    /**
+     * Converts days since the epoch to a civil date, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private void writeDay(long epochDay) {
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        writeDigits(0, year, 4);
+        writeDigits(4, month, 2);
+        writeDigits(6, dayOfMonth, 2);
+    }
+
+    private void writeDigits(int offset, int value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            date[offset + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a block of {@code Name: value} header lines, as sent on the wire, into {@link CanonicalHeaders}.
+ * <p>
+ * Names are lower cased while they are decoded and values are decoded once, straight from the bytes. Lines may end
+ * with CRLF or LF, the block ends at the first empty line or at the end of the buffer. Obsolete line folding is kept
+ * as a multi-line value, which the canonical headers then join with commas like repeated headers.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class HeaderBlock {
+
+    private HeaderBlock() {
+    }
+
+    /**
+     * Adds the headers of {@code block}, between its position and limit, to {@code headers}; the position of
+     * {@code block} is left untouched.
+     */
+    static void parse(ByteBuffer block, CanonicalHeaders.Builder headers) {
+        int limit = block.limit();
+        int lineStart = block.position();
+        String name = null;
+        String value = null;
+        while (lineStart < limit) {
+            int lineEnd = Ascii.indexOf(block, lineStart, limit, '\n');
+            int next = lineEnd < 0 ? limit : lineEnd + 1;
+            int contentEnd = lineEnd < 0 ? limit : lineEnd;
+            if (contentEnd > lineStart && block.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            if (contentEnd == lineStart) {
+                break;
+            }
+            if (Ascii.isWhitespace(block.get(lineStart))) {
+                if (name == null) {
+                    throw new IllegalArgumentException("header block starts with a folded line");
+                }
+                value = value + '\n' + decodeValue(block, lineStart, contentEnd);
+            } else {
+                if (name != null) {
+                    headers.addLowerCase(name, value);
+                }
+                int colon = Ascii.indexOf(block, lineStart, contentEnd, ':');
+                if (colon <= lineStart || Ascii.isWhitespace(block.get(colon - 1))) {
+                    throw new IllegalArgumentException("invalid header line: "
+                            + Ascii.decode(block, lineStart, contentEnd));
+                }
+                name = Ascii.decodeLowerCase(block, lineStart, colon);
+                value = decodeValue(block, colon + 1, contentEnd);
+            }
+            lineStart = next;
+        }
+        if (name != null) {
+            headers.addLowerCase(name, value);
+        }
+    }
+
+    private static String decodeValue(ByteBuffer block, int from, int to) {
+        while (from < to && Ascii.isWhitespace(block.get(from))) {
+            from++;
+        }
+        while (to > from && Ascii.isWhitespace(block.get(to - 1))) {
+            to--;
+        }
+        return Ascii.decode(block, from, to);
+    }
+}
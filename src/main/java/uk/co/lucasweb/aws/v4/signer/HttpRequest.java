@@ -13,6 +13,7 @@
 package uk.co.lucasweb.aws.v4.signer;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 /**
  * @author Richard Lucas
@@ -41,6 +42,54 @@ public class HttpRequest {
         }
     }
 
+    private HttpRequest(String method, String path, String query) {
+        this.method = method;
+        this.path = path;
+        this.query = query;
+    }
+
+    /**
+     * Reads a request line such as {@code GET /photos/photo.jpg?versionId=1 HTTP/1.1} straight from its bytes,
+     * without parsing the target as a {@link URI}. A request target in absolute form is reduced to its path and
+     * query. The position of {@code requestLine} is left untouched and a trailing line break is ignored.
+     *
+     * @throws IllegalArgumentException if the request line has no method or target
+     */
+    public static HttpRequest of(ByteBuffer requestLine) {
+        int start = requestLine.position();
+        int end = requestLine.limit();
+        while (end > start && (requestLine.get(end - 1) == '\n' || requestLine.get(end - 1) == '\r')) {
+            end--;
+        }
+        int methodEnd = Ascii.indexOf(requestLine, start, end, ' ');
+        if (methodEnd <= start || methodEnd + 1 >= end) {
+            throw new IllegalArgumentException("invalid request line: " + Ascii.decode(requestLine, start, end));
+        }
+        int targetStart = methodEnd + 1;
+        int targetEnd = Ascii.indexOf(requestLine, targetStart, end, ' ');
+        if (targetEnd < 0) {
+            targetEnd = end;
+        }
+        if (requestLine.get(targetStart) != '/') {
+            int authority = Ascii.indexOf(requestLine, targetStart, targetEnd, ':');
+            if (authority > 0 && authority + 2 < targetEnd
+                    && requestLine.get(authority + 1) == '/' && requestLine.get(authority + 2) == '/') {
+                int pathStart = authority + 3;
+                while (pathStart < targetEnd && requestLine.get(pathStart) != '/' && requestLine.get(pathStart) != '?') {
+                    pathStart++;
+                }
+                targetStart = pathStart;
+            }
+        }
+        String method = Ascii.decode(requestLine, start, methodEnd);
+        int queryStart = Ascii.indexOf(requestLine, targetStart, targetEnd, '?');
+        if (queryStart < 0) {
+            return new HttpRequest(method, Ascii.decode(requestLine, targetStart, targetEnd), null);
+        }
+        return new HttpRequest(method, Ascii.decode(requestLine, targetStart, queryStart),
+                Ascii.decode(requestLine, queryStart + 1, targetEnd));
+    }
+
     public String getMethod() {
         return method;
     }
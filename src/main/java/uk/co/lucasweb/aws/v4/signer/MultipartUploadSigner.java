@@ -0,0 +1,370 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProviderChain;
+import uk.co.lucasweb.aws.v4.signer.encoding.URLEncoding;
+import uk.co.lucasweb.aws.v4.signer.hash.Sha256;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Signs the {@code UploadPart} requests of an S3 multipart upload.
+ * <p>
+ * Parts are hashed in parallel on the configured {@link Executor} and signed parts are returned in the order their
+ * hash completes, which is not necessarily the part number order. At most {@code maxPartsInFlight} parts are hashed
+ * at any time; a new part is only submitted once a signed part has been handed to the caller, so a slow consumer
+ * naturally throttles hashing. The credential scope and signing key are derived once and reused for every part.
+ * </p>
+ * <pre>{@code
+ * try (MultipartUploadSigner signer = MultipartUploadSigner.builder()
+ *         .awsCredentials(credentials)
+ *         .header("Host", "examplebucket.s3.amazonaws.com")
+ *         .header("x-amz-date", "20130524T000000Z")
+ *         .build(file, "/photos/photo.jpg", uploadId, 8 * 1024 * 1024)) {
+ *     for (MultipartUploadSigner.SignedPart part : signer) {
+ *         // send part.getRequest() with part.getHeaders() and the bytes at part.getOffset()
+ *     }
+ * }
+ * }</pre>
+ *
+ * @author Richard Lucas
+ */
+public class MultipartUploadSigner implements Iterable<MultipartUploadSigner.SignedPart>, AutoCloseable {
+
+    private static final String PUT = "PUT";
+    private static final String X_AMZ_CONTENT_SHA256 = "x-amz-content-sha256";
+    private static final String AUTHORIZATION = "Authorization";
+    private static final int MAX_PART_COUNT = 10_000;
+    private static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+
+    private final AwsCredentials awsCredentials;
+    private final String region;
+    private final Header[] headers;
+    private final FileChannel channel;
+    private final boolean closeChannel;
+    private final String path;
+    private final String uploadId;
+    private final long partSize;
+    private final long size;
+    private final int partCount;
+    private final Executor executor;
+    private final int maxPartsInFlight;
+    private volatile SigningKey signingKey;
+
+    private MultipartUploadSigner(AwsCredentials awsCredentials, String region, Header[] headers, FileChannel channel,
+                                  boolean closeChannel, String path, String uploadId, long partSize,
+                                  long minimumPartSize, Executor executor, int maxPartsInFlight) throws IOException {
+        this.awsCredentials = awsCredentials;
+        this.region = region;
+        this.headers = headers;
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.path = path;
+        this.uploadId = uploadId;
+        this.partSize = partSize;
+        this.size = channel.size();
+        long parts = Math.max(1, (size + partSize - 1) / partSize);
+        // the last part may be smaller, so a file that fits in a single part can be uploaded with any part size
+        if (parts > 1 && partSize < minimumPartSize) {
+            throw new IllegalArgumentException("a part size of " + partSize + " is below the minimum of "
+                    + minimumPartSize + " bytes of every part but the last");
+        }
+        if (parts > MAX_PART_COUNT) {
+            throw new IllegalArgumentException("a part size of " + partSize + " splits " + size + " bytes into " + parts
+                    + " parts, S3 accepts at most " + MAX_PART_COUNT);
+        }
+        this.partCount = (int) parts;
+        this.executor = executor;
+        this.maxPartsInFlight = maxPartsInFlight;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    /**
+     * Starts hashing the parts. Each call starts a new pass over the file.
+     */
+    @Override
+    public Iterator<SignedPart> iterator() {
+        return new PartIterator();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeChannel) {
+            channel.close();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private SignedPart signPart(int partNumber) {
+        long offset = (partNumber - 1) * partSize;
+        long length = Math.min(partSize, size - offset);
+        String contentSha256 = Sha256.get(channel, offset, length);
+
+        HttpRequest request = new HttpRequest(PUT, path + "?partNumber=" + partNumber + "&uploadId=" + URLEncoding.encodeQueryComponent(uploadId));
+        Signer signer = Signer.builder()
+                .awsCredentials(awsCredentials)
+                .region(region)
+                .headers(headers)
+                .header(X_AMZ_CONTENT_SHA256, contentSha256)
+                .signingKey(signingKey)
+                .buildS3(request, contentSha256);
+        if (signingKey == null) {
+            signingKey = signer.getSigningKey();
+        }
+        List<Header> partHeaders = new ArrayList<>(2);
+        partHeaders.add(new Header(X_AMZ_CONTENT_SHA256, contentSha256));
+        partHeaders.add(new Header(AUTHORIZATION, signer.getSignature()));
+        return new SignedPart(partNumber, offset, length, contentSha256, request, partHeaders);
+    }
+
+    private final class PartIterator implements Iterator<SignedPart> {
+
+        private final CompletionService<SignedPart> completionService = new ExecutorCompletionService<>(executor);
+        private int submitted;
+        private int returned;
+
+        private PartIterator() {
+            while (submitted < Math.min(maxPartsInFlight, partCount)) {
+                submitNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return returned < partCount;
+        }
+
+        @Override
+        public SignedPart next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SignedPart part;
+            try {
+                Future<SignedPart> future = completionService.take();
+                part = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SigningException("interrupted while hashing parts", e);
+            } catch (ExecutionException e) {
+                throw new SigningException("Error hashing part", e.getCause());
+            }
+            returned++;
+            if (submitted < partCount) {
+                submitNext();
+            }
+            return part;
+        }
+
+        private void submitNext() {
+            int partNumber = ++submitted;
+            completionService.submit(() -> signPart(partNumber));
+        }
+    }
+
+    /**
+     * A signed {@code UploadPart} request.
+     */
+    public static class SignedPart {
+
+        private final int partNumber;
+        private final long offset;
+        private final long length;
+        private final String contentSha256;
+        private final HttpRequest request;
+        private final List<Header> headers;
+
+        SignedPart(int partNumber, long offset, long length, String contentSha256, HttpRequest request, List<Header> headers) {
+            this.partNumber = partNumber;
+            this.offset = offset;
+            this.length = length;
+            this.contentSha256 = contentSha256;
+            this.request = request;
+            this.headers = headers;
+        }
+
+        public int getPartNumber() {
+            return partNumber;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getContentSha256() {
+            return contentSha256;
+        }
+
+        public HttpRequest getRequest() {
+            return request;
+        }
+
+        /**
+         * @return the {@code x-amz-content-sha256} and {@code Authorization} headers to add to the request
+         */
+        public List<Header> getHeaders() {
+            return headers;
+        }
+
+        public String getAuthorization() {
+            return headers.get(1).getValue();
+        }
+    }
+
+    public static class Builder {
+
+        private static final int DEFAULT_MAX_PARTS_IN_FLIGHT = 4;
+
+        private static final String DEFAULT_REGION = "us-east-1";
+        private static final long DEFAULT_MINIMUM_PART_SIZE = 5L * 1024 * 1024;
+
+        private final List<Header> headers = new ArrayList<>();
+        private AwsCredentials awsCredentials;
+        private String region = DEFAULT_REGION;
+        private Executor executor = ForkJoinPool.commonPool();
+        private int maxPartsInFlight = DEFAULT_MAX_PARTS_IN_FLIGHT;
+        private long minimumPartSize = DEFAULT_MINIMUM_PART_SIZE;
+
+        public Builder awsCredentials(AwsCredentials awsCredentials) {
+            this.awsCredentials = awsCredentials;
+            return this;
+        }
+
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+
+        /**
+         * Adds a header signed with every part, such as {@code Host} and {@code x-amz-date}.
+         *
+         * @throws IllegalArgumentException for the {@code x-amz-content-sha256} and {@code Authorization} headers,
+         *                                  which the session sets for every part
+         */
+        public Builder header(String name, String value) {
+            return header(new Header(name, value));
+        }
+
+        public Builder header(Header header) {
+            String name = header.getName();
+            if (X_AMZ_CONTENT_SHA256.equalsIgnoreCase(name) || AUTHORIZATION.equalsIgnoreCase(name)) {
+                throw new IllegalArgumentException("the " + name + " header is set for every part by the session");
+            }
+            headers.add(header);
+            return this;
+        }
+
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * The number of parts hashed concurrently; this bounds the memory and file descriptors used by the session.
+         */
+        public Builder maxPartsInFlight(int maxPartsInFlight) {
+            if (maxPartsInFlight < 1) {
+                throw new IllegalArgumentException("maxPartsInFlight must be at least 1");
+            }
+            this.maxPartsInFlight = maxPartsInFlight;
+            return this;
+        }
+
+        /**
+         * The smallest size of every part but the last one; defaults to 5 MiB, the minimum of S3. Stores compatible
+         * with S3 that accept smaller parts may lower it.
+         */
+        public Builder minimumPartSize(long minimumPartSize) {
+            if (minimumPartSize < 1) {
+                throw new IllegalArgumentException("minimumPartSize must be positive");
+            }
+            this.minimumPartSize = minimumPartSize;
+            return this;
+        }
+
+        /**
+         * @param channel the channel to read parts from; it is not closed by the session
+         * @param path the raw path of the object, e.g. {@code /photos/photo.jpg}
+         * @param uploadId the id returned by {@code CreateMultipartUpload}
+         * @param partSize the size of every part but the last one, at most 5 GiB
+         * @throws IllegalArgumentException if the part size is below the {@link #minimumPartSize(long) minimum} while
+         *                                  the file does not fit in a single part, or splits it into more than 10000
+         *                                  parts
+         */
+        public MultipartUploadSigner build(FileChannel channel, String path, String uploadId, long partSize) {
+            return build(channel, false, path, uploadId, partSize);
+        }
+
+        /**
+         * Same as {@link #build(FileChannel, String, String, long)}, the file is closed when the session is closed.
+         */
+        public MultipartUploadSigner build(Path file, String path, String uploadId, long partSize) {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new SigningException("Error opening " + file, e);
+            }
+            try {
+                return build(channel, true, path, uploadId, partSize);
+            } catch (RuntimeException e) {
+                try {
+                    channel.close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+                throw e;
+            }
+        }
+
+        private MultipartUploadSigner build(FileChannel channel, boolean closeChannel, String path, String uploadId, long partSize) {
+            if (partSize < 1 || partSize > MAX_PART_SIZE) {
+                throw new IllegalArgumentException("partSize must be positive and at most " + MAX_PART_SIZE);
+            }
+            AwsCredentials credentials = Optional.ofNullable(awsCredentials)
+                    .orElseGet(() -> new AwsCredentialsProviderChain().getCredentials());
+            try {
+                return new MultipartUploadSigner(credentials, region, headers.toArray(new Header[0]), channel,
+                        closeChannel, path, uploadId, partSize, minimumPartSize, executor, maxPartsInFlight);
+            } catch (IOException e) {
+                throw new SigningException("Error reading channel size", e);
+            }
+        }
+    }
+}
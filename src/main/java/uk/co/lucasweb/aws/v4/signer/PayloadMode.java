@@ -0,0 +1,72 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+/**
+ * The ways a payload can be covered by a signature, other than hashing it up front.
+ * <p>
+ * Pass {@link #getContentSha256()} as the {@code contentSha256} of the request, and as its
+ * {@code x-amz-content-sha256} header. Streaming modes also need the {@code Content-Encoding: aws-chunked} and
+ * {@code x-amz-decoded-content-length} headers, plus {@code x-amz-trailer} when a trailing checksum is sent, and the
+ * body must be framed with an {@link AwsChunkedEncoder}.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public enum PayloadMode {
+
+    /**
+     * The payload is not signed at all.
+     */
+    UNSIGNED_PAYLOAD("UNSIGNED-PAYLOAD", false, false, false),
+    /**
+     * Every chunk is signed, chained from the signature of the request.
+     */
+    STREAMING_SIGNED("STREAMING-AWS4-HMAC-SHA256-PAYLOAD", true, true, false),
+    /**
+     * Every chunk is signed, and a signed trailing checksum follows the last chunk.
+     */
+    STREAMING_SIGNED_TRAILER("STREAMING-AWS4-HMAC-SHA256-PAYLOAD-TRAILER", true, true, true),
+    /**
+     * Chunks are not signed; an unsigned trailing checksum follows the last chunk.
+     */
+    STREAMING_UNSIGNED_TRAILER("STREAMING-UNSIGNED-PAYLOAD-TRAILER", true, false, true);
+
+    private final String contentSha256;
+    private final boolean chunked;
+    private final boolean signedChunks;
+    private final boolean trailer;
+
+    PayloadMode(String contentSha256, boolean chunked, boolean signedChunks, boolean trailer) {
+        this.contentSha256 = contentSha256;
+        this.chunked = chunked;
+        this.signedChunks = signedChunks;
+        this.trailer = trailer;
+    }
+
+    public String getContentSha256() {
+        return contentSha256;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    public boolean hasSignedChunks() {
+        return signedChunks;
+    }
+
+    public boolean hasTrailer() {
+        return trailer;
+    }
+}
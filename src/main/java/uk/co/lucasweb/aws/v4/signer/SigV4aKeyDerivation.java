@@ -0,0 +1,178 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.cache.BoundedCache;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.SecretAwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
+import uk.co.lucasweb.aws.v4.signer.hash.HmacSha256;
+
+import javax.security.auth.DestroyFailedException;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPrivateKeySpec;
+import java.util.Arrays;
+
+/**
+ * Derives the ECDSA P-256 private key used by SigV4a from a secret key.
+ * <p>
+ * The key is derived with the NIST SP 800-108 KDF in counter mode, using HMAC-SHA256 keyed with {@code AWS4A} and
+ * the secret key, and the access key plus an external counter as context. The counter is incremented until the
+ * candidate falls below {@code n - 1}, {@code n} being the order of the curve, and the private key is the candidate
+ * plus one. Derived keys are cached per access key, as deriving them costs far more than an HMAC signature.
+ * </p>
+ * <p>
+ * The cache holds a SHA-256 fingerprint of the secret key to notice rotated secrets, never the secret itself, and
+ * evicts the least recently used keys beyond {@value #MAX_CACHED_KEYS} access keys. Evicted keys are destroyed when
+ * their provider supports it; the EC keys of the JDK do not, so for them eviction drops the last reference held here.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class SigV4aKeyDerivation {
+
+    static final ECParameterSpec P256 = Throwables.returnableInstance(() -> {
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec("secp256r1"));
+        return parameters.getParameterSpec(ECParameterSpec.class);
+    }, SigningException::new);
+
+    private static final String ALGORITHM = "AWS4-ECDSA-P256-SHA256";
+    private static final String KEY_PREFIX = "AWS4A";
+    private static final int KEY_LENGTH_BITS = 256;
+    private static final int MAX_COUNTER = 254;
+    private static final int MAX_CACHED_KEYS = 1024;
+    private static final BigInteger N_MINUS_2 = P256.getOrder().subtract(BigInteger.valueOf(2));
+    private static final BoundedCache<String, CachedKey> CACHE = BoundedCache.<String, CachedKey>builder()
+            .maximumSize(MAX_CACHED_KEYS)
+            .removalListener((accessKey, cached) -> cached.destroy())
+            .build();
+
+    private SigV4aKeyDerivation() {
+        // hide default constructor
+    }
+
+    static ECPrivateKey getPrivateKey(AwsCredentials awsCredentials) {
+        byte[] fingerprint = fingerprint(awsCredentials);
+        CachedKey cached = CACHE.getIfPresent(awsCredentials.getAccessKey());
+        if (cached != null && MessageDigest.isEqual(cached.fingerprint, fingerprint)) {
+            return cached.privateKey;
+        }
+        ECPrivateKey privateKey = derive(awsCredentials);
+        CACHE.put(awsCredentials.getAccessKey(), new CachedKey(fingerprint, privateKey));
+        return privateKey;
+    }
+
+    static ECPrivateKey derive(String accessKey, String secretKey) {
+        return derive(accessKey, (KEY_PREFIX + secretKey).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ECPrivateKey derive(AwsCredentials awsCredentials) {
+        if (awsCredentials instanceof SecretAwsCredentials) {
+            try {
+                return derive(awsCredentials.getAccessKey(), ((SecretAwsCredentials) awsCredentials).copySecretKey(KEY_PREFIX));
+            } catch (IllegalStateException e) {
+                throw new SigningException(e.getMessage(), e);
+            }
+        }
+        return derive(awsCredentials.getAccessKey(), awsCredentials.getSecretKey());
+    }
+
+    private static ECPrivateKey derive(String accessKey, byte[] inputKey) {
+        byte[] accessKeyBytes = accessKey.getBytes(StandardCharsets.UTF_8);
+        HmacSha256.Key key = new HmacSha256.Key(inputKey);
+        Arrays.fill(inputKey, (byte) 0);
+        try {
+            HmacSha256 mac = new HmacSha256().init(key);
+            for (int counter = 1; counter <= MAX_COUNTER; counter++) {
+                mac.update(fixedInput(accessKeyBytes, counter));
+                BigInteger candidate = new BigInteger(1, mac.doFinal());
+                if (candidate.compareTo(N_MINUS_2) <= 0) {
+                    BigInteger d = candidate.add(BigInteger.ONE);
+                    return Throwables.returnableInstance(() -> (ECPrivateKey) KeyFactory.getInstance("EC")
+                            .generatePrivate(new ECPrivateKeySpec(d, P256)), SigningException::new);
+                }
+            }
+        } finally {
+            key.destroy();
+        }
+        throw new SigningException("could not derive a SigV4a key for access key " + accessKey);
+    }
+
+    /**
+     * @return the SHA-256 of the secret key, the copy of the secret being zeroed once hashed
+     */
+    private static byte[] fingerprint(AwsCredentials awsCredentials) {
+        byte[] secret;
+        if (awsCredentials instanceof SecretAwsCredentials) {
+            try {
+                secret = ((SecretAwsCredentials) awsCredentials).copySecretKey("");
+            } catch (IllegalStateException e) {
+                throw new SigningException(e.getMessage(), e);
+            }
+        } else {
+            secret = awsCredentials.getSecretKey().getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            return Throwables.returnableInstance(() -> MessageDigest.getInstance("SHA-256"), SigningException::new)
+                    .digest(secret);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    private static byte[] fixedInput(byte[] accessKey, int counter) {
+        ByteArrayOutputStream input = new ByteArrayOutputStream(64 + accessKey.length);
+        writeInt(input, 1);
+        byte[] label = ALGORITHM.getBytes(StandardCharsets.US_ASCII);
+        input.write(label, 0, label.length);
+        input.write(0);
+        input.write(accessKey, 0, accessKey.length);
+        input.write(counter);
+        writeInt(input, KEY_LENGTH_BITS);
+        return input.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static final class CachedKey {
+        private final byte[] fingerprint;
+        private final ECPrivateKey privateKey;
+
+        private CachedKey(byte[] fingerprint, ECPrivateKey privateKey) {
+            this.fingerprint = fingerprint;
+            this.privateKey = privateKey;
+        }
+
+        private void destroy() {
+            try {
+                privateKey.destroy();
+            } catch (DestroyFailedException e) {
+                // the provider keeps the key material, nothing more can be done than dropping the reference
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProviderChain;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.Sha256;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Signs requests with SigV4a, the multi-region variant of the AWS V4 signing algorithm used by multi-region access
+ * points.
+ * <p>
+ * The canonical request is built as for {@link Signer}, but the credential scope is not bound to a region (the
+ * regions are listed in the signed {@code X-Amz-Region-Set} header instead) and the string to sign is signed with
+ * ECDSA P-256 using a key derived from the secret key. The derived key is cached per access key.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public class SigV4aSigner {
+
+    private static final String ALGORITHM = "AWS4-ECDSA-P256-SHA256";
+    private static final String ECDSA_SHA256 = "SHA256withECDSA";
+    private static final String X_AMZ_DATE = "X-Amz-Date";
+    private static final StringToSign STRING_TO_SIGN = new StringToSign(ALGORITHM);
+
+    private final CanonicalRequest request;
+    private final AwsCredentials awsCredentials;
+    private final String date;
+    private final CredentialScope scope;
+
+    private SigV4aSigner(CanonicalRequest request, AwsCredentials awsCredentials, String date, CredentialScope scope) {
+        this.request = request;
+        this.awsCredentials = awsCredentials;
+        this.date = date;
+        this.scope = scope;
+    }
+
+    String getCanonicalRequest() {
+        return request.get();
+    }
+
+    String getStringToSign() {
+        return STRING_TO_SIGN.render(date, scope, Sha256.get(getCanonicalRequest(), StandardCharsets.UTF_8));
+    }
+
+    public String getSignature() {
+        String signature;
+        try {
+            Signature ecdsa = Signature.getInstance(ECDSA_SHA256);
+            ecdsa.initSign(SigV4aKeyDerivation.getPrivateKey(awsCredentials));
+            ecdsa.update(getStringToSign().getBytes(StandardCharsets.UTF_8));
+            signature = Base16.encodeLowerCase(ecdsa.sign());
+        } catch (Exception e) {
+            throw new SigningException("Error signing request", e);
+        }
+        return ALGORITHM + " Credential=" + awsCredentials.getAccessKey() + "/" + scope.get()
+                + ", SignedHeaders=" + request.getHeaders().getNames() + ", Signature=" + signature;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private static final String X_AMZ_REGION_SET = "X-Amz-Region-Set";
+
+        private AwsCredentials awsCredentials;
+        private List<Header> headersList = new ArrayList<>();
+        private CanonicalPathCache canonicalPathCache;
+
+        public Builder awsCredentials(AwsCredentials awsCredentials) {
+            this.awsCredentials = awsCredentials;
+            return this;
+        }
+
+        /**
+         * Sets the {@code X-Amz-Region-Set} header, e.g. {@code regionSet("*")} or
+         * {@code regionSet("us-east-1", "us-west-2")}.
+         */
+        public Builder regionSet(String... regions) {
+            headersList.add(new Header(X_AMZ_REGION_SET, String.join(",", regions)));
+            return this;
+        }
+
+        public Builder header(String name, String value) {
+            headersList.add(new Header(name, value));
+            return this;
+        }
+
+        public Builder header(Header header) {
+            headersList.add(header);
+            return this;
+        }
+
+        public Builder headers(Header... headers) {
+            headersList.addAll(Arrays.asList(headers));
+            return this;
+        }
+
+        /**
+         * Looks the canonical form of the request path up in {@code canonicalPathCache} rather than encoding it again.
+         */
+        public Builder canonicalPathCache(CanonicalPathCache canonicalPathCache) {
+            this.canonicalPathCache = canonicalPathCache;
+            return this;
+        }
+
+        public SigV4aSigner build(HttpRequest request, String service, String contentSha256) {
+            CanonicalHeaders.Builder builder = CanonicalHeaders.builder();
+            headersList.forEach(h -> builder.add(h.getName(), h.getValue()));
+            CanonicalHeaders canonicalHeaders = builder.build();
+            if (!canonicalHeaders.getFirstValue(X_AMZ_REGION_SET).isPresent()) {
+                throw new SigningException("headers missing '" + X_AMZ_REGION_SET + "' header");
+            }
+            String date = canonicalHeaders.getFirstValue(X_AMZ_DATE)
+                    .orElseThrow(() -> new SigningException("headers missing '" + X_AMZ_DATE + "' header"));
+            AwsCredentials credentials = Optional.ofNullable(awsCredentials)
+                    .orElseGet(() -> new AwsCredentialsProviderChain().getCredentials());
+            CanonicalRequest canonicalRequest = new CanonicalRequest(service, request, canonicalHeaders, contentSha256,
+                    canonicalPathCache);
+            CredentialScope scope = CredentialScope.of(date.substring(0, 8), service, null);
+            return new SigV4aSigner(canonicalRequest, credentials, date, scope);
+        }
+
+        public SigV4aSigner buildS3(HttpRequest request, String contentSha256) {
+            return build(request, "s3", contentSha256);
+        }
+    }
+}
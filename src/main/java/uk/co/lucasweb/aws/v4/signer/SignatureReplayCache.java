@@ -0,0 +1,427 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the signatures of the requests a server has accepted, so that a captured request cannot be replayed while
+ * its {@code x-amz-date} is still within the validity window, 15 minutes either side of the server clock by default.
+ * <p>
+ * Signatures are filed by their {@code x-amz-date} into buckets one window wide, held in a ring that reuses the bucket
+ * of dates that can no longer be valid, so that memory does not grow with time. Each bucket pairs a Bloom filter with
+ * an exact set of signatures, both split into lock-striped segments by signature; a signature is checked and recorded
+ * in constant time, under the lock of its segment only. The exact set removes the false positives of the filter. Past
+ * {@code maximumSignaturesPerWindow} signatures in a bucket, new signatures are only recorded in the filter, which
+ * keeps memory bounded: replays are still always detected, but about {@code falsePositiveRate} of the new signatures
+ * whose filter bits happen to be set are reported as replayed.
+ * </p>
+ * <p>
+ * Only the first 128 bits of each signature are kept, which is as unique as the whole signature in practice. The
+ * exact set takes between 32 and 64 bytes per signature, and the filter 1.8 bytes per expected signature at the
+ * default false positive rate, for each of up to four buckets.
+ * </p>
+ * <pre>{@code
+ * SignatureReplayCache replays = SignatureReplayCache.builder().maximumSignaturesPerWindow(5_000_000).build();
+ * // once the signature of the request has been verified
+ * if (replays.record(amzDate, signature) != SignatureReplayCache.Result.ACCEPTED) {
+ *     // reject the request
+ * }
+ * }</pre>
+ *
+ * @author Richard Lucas
+ */
+public final class SignatureReplayCache {
+
+    private static final int RING_SIZE = 4;
+    private static final int SIGNATURE_HEX_LENGTH = 64;
+
+    private final long windowMillis;
+    private final long maximumSignaturesPerWindow;
+    private final double falsePositiveRate;
+    private final int concurrencyLevel;
+    private final LongSupplier clock;
+    private final AtomicReferenceArray<Bucket> ring = new AtomicReferenceArray<>(RING_SIZE);
+    // buckets are large, so one thread creates each under this lock rather than several racing to CAS theirs in
+    private final ReentrantLock ringLock = new ReentrantLock();
+
+    private SignatureReplayCache(long windowMillis, long maximumSignaturesPerWindow, double falsePositiveRate,
+                                 int concurrencyLevel, LongSupplier clock) {
+        this.windowMillis = windowMillis;
+        this.maximumSignaturesPerWindow = maximumSignaturesPerWindow;
+        this.falsePositiveRate = falsePositiveRate;
+        this.concurrencyLevel = concurrencyLevel;
+        this.clock = clock;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The outcome of recording a signature.
+     */
+    public enum Result {
+        /**
+         * The signature had not been seen within the window and is now recorded.
+         */
+        ACCEPTED,
+        /**
+         * The signature was already recorded: the request is a replay.
+         */
+        REPLAYED,
+        /**
+         * The date of the request is outside of the validity window; the signature was not recorded.
+         */
+        EXPIRED
+    }
+
+    /**
+     * Records the signature computed by a signer, e.g. the one a server built to verify a request.
+     */
+    public Result record(Signer signer) {
+        return record(signer.getDate(), signer.computeSignature());
+    }
+
+    /**
+     * Records the signature of a request.
+     *
+     * @param amzDate the {@code x-amz-date} of the request, e.g. {@code 20130524T000000Z}
+     * @param signature the hex encoded signature of the request
+     * @throws IllegalArgumentException if the date or the signature are malformed
+     */
+    public Result record(String amzDate, String signature) {
+        long date = parseDate(amzDate);
+        long now = clock.getAsLong();
+        if (date < now - windowMillis || date > now + windowMillis) {
+            return Result.EXPIRED;
+        }
+        Bucket bucket = bucket(Math.floorDiv(date, windowMillis), Math.floorDiv(now - windowMillis, windowMillis));
+        if (bucket == null) {
+            return Result.EXPIRED;
+        }
+        long high = parseHex(signature, 0);
+        long low = parseHex(signature, 16);
+        return bucket.record(high, low) ? Result.ACCEPTED : Result.REPLAYED;
+    }
+
+    /**
+     * @return the bucket of the given index, which replaces the bucket of a date that can no longer be valid, or
+     * {@code null} if the clock moved on and the bucket is older than {@code oldestValid}
+     */
+    private Bucket bucket(long index, long oldestValid) {
+        int slot = (int) Math.floorMod(index, (long) RING_SIZE);
+        Bucket bucket = ring.get(slot);
+        if (bucket != null && bucket.index == index) {
+            return bucket;
+        }
+        ringLock.lock();
+        try {
+            bucket = ring.get(slot);
+            if (bucket != null && bucket.index >= index) {
+                return bucket.index == index ? bucket : null;
+            }
+            if (index < oldestValid) {
+                return null;
+            }
+            // the window spans at most three buckets, so the bucket replaced is older than any valid date
+            Bucket created = new Bucket(index, maximumSignaturesPerWindow, falsePositiveRate, concurrencyLevel);
+            ring.set(slot, created);
+            return created;
+        } finally {
+            ringLock.unlock();
+        }
+    }
+
+    private static long parseDate(String amzDate) {
+        if (amzDate == null || amzDate.length() != 16 || amzDate.charAt(8) != 'T' || amzDate.charAt(15) != 'Z') {
+            throw new IllegalArgumentException("malformed x-amz-date " + amzDate);
+        }
+        try {
+            return LocalDateTime.of(digits(amzDate, 0, 4), digits(amzDate, 4, 2), digits(amzDate, 6, 2),
+                    digits(amzDate, 9, 2), digits(amzDate, 11, 2), digits(amzDate, 13, 2))
+                    .toInstant(ZoneOffset.UTC)
+                    .toEpochMilli();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("malformed x-amz-date " + amzDate, e);
+        }
+    }
+
+    private static int digits(String value, int offset, int length) {
+        int result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("not a digit");
+            }
+            result = 10 * result + digit;
+        }
+        return result;
+    }
+
+    private static long parseHex(String signature, int offset) {
+        if (signature == null || signature.length() != SIGNATURE_HEX_LENGTH) {
+            throw new IllegalArgumentException("a signature has " + SIGNATURE_HEX_LENGTH + " hex digits");
+        }
+        long result = 0;
+        for (int i = offset; i < offset + 16; i++) {
+            int digit = Character.digit(signature.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("malformed signature " + signature);
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    /**
+     * The signatures of the requests dated within one window wide interval.
+     */
+    private static final class Bucket {
+
+        private final long index;
+        private final AtomicLongArray filter;
+        private final long filterBits;
+        private final int hashCount;
+        private final Segment[] segments;
+        private final int segmentMask;
+
+        private Bucket(long index, long maximumSignatures, double falsePositiveRate, int concurrencyLevel) {
+            this.index = index;
+            // the optimal Bloom filter for n entries and a false positive rate p has -n ln p / (ln 2)^2 bits and
+            // uses (bits / n) ln 2 hash functions
+            double bitsPerEntry = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+            long words = Math.max(1, (long) Math.ceil(maximumSignatures * bitsPerEntry / Long.SIZE));
+            this.filter = new AtomicLongArray((int) Math.min(words, Integer.MAX_VALUE - 8));
+            this.filterBits = (long) filter.length() * Long.SIZE;
+            this.hashCount = Math.max(1, (int) Math.round(bitsPerEntry * Math.log(2)));
+            int segmentCount = 1;
+            while (segmentCount < concurrencyLevel) {
+                segmentCount <<= 1;
+            }
+            int segmentCapacity = (int) Math.min(Integer.MAX_VALUE / 4, (maximumSignatures + segmentCount - 1) / segmentCount);
+            this.segments = new Segment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = new Segment(segmentCapacity);
+            }
+            this.segmentMask = segmentCount - 1;
+        }
+
+        /**
+         * @return {@code true} if the signature was new
+         */
+        private boolean record(long high, long low) {
+            Segment segment = segments[(int) (low >>> 32) & segmentMask];
+            segment.lock();
+            try {
+                if (mightContain(high, low) && (segment.overflowed || segment.contains(high, low))) {
+                    return false;
+                }
+                if (!segment.add(high, low)) {
+                    segment.overflowed = true;
+                }
+                put(high, low);
+                return true;
+            } finally {
+                segment.unlock();
+            }
+        }
+
+        private boolean mightContain(long high, long low) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = bit(high, low, i);
+                if ((filter.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void put(long high, long low) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = bit(high, low, i);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current = filter.get(word);
+                while ((current & mask) == 0 && !filter.compareAndSet(word, current, current | mask)) {
+                    current = filter.get(word);
+                }
+            }
+        }
+
+        /**
+         * Double hashing over the signature bits, which are uniformly distributed already.
+         */
+        private long bit(long high, long low, int i) {
+            return Math.floorMod(high + i * (low | 1), filterBits);
+        }
+    }
+
+    /**
+     * An open addressing set of 128 bit signatures, growing up to a maximum size.
+     */
+    private static final class Segment extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final int maximumSize;
+        private long[] table = new long[2 * INITIAL_CAPACITY];
+        private int size;
+        private boolean containsZero;
+        private boolean overflowed;
+
+        private Segment(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        private boolean contains(long high, long low) {
+            if (high == 0 && low == 0) {
+                return containsZero;
+            }
+            int mask = table.length / 2 - 1;
+            for (int slot = (int) high & mask; ; slot = (slot + 1) & mask) {
+                long h = table[2 * slot];
+                long l = table[2 * slot + 1];
+                if (h == high && l == low) {
+                    return true;
+                }
+                if (h == 0 && l == 0) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * @return {@code false} if the set is full
+         */
+        private boolean add(long high, long low) {
+            if (high == 0 && low == 0) {
+                containsZero = true;
+                return true;
+            }
+            if (size >= maximumSize) {
+                return false;
+            }
+            // kept at most half full, so that probe sequences stay short
+            if (2 * (size + 1) > table.length / 2) {
+                resize();
+            }
+            insert(table, high, low);
+            size++;
+            return true;
+        }
+
+        private void resize() {
+            long[] grown = new long[2 * table.length];
+            for (int slot = 0; slot < table.length / 2; slot++) {
+                long h = table[2 * slot];
+                long l = table[2 * slot + 1];
+                if (h != 0 || l != 0) {
+                    insert(grown, h, l);
+                }
+            }
+            table = grown;
+        }
+
+        private static void insert(long[] table, long high, long low) {
+            int mask = table.length / 2 - 1;
+            int slot = (int) high & mask;
+            while (table[2 * slot] != 0 || table[2 * slot + 1] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[2 * slot] = high;
+            table[2 * slot + 1] = low;
+        }
+    }
+
+    public static class Builder {
+
+        private static final Duration DEFAULT_WINDOW = Duration.ofMinutes(15);
+        private static final long DEFAULT_MAXIMUM_SIGNATURES_PER_WINDOW = 1_000_000;
+        private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+        private static final int DEFAULT_CONCURRENCY_LEVEL = 64;
+
+        private Duration window = DEFAULT_WINDOW;
+        private long maximumSignaturesPerWindow = DEFAULT_MAXIMUM_SIGNATURES_PER_WINDOW;
+        private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+        private int concurrencyLevel = DEFAULT_CONCURRENCY_LEVEL;
+        private LongSupplier clock = System::currentTimeMillis;
+
+        /**
+         * How far the {@code x-amz-date} of a request may be from the server clock, either way; 15 minutes by default,
+         * as for AWS services.
+         */
+        public Builder window(Duration window) {
+            if (window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("window must be positive");
+            }
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * The number of signatures dated within one window that are recorded exactly; 1,000,000 by default. It sizes
+         * the Bloom filter too.
+         */
+        public Builder maximumSignaturesPerWindow(long maximumSignaturesPerWindow) {
+            if (maximumSignaturesPerWindow < 1) {
+                throw new IllegalArgumentException("maximumSignaturesPerWindow must be positive");
+            }
+            this.maximumSignaturesPerWindow = maximumSignaturesPerWindow;
+            return this;
+        }
+
+        /**
+         * The false positive rate of the Bloom filter once it holds {@code maximumSignaturesPerWindow} signatures;
+         * 0.1% by default.
+         */
+        public Builder falsePositiveRate(double falsePositiveRate) {
+            if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+                throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+            }
+            this.falsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        /**
+         * The number of lock-striped segments of each bucket, rounded up to a power of two; 64 by default.
+         */
+        public Builder concurrencyLevel(int concurrencyLevel) {
+            if (concurrencyLevel < 1) {
+                throw new IllegalArgumentException("concurrencyLevel must be positive");
+            }
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * The source of {@link System#currentTimeMillis()} like readings the dates of requests are compared with.
+         */
+        Builder clock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public SignatureReplayCache build() {
+            return new SignatureReplayCache(window.toMillis(), maximumSignaturesPerWindow, falsePositiveRate,
+                    concurrencyLevel, clock);
+        }
+    }
+}
@@ -14,17 +14,10 @@ package uk.co.lucasweb.aws.v4.signer;
 
 import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
 import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProviderChain;
-import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
-import uk.co.lucasweb.aws.v4.signer.hash.Base16;
-import uk.co.lucasweb.aws.v4.signer.hash.Sha256;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
+import uk.co.lucasweb.aws.v4.signer.event.SigningEventSink;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
 
 /**
  * @author Richard Lucas
@@ -33,20 +26,29 @@ public class Signer {
 
     private static final String AUTH_TAG = "AWS4";
     private static final String ALGORITHM = AUTH_TAG + "-HMAC-SHA256";
-    private static final Charset UTF_8 = Throwables.returnableInstance(() -> Charset.forName("UTF-8"), SigningException::new);
     private static final String X_AMZ_DATE = "X-Amz-Date";
-    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final StringToSign STRING_TO_SIGN = new StringToSign(ALGORITHM);
 
     private final CanonicalRequest request;
     private final AwsCredentials awsCredentials;
     private final String date;
     private final CredentialScope scope;
-
-    private Signer(CanonicalRequest request, AwsCredentials awsCredentials, String date, CredentialScope scope) {
+    private final SigningKey signingKey;
+    // the key was not in the cache of the builder and had to be derived for this signer
+    private final boolean signingKeyDerived;
+    // where the keys of other scopes come from, null to derive them
+    private final SigningKeys signingKeys;
+    private volatile String signature;
+
+    private Signer(CanonicalRequest request, AwsCredentials awsCredentials, String date, CredentialScope scope,
+                   SigningKey signingKey, boolean signingKeyDerived, SigningKeys signingKeys) {
         this.request = request;
         this.awsCredentials = awsCredentials;
         this.date = date;
         this.scope = scope;
+        this.signingKey = signingKey;
+        this.signingKeyDerived = signingKeyDerived;
+        this.signingKeys = signingKeys;
     }
 
     String getCanonicalRequest() {
@@ -54,13 +56,103 @@ public class Signer {
     }
 
     String getStringToSign() {
-        String hashedCanonicalRequest = Sha256.get(getCanonicalRequest(), UTF_8);
-        return buildStringToSign(date, scope.get(), hashedCanonicalRequest);
+        return STRING_TO_SIGN.render(date, scope, getHashedCanonicalRequest());
     }
 
     public String getSignature() {
-        String signature = buildSignature(awsCredentials.getSecretKey(), scope, getStringToSign());
-        return buildAuthHeader(awsCredentials.getAccessKey(), scope.get(), request.getHeaders().getNames(), signature);
+        return buildAuthHeader(awsCredentials.getAccessKey(), scope, request.getHeaders().getNames(), computeSignature());
+    }
+
+    /**
+     * @return the hex encoded signature alone, which seeds the chunk signatures of streaming payloads
+     */
+    String computeSignature() {
+        String computed = signature;
+        if (computed == null) {
+            SigningEventSink events = SigningEventSink.getInstance();
+            Object event = events.beginSignature();
+            boolean keyReused = !signingKeyDerived && signingKey != null && !signingKey.isDestroyed();
+            computed = useSigningKey(key -> key.sign(STRING_TO_SIGN, date, getHashedCanonicalRequest()));
+            if (event != null && events.end(event)) {
+                events.commitSignature(event, scope.getService(), scope.getRegion(), request.get().length(),
+                        request.getHeaders().size(), keyReused);
+            }
+            signature = computed;
+        }
+        return computed;
+    }
+
+    CredentialScope getScope() {
+        return scope;
+    }
+
+    AwsCredentials getAwsCredentials() {
+        return awsCredentials;
+    }
+
+    String getDate() {
+        return date;
+    }
+
+    SigningKey getSigningKey() {
+        if (signingKey != null && !signingKey.isDestroyed()) {
+            return signingKey;
+        }
+        return SigningKey.derive(awsCredentials, scope);
+    }
+
+    /**
+     * Applies {@code operation} to the signing key. A cached key may be evicted, and zeroed, by another thread while
+     * the operation is using it; the operation is then applied once more to a key derived for this signer alone.
+     */
+    <T> T useSigningKey(Function<SigningKey, T> operation) {
+        return useSigningKey(scope, getSigningKey(), operation);
+    }
+
+    /**
+     * Same as {@link #useSigningKey(Function)} for the key of another scope of the same credentials, such as the next
+     * day of a long running stream, taken from the key source this signer was built with, if any, so that keys the
+     * source already derived, or pre-derived before midnight, are reused.
+     */
+    <T> T useSigningKey(CredentialScope scope, Function<SigningKey, T> operation) {
+        if (scope.equals(this.scope)) {
+            return useSigningKey(operation);
+        }
+        SigningKey key = signingKeys != null ? lookUp(signingKeys, scope) : SigningKey.derive(awsCredentials, scope);
+        return useSigningKey(scope, key, operation);
+    }
+
+    private <T> T useSigningKey(CredentialScope scope, SigningKey key, Function<SigningKey, T> operation) {
+        try {
+            return operation.apply(key);
+        } catch (SigningException e) {
+            if (!key.isDestroyed()) {
+                throw e;
+            }
+            return operation.apply(SigningKey.derive(awsCredentials, scope));
+        }
+    }
+
+    /**
+     * Signs the same request again with another {@code x-amz-date}, typically when it is retried after a throttling
+     * error. The canonical request is not rebuilt: only the date and the headers sorted after it are hashed again, and
+     * the signing key is reused as long as the date falls on the same day. The caller remains responsible for sending
+     * the new date in the {@code x-amz-date} header.
+     *
+     * @param date the new value of the {@code x-amz-date} header, e.g. {@code 20130524T000000Z}
+     * @return a signer for the new date, this signer is left untouched
+     */
+    public Signer withDate(String date) {
+        if (date == null) {
+            throw new IllegalArgumentException("date is null");
+        }
+        CredentialScope newScope = CredentialScope.of(formatDateWithoutTimestamp(date), scope.getService(), scope.getRegion());
+        SigningKey key = newScope.equals(scope) ? getSigningKey() : null;
+        return new Signer(request.withDate(date), awsCredentials, date, newScope, key, false, signingKeys);
+    }
+
+    private String getHashedCanonicalRequest() {
+        return request.getHash();
     }
 
     public static Builder builder() {
@@ -71,33 +163,35 @@ public class Signer {
         return date.substring(0, 8);
     }
 
-    private static String buildStringToSign(String date, String credentialScope, String hashedCanonicalRequest) {
-        return ALGORITHM + "\n" + date + "\n" + credentialScope + "\n" + hashedCanonicalRequest;
+    private static SigningKey lookUp(SigningKeys signingKeys, CredentialScope scope) {
+        SigningKey key = signingKeys.getIfPresent(scope);
+        return key != null ? key : signingKeys.get(scope);
     }
 
-    private static String buildAuthHeader(String accessKey, String credentialScope, String signedHeaders, String signature) {
-        return ALGORITHM + " " + "Credential=" + accessKey + "/" + credentialScope + ", " + "SignedHeaders=" + signedHeaders + ", " + "Signature=" + signature;
+    private static String buildAuthHeader(String accessKey, CredentialScope scope, String signedHeaders, String signature) {
+        String credentialScope = scope.get();
+        return new StringBuilder(ALGORITHM.length() + accessKey.length() + credentialScope.length()
+                + signedHeaders.length() + signature.length() + 40)
+                .append(ALGORITHM).append(" Credential=").append(accessKey).append('/').append(credentialScope)
+                .append(", SignedHeaders=").append(signedHeaders)
+                .append(", Signature=").append(signature)
+                .toString();
     }
 
-    private static byte[] hmacSha256(byte[] key, String value) {
-        try {
-            String algorithm = HMAC_SHA256;
-            Mac mac = Mac.getInstance(algorithm);
-            SecretKeySpec signingKey = new SecretKeySpec(key, algorithm);
-            mac.init(signingKey);
-            return mac.doFinal(value.getBytes(UTF_8));
-        } catch (Exception e) {
-            throw new SigningException("Error signing request", e);
-        }
-    }
+    /**
+     * The signing keys of a set of credentials, one per scope, typically held in a cache.
+     */
+    interface SigningKeys {
 
-    private static String buildSignature(String secretKey, CredentialScope scope, String stringToSign) {
-        byte[] kSecret = (AUTH_TAG + secretKey).getBytes(UTF_8);
-        byte[] kDate = hmacSha256(kSecret, scope.getDateWithoutTimestamp());
-        byte[] kRegion = hmacSha256(kDate, scope.getRegion());
-        byte[] kService = hmacSha256(kRegion, scope.getService());
-        byte[] kSigning = hmacSha256(kService, CredentialScope.TERMINATION_STRING);
-        return Base16.encode(hmacSha256(kSigning, stringToSign)).toLowerCase();
+        /**
+         * @return the key of the scope if it was already derived, {@code null} otherwise
+         */
+        SigningKey getIfPresent(CredentialScope scope);
+
+        /**
+         * @return the key of the scope, derived unless another thread derived it meanwhile
+         */
+        SigningKey get(CredentialScope scope);
     }
 
     public static class Builder {
@@ -108,7 +202,10 @@ public class Signer {
 
         private AwsCredentials awsCredentials;
         private String region = DEFAULT_REGION;
-        private List<Header> headersList = new ArrayList<>();
+        private final CanonicalHeaders.Builder canonicalHeaders = CanonicalHeaders.builder();
+        private SigningKey signingKey;
+        private SigningKeys signingKeys;
+        private CanonicalPathCache canonicalPathCache;
 
         public Builder awsCredentials(AwsCredentials awsCredentials) {
             this.awsCredentials = awsCredentials;
@@ -121,30 +218,94 @@ public class Signer {
         }
 
         public Builder header(String name, String value) {
-            headersList.add(new Header(name, value));
+            canonicalHeaders.add(name, value);
+            return this;
+        }
+
+        /**
+         * Same as {@link #header(String, String)} for header models that do not hold Strings, such as Netty's
+         * {@code AsciiString}, so that no intermediate {@link Header} is created.
+         */
+        public Builder header(CharSequence name, CharSequence value) {
+            if (name == null || value == null) {
+                throw new IllegalArgumentException(name == null ? "name is null" : "value is null");
+            }
+            canonicalHeaders.add(name.toString(), value.toString());
             return this;
         }
 
         public Builder header(Header header) {
-            headersList.add(header);
+            canonicalHeaders.add(header.getName(), header.getValue());
             return this;
         }
 
         public Builder headers(Header... headers) {
-            Arrays.stream(headers)
-                    .forEach(headersList::add);
+            for (Header header : headers) {
+                header(header);
+            }
+            return this;
+        }
+
+        /**
+         * Adds the headers of a block of {@code Name: value} lines as received on the wire, decoding every name and
+         * value once, straight from the bytes. The block ends at the first empty line or at the limit of the buffer,
+         * whose position is left untouched.
+         *
+         * @throws IllegalArgumentException if a line is not a valid header
+         */
+        public Builder headers(ByteBuffer headerBlock) {
+            HeaderBlock.parse(headerBlock, canonicalHeaders);
+            return this;
+        }
+
+        /**
+         * Looks the canonical form of the request path up in {@code canonicalPathCache} rather than encoding it again.
+         */
+        public Builder canonicalPathCache(CanonicalPathCache canonicalPathCache) {
+            this.canonicalPathCache = canonicalPathCache;
+            return this;
+        }
+
+        /**
+         * Reuses an already derived signing key; it is ignored if it does not match the scope of the request.
+         */
+        Builder signingKey(SigningKey signingKey) {
+            this.signingKey = signingKey;
+            return this;
+        }
+
+        /**
+         * Looks up the signing key of the request scope, typically in a cache; takes precedence over
+         * {@link #signingKey(SigningKey)}.
+         */
+        Builder signingKeys(SigningKeys signingKeys) {
+            this.signingKeys = signingKeys;
             return this;
         }
 
         public Signer build(HttpRequest request, String service, String contentSha256) {
-            CanonicalHeaders canonicalHeaders = getCanonicalHeaders();
-            String date = canonicalHeaders.getFirstValue(X_AMZ_DATE)
-                    .orElseThrow(() -> new SigningException("headers missing '" + X_AMZ_DATE + "' header"));
+            CanonicalHeaders canonicalHeaders = this.canonicalHeaders.build();
+            String date = canonicalHeaders.getFirstValue(X_AMZ_DATE).orElse(null);
+            if (date == null) {
+                throw new SigningException("headers missing '" + X_AMZ_DATE + "' header");
+            }
             String dateWithoutTimestamp = formatDateWithoutTimestamp(date);
             AwsCredentials awsCredentials = getAwsCredentials();
-            CanonicalRequest canonicalRequest = new CanonicalRequest(service, request, canonicalHeaders, contentSha256);
-            CredentialScope scope = new CredentialScope(dateWithoutTimestamp, service, region);
-            return new Signer(canonicalRequest, awsCredentials, date, scope);
+            CanonicalRequest canonicalRequest = new CanonicalRequest(service, request, canonicalHeaders, contentSha256,
+                    canonicalPathCache);
+            CredentialScope scope = CredentialScope.of(dateWithoutTimestamp, service, region);
+            SigningKey key;
+            boolean derived = false;
+            if (signingKeys != null) {
+                key = signingKeys.getIfPresent(scope);
+                if (key == null) {
+                    key = signingKeys.get(scope);
+                    derived = true;
+                }
+            } else {
+                key = signingKey != null && signingKey.getScope().equals(scope) ? signingKey : null;
+            }
+            return new Signer(canonicalRequest, awsCredentials, date, scope, key, derived, signingKeys);
         }
 
         public Signer buildS3(HttpRequest request, String contentSha256) {
@@ -156,14 +317,7 @@ public class Signer {
         }
 
         private AwsCredentials getAwsCredentials() {
-            return Optional.ofNullable(awsCredentials)
-                    .orElseGet(() -> new AwsCredentialsProviderChain().getCredentials());
-        }
-
-        private CanonicalHeaders getCanonicalHeaders() {
-            CanonicalHeaders.Builder builder = CanonicalHeaders.builder();
-            headersList.forEach(h -> builder.add(h.getName(), h.getValue()));
-            return builder.build();
+            return awsCredentials != null ? awsCredentials : new AwsCredentialsProviderChain().getCredentials();
         }
 
     }
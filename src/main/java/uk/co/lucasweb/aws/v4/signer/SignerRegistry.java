@@ -0,0 +1,450 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.cache.BoundedCache;
+import uk.co.lucasweb.aws.v4.signer.cache.CacheStats;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps a signing context per tenant, keyed by access key, for services signing on behalf of many accounts.
+ * <p>
+ * Each context holds the credentials of the tenant and the signing keys already derived for it, one per credential
+ * scope (date, region and service), so that only the first request of a tenant for a given scope pays for the key
+ * derivation. Both the tenants and the keys of each tenant are held in {@link BoundedCache}s, bounded in size and
+ * optionally expiring tenants that have not signed anything for a while. Signing keys are zeroed as soon as they are
+ * evicted, or their tenant is; a signer built before the eviction derives its key again.
+ * </p>
+ * <p>
+ * Every credential scope changes at 00:00 UTC, when all tenants would otherwise derive their keys for the new day at
+ * the same instant. With {@link Builder#keyRollover(Duration, Duration)}, the keys of the next day are derived in the
+ * background shortly before midnight for the scopes used during the day, and the keys of the previous day are kept
+ * for a grace period after midnight, for requests dated by slightly late clocks, before they are zeroed. A key only
+ * becomes visible to signers once it is fully derived, and keys of both days coexist, so signers switch over as soon
+ * as their requests are dated from the new day. A registry rolling keys over should be {@link #close() closed}.
+ * </p>
+ * <pre>{@code
+ * SignerRegistry registry = SignerRegistry.builder()
+ *         .maximumTenants(10_000)
+ *         .expireAfterAccess(Duration.ofHours(1))
+ *         .credentialsLoader(accessKey -> credentialsStore.lookup(accessKey))
+ *         .build();
+ * String authorization = registry.signer(accessKey)
+ *         .region("eu-west-1")
+ *         .header("Host", host)
+ *         .header("x-amz-date", date)
+ *         .buildS3(request, contentSha256)
+ *         .getSignature();
+ * }</pre>
+ *
+ * @author Richard Lucas
+ */
+public final class SignerRegistry implements AutoCloseable {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final BoundedCache<String, Tenant> tenants;
+    private final Function<String, AwsCredentials> credentialsLoader;
+    private final int maximumKeysPerTenant;
+    private final Duration rolloverLead;
+    private final Duration rolloverGrace;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final Clock clock;
+    private final LongAdder keyHits = new LongAdder();
+    private final LongAdder keyMisses = new LongAdder();
+    // guards closed and rollover, which the rollover task updates from the scheduler thread
+    private final ReentrantLock rolloverLock = new ReentrantLock();
+    private ScheduledFuture<?> rollover;
+    private boolean closed;
+
+    private SignerRegistry(BoundedCache<String, Tenant> tenants, Function<String, AwsCredentials> credentialsLoader,
+                           int maximumKeysPerTenant, Duration rolloverLead, Duration rolloverGrace,
+                           ScheduledExecutorService scheduler, boolean ownsScheduler, Clock clock) {
+        this.tenants = tenants;
+        this.credentialsLoader = credentialsLoader;
+        // the keys of two days coexist around midnight, so that pre-derived keys do not evict those still in use
+        this.maximumKeysPerTenant = rolloverLead == null ? maximumKeysPerTenant : 2 * maximumKeysPerTenant;
+        this.rolloverLead = rolloverLead;
+        this.rolloverGrace = rolloverGrace;
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        this.clock = clock;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Registers the credentials of a tenant, replacing (and forgetting the keys derived from) previous credentials
+     * with the same access key.
+     */
+    public void register(AwsCredentials awsCredentials) {
+        tenants.put(awsCredentials.getAccessKey(), new Tenant(awsCredentials));
+    }
+
+    public void invalidate(String accessKey) {
+        tenants.invalidate(accessKey);
+    }
+
+    /**
+     * @return a {@link Signer.Builder} for the tenant, reusing the signing keys already derived for it
+     * @throws SigningException if the tenant is not registered and the credentials loader, if any, knows nothing
+     * about it
+     */
+    public Signer.Builder signer(String accessKey) {
+        Tenant tenant = tenants.get(accessKey, this::load);
+        if (tenant == null) {
+            throw new SigningException("no credentials registered for access key " + accessKey);
+        }
+        return signer(tenant);
+    }
+
+    /**
+     * Signs with the given credentials, for callers that resolve credentials themselves. The first call with a given
+     * {@link AwsCredentials} instance registers it, replacing (and forgetting the keys derived from) other credentials
+     * with the same access key; later calls with the same instance reuse its signing keys.
+     *
+     * @return a {@link Signer.Builder} for the credentials, reusing the signing keys already derived from them
+     */
+    public Signer.Builder signer(AwsCredentials awsCredentials) {
+        String accessKey = awsCredentials.getAccessKey();
+        Tenant tenant = tenants.get(accessKey, k -> new Tenant(awsCredentials));
+        if (tenant.awsCredentials != awsCredentials) {
+            tenant = new Tenant(awsCredentials);
+            tenants.put(accessKey, tenant);
+        }
+        return signer(tenant);
+    }
+
+    /**
+     * Derives, for every tenant, the keys of the given day for the scopes (region and service) it used the day before
+     * and has no key of the given day for yet. Key rollover calls it shortly before midnight; it can also be called
+     * directly by applications scheduling their own work.
+     *
+     * @param date the UTC day to derive keys for
+     * @return the number of keys derived
+     */
+    public int prewarmKeys(LocalDate date) {
+        String previous = DATE_FORMATTER.format(date.minusDays(1));
+        String next = DATE_FORMATTER.format(date);
+        int derived = 0;
+        for (Tenant tenant : tenants.snapshot().values()) {
+            derived += tenant.prewarm(previous, next);
+        }
+        return derived;
+    }
+
+    /**
+     * Zeroes and forgets, for every tenant, the keys of the days before the given day. Key rollover calls it once the
+     * grace period after midnight is over.
+     *
+     * @param date the first UTC day whose keys are kept
+     * @return the number of keys forgotten
+     */
+    public int evictKeysBefore(LocalDate date) {
+        String first = DATE_FORMATTER.format(date);
+        int evicted = 0;
+        for (Tenant tenant : tenants.snapshot().values()) {
+            evicted += tenant.evictBefore(first);
+        }
+        return evicted;
+    }
+
+    /**
+     * Stops the key rollover, if any. Signing keys remain usable.
+     */
+    @Override
+    public void close() {
+        rolloverLock.lock();
+        try {
+            closed = true;
+            if (rollover != null) {
+                rollover.cancel(false);
+            }
+        } finally {
+            rolloverLock.unlock();
+        }
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public long getTenantCount() {
+        return tenants.size();
+    }
+
+    public CacheStats getTenantStats() {
+        return tenants.stats();
+    }
+
+    /**
+     * @return the signing key statistics, summed over all tenants; evictions are not counted
+     */
+    public CacheStats getSigningKeyStats() {
+        return new CacheStats(keyHits.sum(), keyMisses.sum(), 0);
+    }
+
+    /**
+     * Schedules the derivation of the keys of the day after {@code previous}, then the eviction of the keys of the
+     * days before it once the grace period is over, then the rollover of the following day.
+     */
+    private void scheduleRollover(LocalDate previous) {
+        LocalDate today = LocalDate.now(clock.withZone(ZoneOffset.UTC));
+        LocalDate next = today.isAfter(previous) ? today.plusDays(1) : previous.plusDays(1);
+        Instant midnight = next.atStartOfDay(ZoneOffset.UTC).toInstant();
+        schedule(() -> {
+            try {
+                prewarmKeys(next);
+            } finally {
+                schedule(() -> {
+                    try {
+                        evictKeysBefore(next);
+                    } finally {
+                        scheduleRollover(next);
+                    }
+                }, midnight.plus(rolloverGrace));
+            }
+        }, midnight.minus(rolloverLead));
+    }
+
+    private void schedule(Runnable task, Instant at) {
+        rolloverLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            long delay = Math.max(0, Duration.between(clock.instant(), at).toMillis());
+            rollover = scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } finally {
+            rolloverLock.unlock();
+        }
+    }
+
+    private static Signer.Builder signer(Tenant tenant) {
+        return Signer.builder()
+                .awsCredentials(tenant.awsCredentials)
+                .signingKeys(tenant);
+    }
+
+    private Tenant load(String accessKey) {
+        if (credentialsLoader == null) {
+            return null;
+        }
+        AwsCredentials awsCredentials = credentialsLoader.apply(accessKey);
+        return awsCredentials == null ? null : new Tenant(awsCredentials);
+    }
+
+    private final class Tenant implements Signer.SigningKeys {
+
+        private final AwsCredentials awsCredentials;
+        private final BoundedCache<CredentialScope, SigningKey> signingKeys;
+
+        private Tenant(AwsCredentials awsCredentials) {
+            this.awsCredentials = awsCredentials;
+            this.signingKeys = BoundedCache.<CredentialScope, SigningKey>builder()
+                    .maximumSize(maximumKeysPerTenant)
+                    .concurrencyLevel(1)
+                    .removalListener((scope, key) -> key.destroy())
+                    .build();
+        }
+
+        @Override
+        public SigningKey getIfPresent(CredentialScope scope) {
+            SigningKey key = signingKeys.getIfPresent(scope);
+            if (key != null) {
+                keyHits.increment();
+            }
+            return key;
+        }
+
+        @Override
+        public SigningKey get(CredentialScope scope) {
+            keyMisses.increment();
+            return signingKeys.get(scope, s -> SigningKey.derive(awsCredentials, s));
+        }
+
+        private int prewarm(String previous, String next) {
+            int derived = 0;
+            for (CredentialScope scope : signingKeys.snapshot().keySet()) {
+                if (!scope.getDateWithoutTimestamp().equals(previous)) {
+                    continue;
+                }
+                // derived outside of the cache lock; a key derived meanwhile by a request wins
+                CredentialScope nextScope = CredentialScope.of(next, scope.getService(), scope.getRegion());
+                SigningKey key;
+                try {
+                    key = SigningKey.derive(awsCredentials, nextScope);
+                } catch (SigningException e) {
+                    // e.g. destroyed credentials, the next request of the tenant reports it
+                    return derived;
+                }
+                if (signingKeys.get(nextScope, s -> key) == key) {
+                    derived++;
+                } else {
+                    key.destroy();
+                }
+            }
+            return derived;
+        }
+
+        private int evictBefore(String first) {
+            List<CredentialScope> expired = new ArrayList<>();
+            for (CredentialScope scope : signingKeys.snapshot().keySet()) {
+                // basic ISO dates compare chronologically
+                if (scope.getDateWithoutTimestamp().compareTo(first) < 0) {
+                    expired.add(scope);
+                }
+            }
+            for (CredentialScope scope : expired) {
+                signingKeys.invalidate(scope);
+            }
+            return expired.size();
+        }
+    }
+
+    public static class Builder {
+
+        private static final long DEFAULT_MAXIMUM_TENANTS = 10_000;
+        private static final int DEFAULT_MAXIMUM_KEYS_PER_TENANT = 16;
+
+        private final BoundedCache.Builder<String, Tenant> tenants = BoundedCache.<String, Tenant>builder()
+                .maximumSize(DEFAULT_MAXIMUM_TENANTS)
+                .removalListener((accessKey, tenant) -> tenant.signingKeys.invalidateAll());
+        private Function<String, AwsCredentials> credentialsLoader;
+        private int maximumKeysPerTenant = DEFAULT_MAXIMUM_KEYS_PER_TENANT;
+        private Duration rolloverLead;
+        private Duration rolloverGrace;
+        private ScheduledExecutorService scheduler;
+        private Clock clock = Clock.systemUTC();
+
+        public Builder maximumTenants(long maximumTenants) {
+            tenants.maximumSize(maximumTenants);
+            return this;
+        }
+
+        /**
+         * Forgets tenants that have not signed anything for the given duration.
+         */
+        public Builder expireAfterAccess(Duration duration) {
+            tenants.expireAfterAccess(duration);
+            return this;
+        }
+
+        /**
+         * The number of lock-striped segments of the tenant table, see {@link BoundedCache.Builder#concurrencyLevel(int)}.
+         */
+        public Builder concurrencyLevel(int concurrencyLevel) {
+            tenants.concurrencyLevel(concurrencyLevel);
+            return this;
+        }
+
+        /**
+         * The number of scopes (date, region and service) a tenant keeps signing keys for.
+         */
+        public Builder maximumKeysPerTenant(int maximumKeysPerTenant) {
+            if (maximumKeysPerTenant < 1) {
+                throw new IllegalArgumentException("maximumKeysPerTenant must be positive");
+            }
+            this.maximumKeysPerTenant = maximumKeysPerTenant;
+            return this;
+        }
+
+        /**
+         * Looks up the credentials of tenants that are not registered, returning {@code null} for unknown tenants.
+         * It runs while part of the tenant table is locked, so it should be quick.
+         */
+        public Builder credentialsLoader(Function<String, AwsCredentials> credentialsLoader) {
+            this.credentialsLoader = credentialsLoader;
+            return this;
+        }
+
+        /**
+         * Derives the keys of the next day in the background, {@code lead} before 00:00 UTC, for the scopes used
+         * during the day, and zeroes the keys of the previous day {@code grace} after midnight. Each tenant then
+         * keeps up to twice {@link #maximumKeysPerTenant(int)} keys, those of two days.
+         *
+         * @param lead how long before midnight keys are derived, less than a day
+         * @param grace how long after midnight the keys of the previous day are kept, less than a day
+         */
+        public Builder keyRollover(Duration lead, Duration grace) {
+            if (lead.isNegative() || lead.isZero() || lead.compareTo(Duration.ofDays(1)) >= 0) {
+                throw new IllegalArgumentException("lead must be positive and less than a day");
+            }
+            if (grace.isNegative() || grace.compareTo(Duration.ofDays(1)) >= 0) {
+                throw new IllegalArgumentException("grace must not be negative and less than a day");
+            }
+            this.rolloverLead = lead;
+            this.rolloverGrace = grace;
+            return this;
+        }
+
+        /**
+         * The scheduler key rollover runs on; by default the registry starts a daemon thread of its own, which
+         * {@link SignerRegistry#close()} stops. A scheduler given here is left running.
+         */
+        public Builder scheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        Builder ticker(LongSupplier ticker) {
+            tenants.ticker(ticker);
+            return this;
+        }
+
+        Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public SignerRegistry build() {
+            if (rolloverLead == null) {
+                return new SignerRegistry(tenants.build(), credentialsLoader, maximumKeysPerTenant, null, null, null,
+                        false, clock);
+            }
+            boolean ownsScheduler = scheduler == null;
+            ScheduledExecutorService rolloverScheduler = ownsScheduler
+                    ? Executors.newSingleThreadScheduledExecutor(Builder::newRolloverThread)
+                    : scheduler;
+            SignerRegistry registry = new SignerRegistry(tenants.build(), credentialsLoader, maximumKeysPerTenant,
+                    rolloverLead, rolloverGrace, rolloverScheduler, ownsScheduler, clock);
+            registry.scheduleRollover(LocalDate.MIN);
+            return registry;
+        }
+
+        private static Thread newRolloverThread(Runnable task) {
+            Thread thread = new Thread(task, "signer-registry-key-rollover");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentialsProviderChain;
+import uk.co.lucasweb.aws.v4.signer.encoding.URLEncoding;
+import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.HmacSha256;
+
+import java.io.IOException;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Reusable scratch state to sign requests with as little allocation as possible, for callers that sign at very high
+ * rates.
+ * <p>
+ * A context signs requests for one set of credentials, region and service. It renders the canonical request into a
+ * {@link StringBuilder} it keeps, with the same URL encoding, header value normalisation and query sorting as
+ * {@link CanonicalRequest}, hashes it without building a String, and signs the string to sign with an
+ * {@link HmacSha256} keyed by the {@link SigningKey} of the day, whose pad states are saved once per key.
+ * </p>
+ * <p>
+ * Once the context has seen as many headers and query parameters, and as long a canonical request, as a request
+ * carries, the only allocation left per request is the one of {@link HmacSha256} starting a message: the copies of
+ * the two SHA-256 states saved by the signing key, as {@link MessageDigest} can only restore a state by cloning it.
+ * Besides that, only the first request of a new day allocates, to derive the signing key, as does normalising a path
+ * that is not in the {@link CanonicalPathCache} of the context for services other than S3.
+ * </p>
+ * <p>
+ * A context is not thread-safe: keep one per thread, or per connection. Header names are expected to be tokens, as
+ * HTTP requires, and are lower cased one char at a time.
+ * </p>
+ * <pre>{@code
+ * SigningContext context = SigningContext.builder()
+ *         .awsCredentials(credentials)
+ *         .region("eu-west-1")
+ *         .service("s3")
+ *         .build();
+ * StringBuilder authorization = new StringBuilder(256);
+ * context.header("Host", host)
+ *         .header("x-amz-date", date)
+ *         .header("x-amz-content-sha256", contentSha256)
+ *         .sign(request, contentSha256, authorization);
+ * }</pre>
+ *
+ * @author Richard Lucas
+ */
+public final class SigningContext {
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final StringToSign STRING_TO_SIGN = new StringToSign(ALGORITHM);
+    private static final String X_AMZ_DATE = "x-amz-date";
+    private static final String S3 = "s3";
+    private static final int DATE_LENGTH = 8;
+
+    private final AwsCredentials awsCredentials;
+    private final String region;
+    private final String service;
+    private final boolean s3;
+    private final CanonicalPathCache pathCache;
+    private final CanonicalQuery query = new CanonicalQuery();
+    private final MessageDigest sha256 = Throwables.returnableInstance(() -> MessageDigest.getInstance("SHA-256"),
+            SigningException::new);
+    private final HmacSha256 mac = new HmacSha256();
+    private SigningKey signingKey;
+
+    // the canonical request, then the Authorization value, of the request being signed
+    private final StringBuilder text = new StringBuilder(512);
+    // the UTF-8 bytes of the canonical request waiting to be fed to the digest
+    private final byte[] buffer = new byte[1024];
+    private int buffered;
+    private final byte[] hash = new byte[HmacSha256.LENGTH];
+
+    // the headers of the request being signed, in the order they were added, and their sorted order
+    private CharSequence[] names = new CharSequence[8];
+    private CharSequence[] values = new CharSequence[8];
+    private int[] headerOrder = new int[8];
+    private int headerCount;
+
+    private SigningContext(AwsCredentials awsCredentials, String region, String service, CanonicalPathCache pathCache) {
+        this.awsCredentials = awsCredentials;
+        this.region = region;
+        this.service = service;
+        this.s3 = S3.equals(service);
+        this.pathCache = pathCache;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Adds a header to sign with the next request; the context keeps a reference to {@code name} and {@code value}
+     * until the request is signed.
+     */
+    public SigningContext header(CharSequence name, CharSequence value) {
+        if (name == null || value == null) {
+            throw new IllegalArgumentException(name == null ? "name is null" : "value is null");
+        }
+        if (headerCount == names.length) {
+            names = Arrays.copyOf(names, headerCount * 2);
+            values = Arrays.copyOf(values, headerCount * 2);
+            headerOrder = Arrays.copyOf(headerOrder, headerCount * 2);
+        }
+        names[headerCount] = name;
+        values[headerCount] = value;
+        headerCount++;
+        return this;
+    }
+
+    /**
+     * Signs {@code request} with the headers added since the previous request, which are then forgotten, and appends
+     * the value of its {@code Authorization} header to {@code authorization}.
+     *
+     * @throws SigningException if there is no {@code x-amz-date} header or {@code authorization} fails
+     */
+    public void sign(HttpRequest request, CharSequence contentSha256, Appendable authorization) {
+        try {
+            sortHeaders();
+            CharSequence date = firstValue(X_AMZ_DATE);
+            if (date == null) {
+                throw new SigningException("headers missing 'X-Amz-Date' header");
+            }
+            if (!isKeyDate(date)) {
+                deriveKey(date);
+            }
+            appendCanonicalRequest(request, contentSha256);
+            digest(text, hash);
+            text.setLength(0);
+            STRING_TO_SIGN.updatePrefix(mac, date, signingKey.getScope());
+            StringToSign.updateAscii(mac, Base16.appendLowerCase(text, hash));
+            mac.doFinal(hash, 0);
+            text.setLength(0);
+            authorization.append(appendAuthorization());
+        } catch (IOException e) {
+            throw new SigningException(e);
+        } finally {
+            text.setLength(0);
+            buffered = 0;
+            Arrays.fill(names, 0, headerCount, null);
+            Arrays.fill(values, 0, headerCount, null);
+            headerCount = 0;
+        }
+    }
+
+    private void appendCanonicalRequest(HttpRequest request, CharSequence contentSha256) {
+        text.append(request.getMethod()).append('\n');
+        appendPath(request.getPath());
+        text.append('\n');
+        query.append(text, request.getQuery()).append('\n');
+        for (int i = 0; i < headerCount; i++) {
+            int header = headerOrder[i];
+            if (i > 0 && sameName(headerOrder[i - 1], header)) {
+                text.append(',');
+            } else {
+                if (i > 0) {
+                    text.append('\n');
+                }
+                appendLowerCase(names[header]).append(':');
+            }
+            CanonicalHeaders.Builder.appendNormalizedHeaderValue(text, values[header]);
+        }
+        if (headerCount > 0) {
+            text.append('\n');
+        }
+        text.append('\n');
+        appendSignedHeaders().append('\n').append(contentSha256);
+    }
+
+    private void appendPath(String path) {
+        if (path == null || path.isEmpty()) {
+            text.append('/');
+        } else if (s3) {
+            URLEncoding.appendPath(text, path, 0, path.length());
+        } else {
+            text.append(pathCache.get(service, path));
+        }
+    }
+
+    private StringBuilder appendSignedHeaders() {
+        for (int i = 0; i < headerCount; i++) {
+            int header = headerOrder[i];
+            if (i == 0 || !sameName(headerOrder[i - 1], header)) {
+                if (i > 0) {
+                    text.append(';');
+                }
+                appendLowerCase(names[header]);
+            }
+        }
+        return text;
+    }
+
+    private StringBuilder appendAuthorization() {
+        text.append(ALGORITHM).append(" Credential=").append(awsCredentials.getAccessKey()).append('/')
+                .append(signingKey.getScope().get()).append(", SignedHeaders=");
+        appendSignedHeaders().append(", Signature=");
+        return Base16.appendLowerCase(text, hash);
+    }
+
+    private boolean isKeyDate(CharSequence date) {
+        if (signingKey == null || date.length() < DATE_LENGTH) {
+            return false;
+        }
+        String keyDate = signingKey.getScope().getDateWithoutTimestamp();
+        for (int i = 0; i < DATE_LENGTH; i++) {
+            if (keyDate.charAt(i) != date.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derives the signing key of the day of {@code date}, zeroing the one of the previous day.
+     */
+    private void deriveKey(CharSequence date) {
+        if (date.length() < DATE_LENGTH) {
+            throw new SigningException("invalid 'X-Amz-Date' header: " + date);
+        }
+        CredentialScope scope = CredentialScope.of(date.subSequence(0, DATE_LENGTH).toString(), service, region);
+        SigningKey previous = signingKey;
+        signingKey = null;
+        if (previous != null) {
+            previous.destroy();
+        }
+        SigningKey derived = SigningKey.derive(awsCredentials, scope);
+        derived.init(mac);
+        signingKey = derived;
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of {@code value}, an unpaired surrogate being encoded as {@code ?} as
+     * {@link String#getBytes(java.nio.charset.Charset)} does, into {@code out}.
+     */
+    private void digest(CharSequence value, byte[] out) {
+        sha256.reset();
+        buffered = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            int codePoint = Character.codePointAt(value, i);
+            if (codePoint < 0x80) {
+                write(codePoint);
+            } else if (codePoint < 0x800) {
+                write(0xc0 | codePoint >> 6);
+                write(0x80 | codePoint & 0x3f);
+            } else if (codePoint < 0x10000) {
+                if (Character.isSurrogate((char) codePoint)) {
+                    write('?');
+                } else {
+                    write(0xe0 | codePoint >> 12);
+                    write(0x80 | codePoint >> 6 & 0x3f);
+                    write(0x80 | codePoint & 0x3f);
+                }
+            } else {
+                write(0xf0 | codePoint >> 18);
+                write(0x80 | codePoint >> 12 & 0x3f);
+                write(0x80 | codePoint >> 6 & 0x3f);
+                write(0x80 | codePoint & 0x3f);
+                i++;
+            }
+        }
+        flush();
+        try {
+            sha256.digest(out, 0, out.length);
+        } catch (DigestException e) {
+            throw new SigningException(e);
+        }
+    }
+
+    private void write(int b) {
+        if (buffered == buffer.length) {
+            flush();
+        }
+        buffer[buffered++] = (byte) b;
+    }
+
+    private void flush() {
+        sha256.update(buffer, 0, buffered);
+        buffered = 0;
+    }
+
+    private void sortHeaders() {
+        for (int i = 0; i < headerCount; i++) {
+            // a stable insertion sort, so that the values of a repeated header keep their order
+            int position = i;
+            while (position > 0 && compareLowerCase(names[headerOrder[position - 1]], names[i]) > 0) {
+                headerOrder[position] = headerOrder[position - 1];
+                position--;
+            }
+            headerOrder[position] = i;
+        }
+    }
+
+    private CharSequence firstValue(String lowerCaseName) {
+        for (int i = 0; i < headerCount; i++) {
+            if (compareLowerCase(names[headerOrder[i]], lowerCaseName) == 0) {
+                return values[headerOrder[i]];
+            }
+        }
+        return null;
+    }
+
+    private boolean sameName(int left, int right) {
+        return compareLowerCase(names[left], names[right]) == 0;
+    }
+
+    private static int compareLowerCase(CharSequence left, CharSequence right) {
+        int length = Math.min(left.length(), right.length());
+        for (int i = 0; i < length; i++) {
+            int difference = Character.toLowerCase(left.charAt(i)) - Character.toLowerCase(right.charAt(i));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return left.length() - right.length();
+    }
+
+    private StringBuilder appendLowerCase(CharSequence name) {
+        for (int i = 0; i < name.length(); i++) {
+            text.append(Character.toLowerCase(name.charAt(i)));
+        }
+        return text;
+    }
+
+    public static class Builder {
+
+        private static final String DEFAULT_REGION = "us-east-1";
+        private static final long DEFAULT_PATH_CACHE_SIZE = 1024;
+
+        private AwsCredentials awsCredentials;
+        private String region = DEFAULT_REGION;
+        private String service;
+        private CanonicalPathCache canonicalPathCache;
+
+        public Builder awsCredentials(AwsCredentials awsCredentials) {
+            this.awsCredentials = awsCredentials;
+            return this;
+        }
+
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder service(String service) {
+            this.service = service;
+            return this;
+        }
+
+        /**
+         * The cache normalising the paths of services other than S3, which may be shared with other contexts;
+         * defaults to a cache of 1024 paths owned by the context.
+         */
+        public Builder canonicalPathCache(CanonicalPathCache canonicalPathCache) {
+            this.canonicalPathCache = canonicalPathCache;
+            return this;
+        }
+
+        public SigningContext build() {
+            if (service == null) {
+                throw new IllegalArgumentException("service is null");
+            }
+            AwsCredentials credentials = awsCredentials != null ? awsCredentials
+                    : new AwsCredentialsProviderChain().getCredentials();
+            CanonicalPathCache pathCache = canonicalPathCache != null ? canonicalPathCache
+                    : CanonicalPathCache.builder().maximumSize(DEFAULT_PATH_CACHE_SIZE).concurrencyLevel(1).build();
+            return new SigningContext(credentials, region, service, pathCache);
+        }
+    }
+}
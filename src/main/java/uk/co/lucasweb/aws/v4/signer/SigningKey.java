@@ -0,0 +1,182 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.credentials.SecretAwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.HmacSha256;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A signing key derived from a secret key for a given {@link CredentialScope}.
+ * <p>
+ * Deriving the key takes four HMAC operations, so it is worth keeping a key around when several requests are signed
+ * for the same scope. The intermediate keys are zeroed once derived, and caches {@link #destroy() destroy} the keys
+ * they evict.
+ * </p>
+ * <p>
+ * Strings are signed from the saved HMAC pad states of an {@link HmacSha256.Key} rather than with a {@link Mac}
+ * initialised for each of them, which hashes both pads again; callers that sign many strings with one key, such as
+ * event streams, can still keep an initialised {@link Mac}, which signs without allocating.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class SigningKey {
+
+    private static final String AUTH_TAG = "AWS4";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    private final CredentialScope scope;
+    private final byte[] key;
+    private final HmacSha256.Key hmacKey;
+    private volatile boolean destroyed;
+
+    private SigningKey(CredentialScope scope, byte[] key, HmacSha256.Key hmacKey) {
+        this.scope = scope;
+        this.key = key;
+        this.hmacKey = hmacKey;
+    }
+
+    static SigningKey derive(String secretKey, CredentialScope scope) {
+        return derive((AUTH_TAG + secretKey).getBytes(StandardCharsets.UTF_8), scope);
+    }
+
+    /**
+     * Derives the key from the secret bytes of {@link SecretAwsCredentials}, or from the secret String otherwise.
+     */
+    static SigningKey derive(AwsCredentials awsCredentials, CredentialScope scope) {
+        if (awsCredentials instanceof SecretAwsCredentials) {
+            try {
+                return derive(((SecretAwsCredentials) awsCredentials).copySecretKey(AUTH_TAG), scope);
+            } catch (IllegalStateException e) {
+                throw new SigningException(e.getMessage(), e);
+            }
+        }
+        return derive(awsCredentials.getSecretKey(), scope);
+    }
+
+    private static SigningKey derive(byte[] kSecret, CredentialScope scope) {
+        byte[] kDate = hmacSha256(kSecret, scope.getDateWithoutTimestamp());
+        Arrays.fill(kSecret, (byte) 0);
+        byte[] kRegion = hmacSha256(kDate, scope.getRegion());
+        Arrays.fill(kDate, (byte) 0);
+        byte[] kService = hmacSha256(kRegion, scope.getService());
+        Arrays.fill(kRegion, (byte) 0);
+        byte[] kSigning = hmacSha256(kService, CredentialScope.TERMINATION_STRING);
+        Arrays.fill(kService, (byte) 0);
+        return new SigningKey(scope, kSigning, new HmacSha256.Key(kSigning));
+    }
+
+    CredentialScope getScope() {
+        return scope;
+    }
+
+    /**
+     * Signs {@code algorithm\ndate\nscope\nlines...}, returning the lower case hex encoded signature.
+     */
+    String sign(StringToSign stringToSign, String date, String... lines) {
+        HmacSha256 mac = new HmacSha256().init(hmacKey);
+        try {
+            stringToSign.updatePrefix(mac, date, scope);
+            for (int i = 0; i < lines.length; i++) {
+                if (i > 0) {
+                    mac.update((byte) '\n');
+                }
+                mac.update(lines[i].getBytes(StandardCharsets.UTF_8));
+            }
+            return Base16.encodeLowerCase(mac.doFinal());
+        } catch (IllegalStateException e) {
+            throw new SigningException("signing key has been destroyed", e);
+        }
+    }
+
+    /**
+     * Keys {@code mac} with this key, for callers that keep an {@link HmacSha256} to sign several strings; each of them
+     * starts from copies of the saved pad states.
+     *
+     * @return {@code mac}
+     */
+    HmacSha256 init(HmacSha256 mac) {
+        return mac.init(hmacKey);
+    }
+
+    /**
+     * @return a new {@link Mac} initialised with this key, which callers may keep to sign several strings
+     */
+    Mac newMac() {
+        Mac mac = newMac(key);
+        // the key may have been destroyed while it was copied into the Mac
+        if (destroyed) {
+            throw new SigningException("signing key has been destroyed");
+        }
+        return mac;
+    }
+
+    /**
+     * @return a copy of this key, for callers that keep using it while the original may be destroyed
+     */
+    SigningKey copy() {
+        try {
+            SigningKey copy = new SigningKey(scope, key.clone(), hmacKey.copy());
+            if (destroyed) {
+                throw new SigningException("signing key has been destroyed");
+            }
+            return copy;
+        } catch (IllegalStateException e) {
+            throw new SigningException("signing key has been destroyed", e);
+        }
+    }
+
+    /**
+     * Zeroes the key; it cannot sign anything afterwards.
+     */
+    void destroy() {
+        destroyed = true;
+        Arrays.fill(key, (byte) 0);
+        hmacKey.destroy();
+    }
+
+    boolean isDestroyed() {
+        return destroyed;
+    }
+
+    static Mac newMac(byte[] key) {
+        try {
+            String algorithm = HMAC_SHA256;
+            Mac mac = Mac.getInstance(algorithm);
+            SecretKeySpec signingKey = new SecretKeySpec(key, algorithm);
+            mac.init(signingKey);
+            return mac;
+        } catch (Exception e) {
+            throw new SigningException("Error signing request", e);
+        }
+    }
+
+    private static byte[] hmacSha256(byte[] key, String value) {
+        // even for a key used once, this is cheaper than initialising a Mac, see HmacBenchmark
+        HmacSha256.Key hmacKey = new HmacSha256.Key(key);
+        try {
+            HmacSha256 mac = new HmacSha256().init(hmacKey);
+            mac.update(value.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal();
+        } finally {
+            hmacKey.destroy();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import uk.co.lucasweb.aws.v4.signer.hash.HmacSha256;
+
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Assembles a string to sign of the form {@code algorithm\ndate\nscope\n...}.
+ * <p>
+ * The {@code algorithm\ndate\nscope\n} prefix can either be rendered as a String (for debugging and tests) or fed
+ * straight into an {@link HmacSha256} or a {@link Mac}, so that signing never builds the full string to sign.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class StringToSign {
+
+    private static final byte NEW_LINE = '\n';
+
+    private final String algorithm;
+    private final byte[] algorithmLine;
+
+    StringToSign(String algorithm) {
+        this.algorithm = algorithm;
+        this.algorithmLine = (algorithm + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    String render(String date, CredentialScope scope, String... lines) {
+        StringBuilder builder = new StringBuilder(algorithmLine.length + date.length() + scope.get().length() + 80)
+                .append(algorithm).append('\n')
+                .append(date).append('\n')
+                .append(scope.get());
+        for (String line : lines) {
+            builder.append('\n').append(line);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Feeds {@code algorithm\ndate\nscope\n} into the given {@link HmacSha256}.
+     */
+    void updatePrefix(HmacSha256 mac, CharSequence date, CredentialScope scope) {
+        mac.update(algorithmLine);
+        updateAscii(mac, date);
+        mac.update(NEW_LINE);
+        mac.update(scope.getBytes());
+        mac.update(NEW_LINE);
+    }
+
+    /**
+     * Same as {@link #updatePrefix(HmacSha256, CharSequence, CredentialScope)}, for a {@link Mac} and with the date given as
+     * ASCII bytes.
+     */
+    void updatePrefix(Mac mac, byte[] date, CredentialScope scope) {
+        mac.update(algorithmLine);
+        mac.update(date);
+        mac.update(NEW_LINE);
+        mac.update(scope.getBytes());
+        mac.update(NEW_LINE);
+    }
+
+    static void updateAscii(HmacSha256 mac, CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            mac.update((byte) value.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.cache;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A size bounded cache evicting the least recently used entries, and optionally entries that have not been accessed
+ * for a given time.
+ * <p>
+ * The cache is split into lock-striped segments, each an access ordered {@link LinkedHashMap} guarded by its own
+ * lock, so that lookups for different keys rarely contend. The size bound is shared evenly between the segments,
+ * hence eviction is least recently used per segment rather than globally. Hits, misses and evictions are counted
+ * with {@link LongAdder}s. An optional removal listener is told about every entry leaving the cache, whether it was
+ * evicted, expired, invalidated or replaced, for instance to zero key material.
+ * </p>
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @author Richard Lucas
+ */
+public final class BoundedCache<K, V> {
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final long expireAfterAccessNanos;
+    private final LongSupplier ticker;
+    private final BiConsumer<? super K, ? super V> removalListener;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private BoundedCache(long maximumSize, int concurrencyLevel, long expireAfterAccessNanos, LongSupplier ticker,
+                         BiConsumer<? super K, ? super V> removalListener) {
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount < maximumSize) {
+            segmentCount <<= 1;
+        }
+        int segmentSize = (int) Math.min(Integer.MAX_VALUE, (maximumSize + segmentCount - 1) / segmentCount);
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(segmentSize);
+        }
+        this.segmentMask = segmentCount - 1;
+        this.expireAfterAccessNanos = expireAfterAccessNanos;
+        this.ticker = ticker;
+        this.removalListener = removalListener;
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * @return the value cached for {@code key}, or {@code null}
+     */
+    public V getIfPresent(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock();
+        try {
+            Entry<V> entry = getLive(segment, key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Returns the value cached for {@code key}, computing and caching it if absent.
+     * <p>
+     * The loader runs while the segment of the key is locked, so that a value is computed once however many threads
+     * ask for it; it must be quick and must not access the cache.
+     * </p>
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock();
+        try {
+            Entry<V> entry = getLive(segment, key);
+            if (entry != null) {
+                hits.increment();
+                return entry.value;
+            }
+            misses.increment();
+            V value = loader.apply(key);
+            if (value != null) {
+                store(segment, key, value);
+            }
+            return value;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is null");
+        }
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock();
+        try {
+            store(segment, key, value);
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock();
+        try {
+            Entry<V> removed = segment.map.remove(key);
+            if (removed != null) {
+                removed(key, removed);
+            }
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock();
+            try {
+                Iterator<Map.Entry<K, Entry<V>>> iterator = segment.map.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<K, Entry<V>> entry = iterator.next();
+                    iterator.remove();
+                    removed(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the live entries, one segment at a time; neither the access order nor the statistics change
+     */
+    public Map<K, V> snapshot() {
+        Map<K, V> snapshot = new HashMap<>();
+        for (Segment<K, V> segment : segments) {
+            segment.lock();
+            try {
+                long now = expireAfterAccessNanos > 0 ? ticker.getAsLong() : 0;
+                for (Map.Entry<K, Entry<V>> entry : segment.map.entrySet()) {
+                    if (expireAfterAccessNanos == 0 || now - entry.getValue().accessTime < expireAfterAccessNanos) {
+                        snapshot.put(entry.getKey(), entry.getValue().value);
+                    }
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the number of cached entries, including expired entries that have not been cleaned up yet
+     */
+    public long size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock();
+            try {
+                size += segment.map.size();
+            } finally {
+                segment.unlock();
+            }
+        }
+        return size;
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & segmentMask];
+    }
+
+    private Entry<V> getLive(Segment<K, V> segment, K key) {
+        Entry<V> entry = segment.map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (expireAfterAccessNanos > 0) {
+            long now = ticker.getAsLong();
+            if (now - entry.accessTime >= expireAfterAccessNanos) {
+                segment.map.remove(key);
+                evictions.increment();
+                removed(key, entry);
+                return null;
+            }
+            entry.accessTime = now;
+        }
+        return entry;
+    }
+
+    private void store(Segment<K, V> segment, K key, V value) {
+        Entry<V> replaced = segment.map.put(key, new Entry<>(value, expireAfterAccessNanos > 0 ? ticker.getAsLong() : 0));
+        if (replaced != null && replaced.value != value) {
+            removed(key, replaced);
+        }
+        if (expireAfterAccessNanos > 0) {
+            expire(segment);
+        }
+        Iterator<Map.Entry<K, Entry<V>>> iterator = segment.map.entrySet().iterator();
+        while (segment.map.size() > segment.maximumSize && iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = iterator.next();
+            iterator.remove();
+            evictions.increment();
+            removed(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void removed(K key, Entry<V> entry) {
+        if (removalListener != null) {
+            removalListener.accept(key, entry.value);
+        }
+    }
+
+    /**
+     * Drops the expired entries at the head of the segment, i.e. among the least recently accessed ones.
+     */
+    private void expire(Segment<K, V> segment) {
+        long now = ticker.getAsLong();
+        Iterator<Map.Entry<K, Entry<V>>> iterator = segment.map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = iterator.next();
+            if (now - eldest.getValue().accessTime < expireAfterAccessNanos) {
+                return;
+            }
+            iterator.remove();
+            evictions.increment();
+            removed(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private static final class Segment<K, V> extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+        private final LinkedHashMap<K, Entry<V>> map;
+
+        private Segment(int maximumSize) {
+            this.maximumSize = maximumSize;
+            this.map = new LinkedHashMap<>(16, 0.75f, true);
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private long accessTime;
+
+        private Entry(V value, long accessTime) {
+            this.value = value;
+            this.accessTime = accessTime;
+        }
+    }
+
+    public static class Builder<K, V> {
+
+        private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+        private long maximumSize = Long.MAX_VALUE;
+        private int concurrencyLevel = DEFAULT_CONCURRENCY_LEVEL;
+        private long expireAfterAccessNanos;
+        private LongSupplier ticker = System::nanoTime;
+        private BiConsumer<? super K, ? super V> removalListener;
+
+        public Builder<K, V> maximumSize(long maximumSize) {
+            if (maximumSize < 1) {
+                throw new IllegalArgumentException("maximumSize must be positive");
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * The number of lock-striped segments, rounded up to a power of two; defaults to 16.
+         */
+        public Builder<K, V> concurrencyLevel(int concurrencyLevel) {
+            if (concurrencyLevel < 1) {
+                throw new IllegalArgumentException("concurrencyLevel must be positive");
+            }
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * Evicts entries that have been neither read nor written for the given duration.
+         */
+        public Builder<K, V> expireAfterAccess(Duration duration) {
+            if (duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException("expireAfterAccess must be positive");
+            }
+            this.expireAfterAccessNanos = duration.toNanos();
+            return this;
+        }
+
+        /**
+         * The source of {@link System#nanoTime()} like readings used for expiry.
+         */
+        public Builder<K, V> ticker(LongSupplier ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * Called with every entry leaving the cache, while the segment of the entry is locked; it must be quick and
+         * must not access the cache.
+         */
+        public Builder<K, V> removalListener(BiConsumer<? super K, ? super V> removalListener) {
+            this.removalListener = removalListener;
+            return this;
+        }
+
+        public BoundedCache<K, V> build() {
+            return new BoundedCache<>(maximumSize, concurrencyLevel, expireAfterAccessNanos, ticker, removalListener);
+        }
+    }
+}
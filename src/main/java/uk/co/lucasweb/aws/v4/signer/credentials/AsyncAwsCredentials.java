@@ -0,0 +1,184 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.credentials;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Resolves credentials on an executor for non-blocking clients, whose I/O threads must never wait for a provider
+ * reading files or calling a metadata service.
+ * <p>
+ * Credentials are resolved the first time they are needed, and again after a failed resolution. Once the refresh
+ * interval is over, the first caller to notice starts resolving them again in the background while every caller keeps
+ * getting the current credentials; a failed refresh is retried by the next caller. Resolutions are started under a
+ * {@link ReentrantLock} rather than {@code synchronized}, so that virtual threads do not pin their carrier.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class AsyncAwsCredentials {
+
+    private final Supplier<AwsCredentials> supplier;
+    private final Executor executor;
+    private final long refreshIntervalNanos;
+    private final Consumer<AwsCredentials> onResolved;
+    private final LongSupplier ticker;
+    private final ReentrantLock resolveLock = new ReentrantLock();
+    private volatile Resolution current;
+
+    private AsyncAwsCredentials(Supplier<AwsCredentials> supplier, Executor executor, long refreshIntervalNanos,
+                                Consumer<AwsCredentials> onResolved, LongSupplier ticker) {
+        this.supplier = supplier;
+        this.executor = executor;
+        this.refreshIntervalNanos = refreshIntervalNanos;
+        this.onResolved = onResolved;
+        this.ticker = ticker;
+    }
+
+    /**
+     * @param supplier resolves the credentials, throwing if there are none; it runs on the executor
+     */
+    public static Builder builder(Supplier<AwsCredentials> supplier) {
+        return new Builder(supplier);
+    }
+
+    /**
+     * @return the current credentials, which may not be resolved yet
+     */
+    public CompletableFuture<AwsCredentials> get() {
+        Resolution resolution = current;
+        if (resolution == null || resolution.future.isCompletedExceptionally()) {
+            resolveLock.lock();
+            try {
+                resolution = current;
+                if (resolution == null || resolution.future.isCompletedExceptionally()) {
+                    resolution = new Resolution(CompletableFuture.supplyAsync(this::resolve, executor));
+                    current = resolution;
+                }
+            } finally {
+                resolveLock.unlock();
+            }
+            return resolution.future;
+        }
+        if (resolution.future.isDone() && ticker.getAsLong() - resolution.refreshAt >= 0
+                && resolution.refreshing.compareAndSet(false, true)) {
+            refresh(resolution);
+        }
+        return resolution.future;
+    }
+
+    /**
+     * Forgets the resolved credentials, e.g. after the service rejected them; the next caller resolves them again.
+     */
+    public void invalidate() {
+        current = null;
+    }
+
+    private void refresh(Resolution resolution) {
+        CompletableFuture<AwsCredentials> refreshed;
+        try {
+            refreshed = CompletableFuture.supplyAsync(this::resolve, executor);
+        } catch (RuntimeException e) {
+            resolution.refreshing.set(false);
+            throw e;
+        }
+        refreshed.whenComplete((awsCredentials, e) -> {
+            if (e == null) {
+                current = new Resolution(refreshed);
+            } else {
+                resolution.refreshing.set(false);
+            }
+        });
+    }
+
+    private AwsCredentials resolve() {
+        AwsCredentials awsCredentials = supplier.get();
+        onResolved.accept(awsCredentials);
+        return awsCredentials;
+    }
+
+    private final class Resolution {
+
+        private final CompletableFuture<AwsCredentials> future;
+        private final long refreshAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Resolution(CompletableFuture<AwsCredentials> future) {
+            this.future = future;
+            this.refreshAt = ticker.getAsLong() + refreshIntervalNanos;
+        }
+    }
+
+    public static class Builder {
+
+        private static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(15);
+
+        private final Supplier<AwsCredentials> supplier;
+        private Executor executor = ForkJoinPool.commonPool();
+        private long refreshIntervalNanos = DEFAULT_REFRESH_INTERVAL.toNanos();
+        private Consumer<AwsCredentials> onResolved = awsCredentials -> { };
+        private LongSupplier ticker = System::nanoTime;
+
+        private Builder(Supplier<AwsCredentials> supplier) {
+            this.supplier = supplier;
+        }
+
+        /**
+         * The executor credentials are resolved on, which must not be an I/O thread.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * How long resolved credentials are used before they are resolved again.
+         */
+        public Builder refreshInterval(Duration refreshInterval) {
+            if (refreshInterval.isNegative() || refreshInterval.isZero()) {
+                throw new IllegalArgumentException("refreshInterval must be positive");
+            }
+            this.refreshIntervalNanos = refreshInterval.toNanos();
+            return this;
+        }
+
+        /**
+         * Runs on the executor once credentials are resolved, before they are handed out, e.g. to load the JCA
+         * providers used to sign them or derive a signing key.
+         */
+        public Builder onResolved(Consumer<AwsCredentials> onResolved) {
+            this.onResolved = onResolved;
+            return this;
+        }
+
+        /**
+         * The source of {@link System#nanoTime()}, for tests.
+         */
+        public Builder ticker(LongSupplier ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public AsyncAwsCredentials build() {
+            return new AsyncAwsCredentials(supplier, executor, refreshIntervalNanos, onResolved, ticker);
+        }
+    }
+}
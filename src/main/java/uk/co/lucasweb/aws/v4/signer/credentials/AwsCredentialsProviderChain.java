@@ -13,6 +13,7 @@
 package uk.co.lucasweb.aws.v4.signer.credentials;
 
 import uk.co.lucasweb.aws.v4.signer.SigningException;
+import uk.co.lucasweb.aws.v4.signer.event.SigningEventSink;
 import uk.co.lucasweb.aws.v4.signer.functional.Streams;
 
 import java.util.ArrayList;
@@ -45,10 +46,19 @@ public class AwsCredentialsProviderChain {
     }
 
     public AwsCredentials getCredentials() {
-        return providers.stream()
-                .flatMap(p -> Streams.streamopt(p.getCredentials()))
-                .findFirst()
-                .orElseThrow(() -> new SigningException("no AWS credentials were provided"));
+        SigningEventSink events = SigningEventSink.getInstance();
+        Object event = events.beginCredentials();
+        Optional<AwsCredentials> credentials = Optional.empty();
+        try {
+            credentials = providers.stream()
+                    .flatMap(p -> Streams.streamopt(p.getCredentials()))
+                    .findFirst();
+        } finally {
+            if (event != null && events.end(event)) {
+                events.commitCredentials(event, getClass().getName(), credentials.isPresent());
+            }
+        }
+        return credentials.orElseThrow(() -> new SigningException("no AWS credentials were provided"));
     }
 
     AwsCredentialsProvider environmentProvider() {
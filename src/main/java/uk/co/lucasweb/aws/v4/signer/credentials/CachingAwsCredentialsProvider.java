@@ -0,0 +1,177 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.credentials;
+
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+import uk.co.lucasweb.aws.v4.signer.event.SigningEventSink;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the credentials of a slow provider, such as one calling a metadata or token service, refreshing them
+ * periodically.
+ * <p>
+ * Shortly before the cached credentials expire, the first caller to notice refreshes them while concurrent callers keep
+ * using the cached ones. Once they have expired, callers wait for a single refresh. Refreshes are guarded by a
+ * {@link ReentrantLock} rather than {@code synchronized}, so that a virtual thread waiting for, or doing, a blocking
+ * refresh does not pin its carrier thread, and no state is kept in thread locals.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class CachingAwsCredentialsProvider implements AwsCredentialsProvider {
+
+    private final AwsCredentialsProvider delegate;
+    private final long refreshIntervalNanos;
+    private final long prefetchNanos;
+    private final LongSupplier ticker;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile Cached cached;
+
+    private CachingAwsCredentialsProvider(AwsCredentialsProvider delegate, long refreshIntervalNanos, long prefetchNanos,
+                                          LongSupplier ticker) {
+        this.delegate = delegate;
+        this.refreshIntervalNanos = refreshIntervalNanos;
+        this.prefetchNanos = prefetchNanos;
+        this.ticker = ticker;
+    }
+
+    public static Builder builder(AwsCredentialsProvider delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * @return the cached credentials, refreshed from the delegate if needed; empty if the delegate has none
+     * @throws SigningException if the credentials expired and could not be refreshed
+     */
+    @Override
+    public Optional<AwsCredentials> getCredentials() {
+        Cached current = cached;
+        long now = ticker.getAsLong();
+        if (current != null && now - current.expiresAt < -prefetchNanos) {
+            return current.credentials;
+        }
+        if (current != null && now - current.expiresAt < 0) {
+            // about to expire: one caller refreshes, the others carry on with the cached credentials
+            if (refreshLock.tryLock()) {
+                try {
+                    refreshIfNeeded(current, false);
+                } finally {
+                    refreshLock.unlock();
+                }
+            }
+            Cached after = cached;
+            return (after != null ? after : current).credentials;
+        }
+        refreshLock.lock();
+        try {
+            return refreshIfNeeded(current, true).credentials;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the cached credentials, e.g. after the service rejected them; the next caller refreshes them.
+     */
+    public void invalidate() {
+        cached = null;
+    }
+
+    private Cached refreshIfNeeded(Cached seen, boolean required) {
+        Cached current = cached;
+        if (current != seen) {
+            // another caller refreshed while this one was waiting for the lock
+            return current;
+        }
+        SigningEventSink events = SigningEventSink.getInstance();
+        Object event = events.beginCredentials();
+        Optional<AwsCredentials> credentials = null;
+        try {
+            credentials = delegate.getCredentials();
+            Cached refreshed = new Cached(credentials, ticker.getAsLong() + refreshIntervalNanos);
+            cached = refreshed;
+            return refreshed;
+        } catch (RuntimeException e) {
+            if (required) {
+                throw e instanceof SigningException ? e : new SigningException("Error refreshing credentials", e);
+            }
+            return current;
+        } finally {
+            if (event != null && events.end(event)) {
+                events.commitCredentials(event, delegate.getClass().getName(), credentials != null && credentials.isPresent());
+            }
+        }
+    }
+
+    private static final class Cached {
+
+        private final Optional<AwsCredentials> credentials;
+        private final long expiresAt;
+
+        private Cached(Optional<AwsCredentials> credentials, long expiresAt) {
+            this.credentials = credentials;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static class Builder {
+
+        private static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(15);
+        private static final Duration DEFAULT_PREFETCH = Duration.ofMinutes(1);
+
+        private final AwsCredentialsProvider delegate;
+        private long refreshIntervalNanos = DEFAULT_REFRESH_INTERVAL.toNanos();
+        private long prefetchNanos = DEFAULT_PREFETCH.toNanos();
+        private LongSupplier ticker = System::nanoTime;
+
+        private Builder(AwsCredentialsProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * How long credentials are used before they must be refreshed.
+         */
+        public Builder refreshInterval(Duration refreshInterval) {
+            this.refreshIntervalNanos = refreshInterval.toNanos();
+            return this;
+        }
+
+        /**
+         * How long before they expire credentials are refreshed by the first caller, without blocking the other
+         * callers.
+         */
+        public Builder prefetch(Duration prefetch) {
+            this.prefetchNanos = prefetch.toNanos();
+            return this;
+        }
+
+        Builder ticker(LongSupplier ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public CachingAwsCredentialsProvider build() {
+            if (refreshIntervalNanos <= 0) {
+                throw new IllegalArgumentException("refreshInterval must be positive");
+            }
+            if (prefetchNanos < 0 || prefetchNanos >= refreshIntervalNanos) {
+                throw new IllegalArgumentException("prefetch must be shorter than refreshInterval");
+            }
+            return new CachingAwsCredentialsProvider(delegate, refreshIntervalNanos, prefetchNanos, ticker);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.credentials;
+
+import javax.security.auth.Destroyable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * AWS credentials whose secret key is held off-heap, in a direct buffer that is zeroed when the credentials are
+ * destroyed.
+ * <p>
+ * The signers derive keys from the secret bytes without ever turning them into a String, and zero their intermediate
+ * keys once derived. Signing keys are then held as hash states that are reset when destroyed, but the copies of
+ * those states made for each signature, and the JCA {@code Mac} instances of event streams, are left to the garbage
+ * collector, so this shortens rather than eliminates the time secret material stays on the heap.
+ * {@link #getSecretKey()} decodes the secret to a String for compatibility and should be avoided.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class SecretAwsCredentials extends AwsCredentials implements Destroyable, AutoCloseable {
+
+    private final ByteBuffer secretKey;
+    private volatile boolean destroyed;
+
+    /**
+     * @param secretKey the secret key, which is copied and may be zeroed by the caller afterwards
+     */
+    public SecretAwsCredentials(String accessKey, char[] secretKey) {
+        super(accessKey, null);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.ceil(secretKey.length * encoder.maxBytesPerChar()));
+        CoderResult result = encoder.encode(CharBuffer.wrap(secretKey), buffer, true);
+        if (result.isError() || encoder.flush(buffer).isError()) {
+            throw new IllegalArgumentException("secret key is not valid UTF-16");
+        }
+        buffer.flip();
+        this.secretKey = buffer;
+    }
+
+    /**
+     * @param secretKey the UTF-8 encoded secret key, between its position and limit; it is copied and left untouched
+     */
+    public SecretAwsCredentials(String accessKey, ByteBuffer secretKey) {
+        super(accessKey, null);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(secretKey.remaining());
+        buffer.put(secretKey.duplicate());
+        buffer.flip();
+        this.secretKey = buffer;
+    }
+
+    /**
+     * Decodes the secret key to a String, which cannot be zeroed; prefer letting the signers read the secret bytes.
+     */
+    @Override
+    public String getSecretKey() {
+        byte[] bytes = copySecretKey("");
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException("secret key is not valid UTF-8", e);
+        } finally {
+            zero(bytes);
+        }
+    }
+
+    /**
+     * Copies the secret key after an ASCII prefix, e.g. {@code AWS4}, as needed to derive signing keys. The caller
+     * owns the returned array and should zero it once done with it.
+     *
+     * @throws IllegalStateException if the credentials have been destroyed
+     */
+    public byte[] copySecretKey(String prefix) {
+        checkNotDestroyed();
+        byte[] bytes = new byte[prefix.length() + secretKey.limit()];
+        for (int i = 0; i < prefix.length(); i++) {
+            bytes[i] = (byte) prefix.charAt(i);
+        }
+        for (int i = 0; i < secretKey.limit(); i++) {
+            bytes[prefix.length() + i] = secretKey.get(i);
+        }
+        // the credentials may have been destroyed while the bytes were copied
+        if (destroyed) {
+            zero(bytes);
+            checkNotDestroyed();
+        }
+        return bytes;
+    }
+
+    /**
+     * Zeroes the secret key; the credentials cannot be used afterwards.
+     */
+    @Override
+    public void destroy() {
+        destroyed = true;
+        for (int i = 0; i < secretKey.limit(); i++) {
+            secretKey.put(i, (byte) 0);
+        }
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    @Override
+    public void close() {
+        destroy();
+    }
+
+    private void checkNotDestroyed() {
+        if (destroyed) {
+            throw new IllegalStateException("credentials have been destroyed");
+        }
+    }
+
+    private static void zero(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.encoding;
+
+/**
+ * Finds where the paths and query parameters of a canonical request stop being made of characters that URL encoding
+ * keeps as is, most of them being long ASCII strings that need no escaping at all.
+ * <p>
+ * The implementation in use is the first one found by {@link java.util.ServiceLoader} that can be instantiated, e.g.
+ * the SIMD version of the {@code aws-v4-signer-java-vector} module, and otherwise a scalar one. Implementations must
+ * be thread-safe and return exactly what the scalar implementation returns.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public interface AsciiScanner {
+
+    /**
+     * @param value the string to scan
+     * @param path {@code true} to keep {@code '/'} unescaped, as in paths, {@code false} for query parameters
+     * @return the length of the longest prefix of {@code value} made of characters that URL encoding keeps as is
+     */
+    int unescapedPrefixLength(String value, boolean path);
+
+    /**
+     * @return the implementation in use
+     */
+    static AsciiScanner getInstance() {
+        return AsciiScanners.INSTANCE;
+    }
+
+    /**
+     * @return the scalar implementation, which others may fall back to for short strings
+     */
+    static AsciiScanner scalar() {
+        return ScalarAsciiScanner.INSTANCE;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.encoding;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Loads the {@link AsciiScanner} in use, once.
+ *
+ * @author Richard Lucas
+ */
+final class AsciiScanners {
+
+    static final AsciiScanner INSTANCE = load();
+
+    private AsciiScanners() {
+    }
+
+    private static AsciiScanner load() {
+        try {
+            Iterator<AsciiScanner> providers = ServiceLoader.load(AsciiScanner.class, AsciiScanner.class.getClassLoader())
+                    .iterator();
+            return providers.hasNext() ? providers.next() : ScalarAsciiScanner.INSTANCE;
+        } catch (ServiceConfigurationError | LinkageError e) {
+            // e.g. a SIMD implementation on a JVM started without its module, or without wide enough vectors
+            return ScalarAsciiScanner.INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.encoding;
+
+/**
+ * Scans one character at a time, the set of unescaped characters being kept as a bit mask over the ASCII range.
+ *
+ * @author Richard Lucas
+ */
+final class ScalarAsciiScanner implements AsciiScanner {
+
+    static final ScalarAsciiScanner INSTANCE = new ScalarAsciiScanner();
+
+    /*
+     * The unreserved characters of http://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-header-based-auth.html as a
+     * 128 bit mask: bit c of LOW for c < 64, bit c - 64 of HIGH otherwise
+     */
+    private static final long QUERY_LOW = mask('0', '9') | bit('-') | bit('.');
+    private static final long HIGH = mask('A', 'Z') | mask('a', 'z') | bit('_') | bit('~');
+    private static final long PATH_LOW = QUERY_LOW | bit('/');
+
+    private ScalarAsciiScanner() {
+    }
+
+    @Override
+    public int unescapedPrefixLength(String value, boolean path) {
+        int length = value.length();
+        int i = 0;
+        while (i < length && isUnescaped(value.charAt(i), path)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return whether URL encoding keeps the character, or the byte of a UTF-8 encoding, {@code c} as is
+     */
+    static boolean isUnescaped(int c, boolean path) {
+        long mask = c < 64 ? (path ? PATH_LOW : QUERY_LOW) : c < 128 ? HIGH : 0;
+        return (mask & (1L << c)) != 0;
+    }
+
+    private static long mask(char from, char to) {
+        long mask = 0;
+        for (char c = from; c <= to; c++) {
+            mask |= bit(c);
+        }
+        return mask;
+    }
+
+    private static long bit(char c) {
+        // shifts only use the low 6 bits, so this is bit c of the low word or bit c - 64 of the high word
+        return 1L << c;
+    }
+}
@@ -12,11 +12,6 @@
  */
 package uk.co.lucasweb.aws.v4.signer.encoding;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.util.BitSet;
-
 /**
  * Utilities to URL-encode strings.
  * <p>
@@ -34,41 +29,9 @@ import java.util.BitSet;
  */
 public class URLEncoding {
 
-    private static final byte ESCAPE_CHAR = '%';
-
-    private static final int HEXADECIMAL_RADIX = 16;
-
-    private static final Charset CHARSET = StandardCharsets.UTF_8;
-
-    private static final BitSet PATH_UNESCAPED_CHARACTERS;
-    private static final BitSet QUERY_COMPONENT_UNESCAPED_CHARACTERS;
-    static {
-        /*
-         * See http://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-header-based-auth.html
-         * for the list of characters that should not be escaped
-         */
-        BitSet unreserved = new BitSet();
-        for (int i = 'a'; i <= 'z'; i++) {
-            unreserved.set(i);
-        }
-        for (int i = 'A'; i <= 'Z'; i++) {
-            unreserved.set(i);
-        }
-        for (int i = '0'; i <= '9'; i++) {
-            unreserved.set(i);
-        }
-        unreserved.set('-');
-        unreserved.set('.');
-        unreserved.set('_');
-        unreserved.set('~');
-
-        PATH_UNESCAPED_CHARACTERS = new BitSet();
-        PATH_UNESCAPED_CHARACTERS.set('/');
-        PATH_UNESCAPED_CHARACTERS.or(unreserved);
+    private static final char ESCAPE_CHAR = '%';
 
-        QUERY_COMPONENT_UNESCAPED_CHARACTERS = new BitSet();
-        QUERY_COMPONENT_UNESCAPED_CHARACTERS.or( unreserved );
-    }
+    private static final char[] UPPER_CASE_DIGITS = "0123456789ABCDEF".toCharArray();
 
     private URLEncoding() {
         // Private, this is a utils class
@@ -80,7 +43,7 @@ public class URLEncoding {
      * @return An encoded version of the given string.
      */
     public static String encodePath(String path) {
-        return encode(path, PATH_UNESCAPED_CHARACTERS);
+        return encode(path, true);
     }
 
     /**
@@ -89,31 +52,90 @@ public class URLEncoding {
      * @return An encoded version of the given string.
      */
     public static String encodeQueryComponent(String string) {
-        return encode(string, QUERY_COMPONENT_UNESCAPED_CHARACTERS);
+        return encode(string, false);
+    }
+
+    /**
+     * Appends {@code value[from, to)} to {@code out}, URL-encoded as {@link #encodePath(String)} encodes it, without
+     * allocating anything but the room {@code out} needs.
+     * @return {@code out}
+     */
+    public static StringBuilder appendPath(StringBuilder out, CharSequence value, int from, int to) {
+        return append(out, value, from, to, true);
+    }
+
+    /**
+     * Appends {@code value[from, to)} to {@code out}, URL-encoded as {@link #encodeQueryComponent(String)} encodes it,
+     * without allocating anything but the room {@code out} needs.
+     * @return {@code out}
+     */
+    public static StringBuilder appendQueryComponent(StringBuilder out, CharSequence value, int from, int to) {
+        return append(out, value, from, to, false);
     }
 
     /**
      * URL-encode a String.
+     * <p>
+     * Most values need no escaping at all and are returned as is; otherwise only the characters after the leading
+     * unescaped ASCII characters, found by the {@link AsciiScanner} in use, are encoded, straight into a
+     * {@link StringBuilder}.
+     * </p>
+     */
+    private static String encode(String value, boolean path) {
+        int length = value.length();
+        int start = AsciiScanner.getInstance().unescapedPrefixLength(value, path);
+        if (start == length) {
+            return value;
+        }
+        StringBuilder builder = new StringBuilder(length + 2 * (length - start)).append(value, 0, start);
+        return append(builder, value, start, length, path).toString();
+    }
+
+    /**
+     * Percent encodes every byte of the UTF-8 encoding of the escaped characters, an unpaired surrogate being encoded
+     * as {@code ?}, as {@link String#getBytes(java.nio.charset.Charset)} replaces it.
      */
-    private static String encode(String value, BitSet unescapedChars) {
-        // Code from org.apache.commons.codec.net.URLCodec.encodeUrl(BitSet, byte[])
-        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        for (final byte c : value.getBytes(CHARSET)) {
-            int b = c;
-            if (b < 0) {
-                b = 256 + b;
+    private static StringBuilder append(StringBuilder out, CharSequence value, int from, int to, boolean path) {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (ScalarAsciiScanner.isUnescaped(c, path)) {
+                out.append(c);
+                continue;
             }
-            if (unescapedChars.get(b)) {
-                buffer.write(b);
+            int codePoint = codePointAt(value, i, to);
+            if (codePoint < 0x80) {
+                escape(out, codePoint);
+            } else if (codePoint < 0x800) {
+                escape(out, 0xC0 | codePoint >> 6);
+                escape(out, 0x80 | codePoint & 0x3F);
+            } else if (codePoint < 0x10000) {
+                escape(out, 0xE0 | codePoint >> 12);
+                escape(out, 0x80 | codePoint >> 6 & 0x3F);
+                escape(out, 0x80 | codePoint & 0x3F);
             } else {
-                buffer.write(ESCAPE_CHAR);
-                final char hex1 = Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, HEXADECIMAL_RADIX));
-                final char hex2 = Character.toUpperCase(Character.forDigit(b & 0xF, HEXADECIMAL_RADIX));
-                buffer.write(hex1);
-                buffer.write(hex2);
+                escape(out, 0xF0 | codePoint >> 18);
+                escape(out, 0x80 | codePoint >> 12 & 0x3F);
+                escape(out, 0x80 | codePoint >> 6 & 0x3F);
+                escape(out, 0x80 | codePoint & 0x3F);
+                i++;
             }
         }
-        return new String(buffer.toByteArray(), CHARSET);
+        return out;
+    }
+
+    private static void escape(StringBuilder out, int b) {
+        out.append(ESCAPE_CHAR).append(UPPER_CASE_DIGITS[b >> 4]).append(UPPER_CASE_DIGITS[b & 0xF]);
+    }
+
+    private static int codePointAt(CharSequence value, int index, int limit) {
+        char c = value.charAt(index);
+        if (!Character.isSurrogate(c)) {
+            return c;
+        }
+        if (Character.isHighSurrogate(c) && index + 1 < limit && Character.isLowSurrogate(value.charAt(index + 1))) {
+            return Character.toCodePoint(c, value.charAt(index + 1));
+        }
+        return '?';
     }
 
 }
@@ -0,0 +1,83 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.event;
+
+/**
+ * Receives timed events about signatures, credential lookups and payload hashing, for profilers and monitoring,
+ * e.g. the JDK Flight Recorder events of the {@code aws-v4-signer-java-jfr} module.
+ * <p>
+ * The implementation in use is the first one found by {@link java.util.ServiceLoader} that can be instantiated, and
+ * otherwise one recording nothing. An operation is reported in up to three steps: a {@code begin} method starts
+ * timing it and returns a token, or {@code null} when such operations are not recorded, in which case nothing more
+ * happens; {@link #end(Object)} stops timing and tells whether the operation is worth recording, e.g. because it was
+ * slow, and only then is the matching {@code commit} method called, so that describing the operation costs nothing
+ * for the others. Implementations must be thread-safe and cheap when nothing is recorded.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public interface SigningEventSink {
+
+    /**
+     * Starts timing the signature of a request: hashing its canonical request and signing the string to sign.
+     */
+    Object beginSignature();
+
+    /**
+     * Starts timing a lookup of credentials, such as the refresh of cached credentials.
+     */
+    Object beginCredentials();
+
+    /**
+     * Starts timing the hashing of a payload.
+     */
+    Object beginPayloadHash();
+
+    /**
+     * Stops timing the operation.
+     *
+     * @param token the token returned when the operation began
+     * @return {@code true} if the operation is to be recorded, the matching {@code commit} method is then called
+     */
+    boolean end(Object token);
+
+    /**
+     * @param service the service of the credential scope
+     * @param region the region of the credential scope
+     * @param canonicalRequestLength the number of characters of the canonical request
+     * @param headerCount the number of signed headers
+     * @param signingKeyReused {@code true} if a signing key derived beforehand was used, {@code false} if the key
+     * had to be derived for this signature
+     */
+    void commitSignature(Object token, String service, String region, int canonicalRequestLength, int headerCount,
+                         boolean signingKeyReused);
+
+    /**
+     * @param provider the class name of the provider the credentials were looked up from
+     * @param found {@code true} if the provider returned credentials
+     */
+    void commitCredentials(Object token, String provider, boolean found);
+
+    /**
+     * @param algorithm the hash algorithm, e.g. {@code SHA-256}
+     * @param bytes the number of bytes hashed
+     */
+    void commitPayloadHash(Object token, String algorithm, long bytes);
+
+    /**
+     * @return the implementation in use
+     */
+    static SigningEventSink getInstance() {
+        return SigningEventSinks.INSTANCE;
+    }
+}
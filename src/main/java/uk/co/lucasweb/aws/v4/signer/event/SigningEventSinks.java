@@ -0,0 +1,88 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.event;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Loads the {@link SigningEventSink} in use, once.
+ *
+ * @author Richard Lucas
+ */
+final class SigningEventSinks {
+
+    static final SigningEventSink INSTANCE = load();
+
+    private SigningEventSinks() {
+    }
+
+    private static SigningEventSink load() {
+        try {
+            Iterator<SigningEventSink> providers = ServiceLoader.load(SigningEventSink.class,
+                    SigningEventSink.class.getClassLoader()).iterator();
+            return providers.hasNext() ? providers.next() : Disabled.INSTANCE;
+        } catch (ServiceConfigurationError | LinkageError e) {
+            // e.g. the JFR implementation on a JVM without the jdk.jfr module
+            return Disabled.INSTANCE;
+        }
+    }
+
+    /**
+     * Records nothing.
+     */
+    static final class Disabled implements SigningEventSink {
+
+        static final Disabled INSTANCE = new Disabled();
+
+        private Disabled() {
+        }
+
+        @Override
+        public Object beginSignature() {
+            return null;
+        }
+
+        @Override
+        public Object beginCredentials() {
+            return null;
+        }
+
+        @Override
+        public Object beginPayloadHash() {
+            return null;
+        }
+
+        @Override
+        public boolean end(Object token) {
+            return false;
+        }
+
+        @Override
+        public void commitSignature(Object token, String service, String region, int canonicalRequestLength,
+                                    int headerCount, boolean signingKeyReused) {
+            // nothing is recorded
+        }
+
+        @Override
+        public void commitCredentials(Object token, String provider, boolean found) {
+            // nothing is recorded
+        }
+
+        @Override
+        public void commitPayloadHash(Object token, String algorithm, long bytes) {
+            // nothing is recorded
+        }
+    }
+}
@@ -12,40 +12,35 @@
  */
 package uk.co.lucasweb.aws.v4.signer.hash;
 
-import uk.co.lucasweb.aws.v4.signer.SigningException;
-import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
-
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Richard Lucas
  */
 public final class Base16 {
 
-    private static final char[] ENC_TAB = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
-
     private Base16() {
         // hide default constructor
     }
 
     public static String encode(String data) {
-        return Throwables.returnableInstance(() -> encode(getBytes(data)), SigningException::new);
+        return encode(data.getBytes(StandardCharsets.UTF_8));
     }
 
     public static String encode(byte[] data) {
-        int length = data.length;
-        StringBuilder stringBuilder = new StringBuilder(length * 2);
-        int i = 0;
-        while (i < length) {
-            stringBuilder.append(ENC_TAB[(data[i] & 0xF0) >> 4]);
-            stringBuilder.append(ENC_TAB[data[i] & 0x0F]);
-            i++;
-        }
-
-        return stringBuilder.toString();
+        return Platform.toHex(data, true);
+    }
+
+    public static String encodeLowerCase(byte[] data) {
+        return Platform.toHex(data, false);
     }
 
-    private static byte[] getBytes(String data) throws UnsupportedEncodingException {
-        return data.getBytes("UTF-8");
+    /**
+     * Same as {@link #encodeLowerCase(byte[])}, appending to {@code out} rather than creating a String.
+     *
+     * @return {@code out}
+     */
+    public static StringBuilder appendLowerCase(StringBuilder out, byte[] data) {
+        return Platform.appendHex(out, data, false);
     }
 }
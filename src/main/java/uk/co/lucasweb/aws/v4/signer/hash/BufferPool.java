@@ -0,0 +1,71 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.hash;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small, lock-free pool of the byte arrays that hold request bodies while they are hashed.
+ * <p>
+ * Buffers keep the size they grew to, so that once warmed up bodies of the usual size are written without growing
+ * their buffer. Buffers larger than {@link #MAX_POOLED_SIZE} are left to the garbage collector rather than retained,
+ * and a buffer released while every slot is taken is simply dropped.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class BufferPool {
+
+    static final int MIN_SIZE = 4 * 1024;
+    static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private static final AtomicReferenceArray<byte[]> SLOTS =
+            new AtomicReferenceArray<>(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    private BufferPool() {
+        // hide default constructor
+    }
+
+    static byte[] acquire() {
+        int start = probe();
+        for (int i = 0; i < SLOTS.length(); i++) {
+            int slot = (start + i) % SLOTS.length();
+            byte[] buffer = SLOTS.get(slot);
+            if (buffer != null && SLOTS.compareAndSet(slot, buffer, null)) {
+                return buffer;
+            }
+        }
+        return new byte[MIN_SIZE];
+    }
+
+    static void release(byte[] buffer) {
+        if (buffer.length > MAX_POOLED_SIZE) {
+            return;
+        }
+        int start = probe();
+        for (int i = 0; i < SLOTS.length(); i++) {
+            int slot = (start + i) % SLOTS.length();
+            if (SLOTS.get(slot) == null && SLOTS.compareAndSet(slot, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spreads threads over the slots, so that they rarely contend for the same one.
+     */
+    private static int probe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 32)) & Integer.MAX_VALUE) % SLOTS.length();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.hash;
+
+/**
+ * The flexible checksum algorithms that can be sent as a trailing header of an {@code aws-chunked} payload.
+ *
+ * @author Richard Lucas
+ */
+public enum ChecksumAlgorithm {
+
+    CRC32("x-amz-checksum-crc32", 4),
+    /**
+     * Requires Java 9+, where {@code java.util.zip.CRC32C} is hardware accelerated.
+     */
+    CRC32C("x-amz-checksum-crc32c", 4),
+    SHA256("x-amz-checksum-sha256", 32);
+
+    private final String headerName;
+    private final int length;
+
+    ChecksumAlgorithm(String headerName, int length) {
+        this.headerName = headerName;
+        this.length = length;
+    }
+
+    /**
+     * @return the name of the trailing header carrying the checksum, e.g. {@code x-amz-checksum-crc32c}
+     */
+    public String getHeaderName() {
+        return headerName;
+    }
+
+    /**
+     * @return the length of the base64 encoded checksum
+     */
+    public int getEncodedLength() {
+        return (length + 2) / 3 * 4;
+    }
+
+    public PayloadChecksum newChecksum() {
+        return PayloadChecksum.newInstance(this);
+    }
+}
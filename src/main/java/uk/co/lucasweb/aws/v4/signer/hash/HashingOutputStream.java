@@ -0,0 +1,215 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.hash;
+
+import uk.co.lucasweb.aws.v4.signer.event.SigningEventSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * An {@link OutputStream} that request bodies are serialised into, which keeps the body and computes its SHA-256
+ * hash as it is written, so that the body need not be read a second time to obtain the {@code contentSha256} to sign.
+ * <p>
+ * The bytes are hashed a block at a time shortly after they are written, while they are still in the CPU caches. They
+ * are kept in a buffer borrowed from a pool, which must be given back with {@link #release()} once the body has been
+ * sent; the body must not be used afterwards. Closing the stream only ends the body, so that serialisers that close
+ * their target do no harm.
+ * </p>
+ * <pre>{@code
+ * HashingOutputStream body = new HashingOutputStream();
+ * try {
+ *     mapper.writeValue(body, item);
+ *     String signature = Signer.builder()
+ *             .awsCredentials(credentials)
+ *             .header("Host", "dynamodb.us-east-1.amazonaws.com")
+ *             .header("x-amz-date", "20130524T000000Z")
+ *             .build(request, "dynamodb", body.getContentSha256())
+ *             .getSignature();
+ *     body.writeTo(connection.getOutputStream());
+ * } finally {
+ *     body.release();
+ * }
+ * }</pre>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class HashingOutputStream extends OutputStream {
+
+    /*
+     * Hashing every small write separately costs more than the hash itself, so bytes are hashed once this many have
+     * accumulated, which is still small enough for them to be hashed straight from the L1 cache.
+     */
+    private static final int HASH_BLOCK_SIZE = 8 * 1024;
+    private static final String SHA_256 = "SHA-256";
+
+    // the payload hash event spans the serialisation, which the hashing is interleaved with
+    private final Object event = SigningEventSink.getInstance().beginPayloadHash();
+    private final MessageDigest digest = Platform.newSha256();
+    private byte[] buffer = BufferPool.acquire();
+    private int size;
+    private int hashed;
+    private String contentSha256;
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+        hashFullBlocks();
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || length > bytes.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        hashFullBlocks();
+    }
+
+    /**
+     * Ends the body; further writes fail. The buffer is kept until {@link #release()}.
+     */
+    @Override
+    public void close() {
+        finish();
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public int size() {
+        checkNotReleased();
+        return size;
+    }
+
+    /**
+     * Ends the body, if not already done, and returns its hash.
+     *
+     * @return the lower case hex encoded SHA-256 hash of the body
+     */
+    public String getContentSha256() {
+        finish();
+        return contentSha256;
+    }
+
+    /**
+     * Ends the body, if not already done, and returns it without copying it.
+     *
+     * @return a read-only view of the body, valid until {@link #release()}
+     */
+    public ByteBuffer getBody() {
+        finish();
+        return ByteBuffer.wrap(buffer, 0, size).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Ends the body, if not already done, and returns a copy of it.
+     */
+    public byte[] toByteArray() {
+        finish();
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Ends the body, if not already done, and writes it to the given stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        finish();
+        out.write(buffer, 0, size);
+    }
+
+    /**
+     * Gives the buffer back to the pool. The body can no longer be read afterwards; releasing more than once does
+     * nothing.
+     */
+    public void release() {
+        byte[] released = buffer;
+        if (released != null) {
+            buffer = null;
+            BufferPool.release(released);
+        }
+    }
+
+    /**
+     * Makes room for {@code length} more bytes, for {@link HashingWriter}, which encodes straight into the buffer.
+     *
+     * @return the buffer, which may have been replaced by a larger one
+     */
+    byte[] ensureCapacity(int length) {
+        checkNotReleased();
+        if (contentSha256 != null) {
+            throw new IllegalStateException("the body has been closed");
+        }
+        if (length > buffer.length - size) {
+            hash();
+            long required = (long) size + length;
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("request body too large to buffer: " + required + " bytes");
+            }
+            int capacity = (int) Math.min(Math.max(required, 2L * buffer.length), Integer.MAX_VALUE - 8);
+            // the outgrown buffer is not pooled, or the pool would end up handing out buffers that must grow again
+            buffer = Arrays.copyOf(buffer, capacity);
+        }
+        return buffer;
+    }
+
+    int position() {
+        return size;
+    }
+
+    /**
+     * Records bytes written into the buffer returned by {@link #ensureCapacity(int)}.
+     */
+    void advance(int length) {
+        size += length;
+        hashFullBlocks();
+    }
+
+    private void hashFullBlocks() {
+        if (size - hashed >= HASH_BLOCK_SIZE) {
+            hash();
+        }
+    }
+
+    private void hash() {
+        digest.update(buffer, hashed, size - hashed);
+        hashed = size;
+    }
+
+    private void finish() {
+        checkNotReleased();
+        if (contentSha256 == null) {
+            hash();
+            contentSha256 = Platform.toHex(digest.digest(), false);
+            SigningEventSink events = SigningEventSink.getInstance();
+            if (event != null && events.end(event)) {
+                events.commitPayloadHash(event, SHA_256, size);
+            }
+        }
+    }
+
+    private void checkNotReleased() {
+        if (buffer == null) {
+            throw new IllegalStateException("the body has been released");
+        }
+    }
+}
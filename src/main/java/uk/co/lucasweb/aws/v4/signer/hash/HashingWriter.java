@@ -0,0 +1,174 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.hash;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link Writer} that encodes request bodies in UTF-8 straight into a {@link HashingOutputStream}, for serialisers
+ * that write characters, such as most JSON libraries.
+ * <p>
+ * Characters are encoded directly into the buffer of the stream rather than through an intermediate buffer, so
+ * {@link #flush()} has nothing to do. Unpaired surrogates are encoded as {@code '?'}, as {@link String#getBytes} does.
+ * Closing the writer ends the body; the stream must still be released once the body has been sent.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public final class HashingWriter extends Writer {
+
+    private static final byte REPLACEMENT = '?';
+    private static final int SCRATCH_SIZE = 1024;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final HashingOutputStream out;
+    private char highSurrogate;
+    private char[] scratch;
+    private ByteBuffer target;
+
+    public HashingWriter(HashingOutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int c) {
+        write((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        if (offset < 0 || length < 0 || length > chars.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        int end = offset + length;
+        if (highSurrogate != 0 && offset < end) {
+            write(chars[offset++]);
+        }
+        if (offset < end) {
+            encode(CharBuffer.wrap(chars, offset, end - offset));
+        }
+    }
+
+    @Override
+    public void write(String value, int offset, int length) {
+        if (offset < 0 || length < 0 || length > value.length() - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        // the encoder is only fast on arrays, and String.getChars is an intrinsic
+        if (scratch == null) {
+            scratch = new char[SCRATCH_SIZE];
+        }
+        int end = offset + length;
+        for (int i = offset; i < end; i += SCRATCH_SIZE) {
+            int piece = Math.min(SCRATCH_SIZE, end - i);
+            value.getChars(i, i + piece, scratch, 0);
+            write(scratch, 0, piece);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // characters are encoded as they are written
+    }
+
+    /**
+     * Ends the body, encoding a trailing unpaired surrogate as {@code '?'}.
+     */
+    @Override
+    public void close() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            put(REPLACEMENT);
+        }
+        out.close();
+    }
+
+    /**
+     * Encodes with the JDK encoder, whose ASCII loop is an intrinsic, leaving a trailing high surrogate for the next
+     * write.
+     */
+    private void encode(CharBuffer chars) {
+        // enough room for ASCII, the worst case is only asked for once the encoder has run out of room
+        int required = chars.remaining();
+        while (true) {
+            byte[] buffer = out.ensureCapacity(required);
+            int position = out.position();
+            if (target == null || target.array() != buffer) {
+                target = ByteBuffer.wrap(buffer);
+            }
+            target.limit(buffer.length).position(position);
+            CoderResult result = encoder.encode(chars, target, false);
+            out.advance(target.position() - position);
+            if (result.isUnderflow()) {
+                if (chars.hasRemaining()) {
+                    highSurrogate = chars.get();
+                }
+                return;
+            }
+            required = Math.max(3 * chars.remaining(), 4);
+        }
+    }
+
+    private void write(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                byte[] buffer = out.ensureCapacity(4);
+                int position = out.position();
+                buffer[position] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position + 3] = (byte) (0x80 | (codePoint & 0x3F));
+                out.advance(4);
+                return;
+            }
+            put(REPLACEMENT);
+        }
+        if (c < 0x80) {
+            put((byte) c);
+        } else if (c < 0x800) {
+            byte[] buffer = out.ensureCapacity(2);
+            int position = out.position();
+            buffer[position] = (byte) (0xC0 | (c >> 6));
+            buffer[position + 1] = (byte) (0x80 | (c & 0x3F));
+            out.advance(2);
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put(REPLACEMENT);
+        } else {
+            byte[] buffer = out.ensureCapacity(3);
+            int position = out.position();
+            buffer[position] = (byte) (0xE0 | (c >> 12));
+            buffer[position + 1] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position + 2] = (byte) (0x80 | (c & 0x3F));
+            out.advance(3);
+        }
+    }
+
+    private void put(byte b) {
+        byte[] buffer = out.ensureCapacity(1);
+        buffer[out.position()] = b;
+        out.advance(1);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * A running checksum of a payload, computed while the payload is streamed.
+ *
+ * @author Richard Lucas
+ */
+public abstract class PayloadChecksum {
+
+    private static final int SCRATCH_SIZE = 8 * 1024;
+
+    private final ChecksumAlgorithm algorithm;
+
+    private PayloadChecksum(ChecksumAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    static PayloadChecksum newInstance(ChecksumAlgorithm algorithm) {
+        switch (algorithm) {
+            case CRC32:
+                return new Crc(algorithm, new CRC32());
+            case CRC32C:
+                return new Crc(algorithm, Platform.newCrc32c());
+            case SHA256:
+                return new Digest(algorithm, Platform.newSha256());
+            default:
+                throw new IllegalArgumentException("unsupported checksum algorithm " + algorithm);
+        }
+    }
+
+    public ChecksumAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public abstract void update(byte[] bytes, int offset, int length);
+
+    /**
+     * Updates the checksum with the remaining bytes of the buffer, leaving its position untouched.
+     */
+    public abstract void update(ByteBuffer buffer);
+
+    /**
+     * @return the base64 encoded checksum, as sent in the trailing header
+     */
+    public String getBase64() {
+        return Base64.getEncoder().encodeToString(getValue());
+    }
+
+    abstract byte[] getValue();
+
+    private static final class Crc extends PayloadChecksum {
+
+        private final Checksum checksum;
+        private byte[] scratch;
+
+        private Crc(ChecksumAlgorithm algorithm, Checksum checksum) {
+            super(algorithm);
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            checksum.update(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                return;
+            }
+            if (Platform.update(checksum, buffer)) {
+                return;
+            }
+            // Checksum.update(ByteBuffer) only exists from Java 9 on, so direct buffers go through a scratch array
+            if (scratch == null) {
+                scratch = new byte[SCRATCH_SIZE];
+            }
+            ByteBuffer source = buffer.duplicate();
+            while (source.hasRemaining()) {
+                int length = Math.min(scratch.length, source.remaining());
+                source.get(scratch, 0, length);
+                checksum.update(scratch, 0, length);
+            }
+        }
+
+        @Override
+        byte[] getValue() {
+            long value = checksum.getValue();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+    }
+
+    private static final class Digest extends PayloadChecksum {
+
+        private final MessageDigest digest;
+
+        private Digest(ChecksumAlgorithm algorithm, MessageDigest digest) {
+            super(algorithm);
+            this.digest = digest;
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            digest.update(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            digest.update(buffer.duplicate());
+        }
+
+        @Override
+        byte[] getValue() {
+            return digest.digest();
+        }
+    }
+}
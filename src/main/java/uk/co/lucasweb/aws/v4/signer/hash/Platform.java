@@ -0,0 +1,91 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.hash;
+
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * The JDK dependent parts of the hashing hot paths, in their Java 8 form.
+ * <p>
+ * The multi-release jar overrides this class for Java 17 and later, see {@code src/main/java17}; both versions must
+ * keep the same methods.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class Platform {
+
+    private static final char[] UPPER_CASE_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final char[] LOWER_CASE_DIGITS = "0123456789abcdef".toCharArray();
+    private static final String SHA_256 = "SHA-256";
+    private static final String CRC32C_CLASS = "java.util.zip.CRC32C";
+
+    private Platform() {
+        // hide default constructor
+    }
+
+    static String toHex(byte[] data, boolean upperCase) {
+        char[] digits = upperCase ? UPPER_CASE_DIGITS : LOWER_CASE_DIGITS;
+        char[] chars = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            chars[2 * i] = digits[(data[i] & 0xF0) >> 4];
+            chars[2 * i + 1] = digits[data[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    static StringBuilder appendHex(StringBuilder out, byte[] data, boolean upperCase) {
+        char[] digits = upperCase ? UPPER_CASE_DIGITS : LOWER_CASE_DIGITS;
+        for (byte b : data) {
+            out.append(digits[(b & 0xF0) >> 4]).append(digits[b & 0x0F]);
+        }
+        return out;
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SigningException(e);
+        }
+    }
+
+    /**
+     * CRC32C only exists from Java 9 on, so it is loaded reflectively.
+     */
+    static Checksum newCrc32c() {
+        return Throwables.returnableInstance(
+                () -> (Checksum) Class.forName(CRC32C_CLASS).newInstance(),
+                e -> new SigningException("CRC32C checksums require Java 9 or later", e));
+    }
+
+    /**
+     * Updates the checksum with the remaining bytes of a buffer without array, leaving its position untouched.
+     *
+     * @return {@code false} if the checksum cannot read the buffer itself and it must be copied to an array
+     */
+    static boolean update(Checksum checksum, ByteBuffer buffer) {
+        if (checksum instanceof CRC32) {
+            ((CRC32) checksum).update(buffer.duplicate());
+            return true;
+        }
+        return false;
+    }
+}
@@ -13,8 +13,12 @@
 package uk.co.lucasweb.aws.v4.signer.hash;
 
 import uk.co.lucasweb.aws.v4.signer.SigningException;
+import uk.co.lucasweb.aws.v4.signer.event.SigningEventSink;
 import uk.co.lucasweb.aws.v4.signer.functional.Throwables;
 
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 
@@ -23,29 +27,55 @@ import java.security.MessageDigest;
  */
 public final class Sha256 {
 
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
     private static final String SHA_256 = "SHA-256";
-    private static final String ZERO = "0";
-    private static final char[] hexDigits = "0123456789abcdef".toCharArray();
 
     private Sha256() {
         // hide default constructor
     }
 
     public static String get(String value, Charset charset) {
-        return Throwables.returnableInstance(() -> {
-            MessageDigest md = MessageDigest.getInstance(SHA_256);
-            byte[] bytes = value.getBytes(charset);
-            md.update(bytes);
-            int b = md.getDigestLength();
-            return bytesToHex(md.digest());
-        }, SigningException::new);
+        MessageDigest md = Platform.newSha256();
+        md.update(value.getBytes(charset));
+        return Platform.toHex(md.digest(), false);
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(2 * bytes.length);
-        for (byte b : bytes) {
-            sb.append(hexDigits[(b >> 4) & 0xf]).append(hexDigits[b & 0xf]);
+    /**
+     * Hashes a region of a file using positional reads, so that several regions of the same channel can be hashed
+     * concurrently.
+     *
+     * @param channel the channel to read from, its position is left untouched
+     * @param position the offset of the first byte to hash
+     * @param length the number of bytes to hash
+     * @return the lower case hex encoded SHA-256 hash of the region
+     */
+    public static String get(FileChannel channel, long position, long length) {
+        SigningEventSink events = SigningEventSink.getInstance();
+        Object event = events.beginPayloadHash();
+        String hash = Throwables.returnableInstance(() -> {
+            MessageDigest md = Platform.newSha256();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_SIZE, Math.max(length, 1)));
+            long offset = position;
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = channel.read(buffer, offset);
+                if (read < 0) {
+                    throw new EOFException("unexpected end of file at offset " + offset);
+                }
+                buffer.flip();
+                md.update(buffer);
+                offset += read;
+                remaining -= read;
+            }
+            return Platform.toHex(md.digest(), false);
+        }, SigningException::new);
+        if (event != null && events.end(event)) {
+            events.commitPayloadHash(event, SHA_256, length);
         }
-        return sb.toString();
+        return hash;
     }
 }
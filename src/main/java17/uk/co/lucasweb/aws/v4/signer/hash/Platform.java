@@ -0,0 +1,74 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.hash;
+
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The JDK dependent parts of the hashing hot paths, in their Java 17 form: {@link HexFormat}, digests cloned from a
+ * prototype rather than looked up through the JCA, and {@link CRC32C} and {@link Checksum#update(ByteBuffer)} used
+ * directly.
+ *
+ * @author Richard Lucas
+ */
+final class Platform {
+
+    private static final HexFormat UPPER_CASE = HexFormat.of().withUpperCase();
+    private static final HexFormat LOWER_CASE = HexFormat.of();
+    private static final String SHA_256 = "SHA-256";
+    private static final MessageDigest SHA_256_PROTOTYPE = lookUpSha256();
+
+    private Platform() {
+        // hide default constructor
+    }
+
+    static String toHex(byte[] data, boolean upperCase) {
+        return (upperCase ? UPPER_CASE : LOWER_CASE).formatHex(data);
+    }
+
+    static StringBuilder appendHex(StringBuilder out, byte[] data, boolean upperCase) {
+        return (upperCase ? UPPER_CASE : LOWER_CASE).formatHex(out, data);
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return (MessageDigest) SHA_256_PROTOTYPE.clone();
+        } catch (CloneNotSupportedException e) {
+            return lookUpSha256();
+        }
+    }
+
+    private static MessageDigest lookUpSha256() {
+        try {
+            return MessageDigest.getInstance(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SigningException(e);
+        }
+    }
+
+    static Checksum newCrc32c() {
+        return new CRC32C();
+    }
+
+    static boolean update(Checksum checksum, ByteBuffer buffer) {
+        checksum.update(buffer.duplicate());
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.junit.Test;
+import uk.co.lucasweb.aws.v4.signer.encoding.AsciiScanner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Richard Lucas
+ */
+public class AsciiScannerTest {
+
+    private final AsciiScanner scanner = AsciiScanner.scalar();
+
+    @Test
+    public void shouldUseScalarScannerWithoutProvider() {
+        assertThat(AsciiScanner.getInstance()).isSameAs(scanner);
+    }
+
+    @Test
+    public void shouldFindUnescapedPrefix() {
+        assertThat(scanner.unescapedPrefixLength("", true)).isEqualTo(0);
+        assertThat(scanner.unescapedPrefixLength("/photos/2013/my-photo_1.jpg~", true)).isEqualTo(28);
+        assertThat(scanner.unescapedPrefixLength("/photos/2013/my-photo_1.jpg~", false)).isEqualTo(0);
+        assertThat(scanner.unescapedPrefixLength("/photos/my photo.jpg", true)).isEqualTo(10);
+        assertThat(scanner.unescapedPrefixLength("AZaz09-._~/+", true)).isEqualTo(11);
+        assertThat(scanner.unescapedPrefixLength("abcé", true)).isEqualTo(3);
+        // characters whose code is an unreserved character plus 64 or 128 must not alias it in the bit mask
+        assertThat(scanner.unescapedPrefixLength("aa¡", true)).isEqualTo(2);
+        assertThat(scanner.unescapedPrefixLength("0p", false)).isEqualTo(2);
+        assertThat(scanner.unescapedPrefixLength("0p°", false)).isEqualTo(2);
+    }
+}
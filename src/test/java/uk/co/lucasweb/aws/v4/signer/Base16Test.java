@@ -35,4 +35,11 @@ public class Base16Test {
         assertThat(Base16.encode(data))
                 .isEqualTo("303132333435366162636465663233616263");
     }
+
+    @Test
+    public void shouldEncodeBytesInLowerCase() throws Exception {
+        byte[] data = {(byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 0x01};
+        assertThat(Base16.encodeLowerCase(data))
+                .isEqualTo("abcdef01");
+    }
 }
\ No newline at end of file
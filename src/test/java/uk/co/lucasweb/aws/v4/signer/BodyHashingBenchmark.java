@@ -0,0 +1,99 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.HashingOutputStream;
+import uk.co.lucasweb.aws.v4.signer.hash.HashingWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serialising a JSON body into a byte array and then hashing it with serialising it into a
+ * {@link HashingWriter}, which hashes it as it is written. The body is written in pieces, as JSON libraries do.
+ *
+ * @author Richard Lucas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyHashingBenchmark {
+
+    private static final String ITEM = "{\"Artist\":{\"S\":\"No One You Know\"},\"SongTitle\":{\"S\":\"Call Me Today\"},"
+            + "\"AlbumTitle\":{\"S\":\"Somewhat Famous\"},\"Awards\":{\"N\":\"1\"}},";
+
+    @Param({"1024", "65536"})
+    public int length;
+
+    private String[] pieces;
+
+    @Setup
+    public void setUp() {
+        pieces = new String[Math.max(1, length / ITEM.length())];
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = ITEM;
+        }
+    }
+
+    @Benchmark
+    public String serialiseThenHash() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            serialise(writer);
+        }
+        byte[] body = bytes.toByteArray();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        return Base16.encodeLowerCase(digest.digest(body)) + body.length;
+    }
+
+    @Benchmark
+    public String hashWhileSerialising() throws Exception {
+        HashingOutputStream body = new HashingOutputStream();
+        try {
+            try (Writer writer = new HashingWriter(body)) {
+                serialise(writer);
+            }
+            return body.getContentSha256() + body.size();
+        } finally {
+            body.release();
+        }
+    }
+
+    private void serialise(Writer writer) throws IOException {
+        writer.write('[');
+        for (String piece : pieces) {
+            writer.write(piece);
+        }
+        writer.write(']');
+    }
+}
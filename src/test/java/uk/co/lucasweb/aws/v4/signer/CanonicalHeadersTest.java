@@ -14,6 +14,10 @@ package uk.co.lucasweb.aws.v4.signer;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
@@ -34,6 +38,17 @@ public class CanonicalHeadersTest {
         assertThat(headers.get()).isEqualTo("hello:world\ntest:one,two\n");
     }
 
+    @Test
+    public void shouldNormalizeMultiLineValuesLikeSplitTrimAndCollapse() throws Exception {
+        String[] values = {"", " ", "\n", "\n\n", "a\n", "a\n\n", "\na", "a\n\nb", "a\n \n", " a  b \t",
+                "\t a \n  b   c\n\n", "a\r\nb", "a \u00a0 b", "  \n  "};
+        for (String value : values) {
+            assertThat(CanonicalHeaders.Builder.normalizeHeaderValue(value)).as("'%s'", value)
+                    .isEqualTo(String.join(",", Arrays.stream(value.split("\n"))
+                            .map(line -> line.trim().replaceAll(" +", " ")).toArray(String[]::new)));
+        }
+    }
+
     @Test
     public void shouldThrowIllegalArgumentExceptionIfNameIsNull() throws Exception {
         assertThatThrownBy(() -> CanonicalHeaders.builder()
@@ -73,4 +88,36 @@ public class CanonicalHeadersTest {
         assertThat(headers.getFirstValue("bad"))
                 .isEmpty();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldParseHeaderBlock() throws Exception {
+        ByteBuffer block = ByteBuffer.wrap(("Host: examplebucket.s3.amazonaws.com\r\n"
+                + "X-Amz-Meta-Test:  one  two \r\n"
+                + "x-amz-meta-test: three\n"
+                + "X-Amz-Meta-Folded: first\r\n"
+                + "\tsecond\r\n"
+                + "X-Amz-Meta-Unicode: caf\u00e9\r\n"
+                + "\r\n"
+                + "body").getBytes(StandardCharsets.UTF_8));
+        CanonicalHeaders.Builder builder = CanonicalHeaders.builder();
+
+        HeaderBlock.parse(block, builder);
+        CanonicalHeaders headers = builder.build();
+
+        assertThat(block.position()).isEqualTo(0);
+        assertThat(headers.getNames()).isEqualTo("host;x-amz-meta-folded;x-amz-meta-test;x-amz-meta-unicode");
+        assertThat(headers.get()).isEqualTo("host:examplebucket.s3.amazonaws.com\n"
+                + "x-amz-meta-folded:first,second\n"
+                + "x-amz-meta-test:one two,three\n"
+                + "x-amz-meta-unicode:caf\u00e9\n");
+    }
+
+    @Test
+    public void shouldRejectInvalidHeaderLine() throws Exception {
+        ByteBuffer block = ByteBuffer.wrap("Host : example.com\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        assertThatThrownBy(() -> HeaderBlock.parse(block, CanonicalHeaders.builder()))
+                .isExactlyInstanceOf(IllegalArgumentException.class)
+                .hasMessage("invalid header line: Host : example.com");
+    }
+}
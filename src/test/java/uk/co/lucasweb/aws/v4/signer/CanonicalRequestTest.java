@@ -66,4 +66,37 @@ public class CanonicalRequestTest {
         assertThat(new CanonicalRequest("s3", request, headers, hash).get())
                 .isEqualTo(EXPECTED_S3);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldRedateCanonicalRequest() throws Exception {
+        HttpRequest request = new HttpRequest("PUT", new URI("https://glacier.us-east-1.amazonaws.com/-/vaults///./examplevault"));
+        String hash = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+        CanonicalRequest original = new CanonicalRequest("glacier", request, CanonicalHeaders.builder()
+                .add("Host", "glacier.us-east-1.amazonaws.com")
+                .add("x-amz-date", "20120525T002453Z")
+                .add("x-amz-glacier-version", "2012-06-01")
+                .build(), hash);
+        CanonicalRequest expected = new CanonicalRequest("glacier", request, CanonicalHeaders.builder()
+                .add("Host", "glacier.us-east-1.amazonaws.com")
+                .add("x-amz-date", "20120526T000001Z")
+                .add("x-amz-glacier-version", "2012-06-01")
+                .build(), hash);
+
+        CanonicalRequest redated = original.withDate("20120526T000001Z");
+
+        assertThat(redated.get()).isEqualTo(expected.get());
+        assertThat(redated.getHash()).isEqualTo(expected.getHash());
+        assertThat(redated.withDate("20120525T002453Z").getHash()).isEqualTo(original.getHash());
+        assertThat(original.get()).isEqualTo(EXPECTED_GLACIER);
+    }
+
+    @Test(expected = SigningException.class)
+    public void shouldNotRedateCanonicalRequestWithoutDate() throws Exception {
+        HttpRequest request = new HttpRequest("GET", new URI("https://s3.us-east-1.amazonaws.com/photo.jpg"));
+        CanonicalHeaders headers = CanonicalHeaders.builder()
+                .add("Host", "s3.us-east-1.amazonaws.com")
+                .add("x-amz-date-suffix", "20120525T002453Z")
+                .build();
+        new CanonicalRequest("s3", request, headers, "UNSIGNED-PAYLOAD").withDate("20120526T000001Z");
+    }
+}
@@ -0,0 +1,39 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Richard Lucas
+ */
+public class CredentialScopeTest {
+
+    @Test
+    public void shouldGetScope() throws Exception {
+        CredentialScope scope = new CredentialScope("20120525", "glacier", "us-east-1");
+        assertThat(scope.get()).isEqualTo("20120525/us-east-1/glacier/aws4_request");
+        assertThat(scope.getBytes()).isEqualTo("20120525/us-east-1/glacier/aws4_request".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldInternScope() throws Exception {
+        CredentialScope scope = CredentialScope.of("20120525", "glacier", "us-east-1");
+        assertThat(CredentialScope.of("20120525", "glacier", "us-east-1")).isSameAs(scope);
+        assertThat(CredentialScope.of("20120526", "glacier", "us-east-1")).isNotSameAs(scope);
+    }
+}
@@ -0,0 +1,552 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.junit.Test;
+import uk.co.lucasweb.aws.v4.signer.credentials.AwsCredentials;
+import uk.co.lucasweb.aws.v4.signer.encoding.URLEncoding;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.Sha256;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Generates random requests and checks that every fast path of the signer agrees with {@link ReferenceSigner}, the
+ * original implementation.
+ * <p>
+ * Requests mix methods, paths with dot segments, empty segments, reserved, UTF-8 and unpaired surrogate characters,
+ * queries with repeated, empty and valueless parameters, and headers with repeated names and multi-line values. A
+ * failing request is minimised, by dropping headers and characters while the failure persists, before it is
+ * reported. Builds use a fixed seed, so that they are reproducible; run with {@code -Dfuzz.random=true} to fuzz with a
+ * new seed, {@code -Dfuzz.seed=...} to replay a reported failure and {@code -Dfuzz.iterations=...} to fuzz for longer.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+public class DifferentialFuzzTest {
+
+    private static final long DEFAULT_SEED = 20130524L;
+    private static final long SEED = Long.getLong("fuzz.seed", Boolean.getBoolean("fuzz.random") ? System.nanoTime() : DEFAULT_SEED);
+    private static final int ITERATIONS = Integer.getInteger("fuzz.iterations", 500);
+    private static final String ACCESS_KEY = "AKIDEXAMPLE";
+    private static final String SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+    private static final String X_AMZ_DATE = "x-amz-date";
+    private static final String[] SERVICES = {"s3", "service", "glacier"};
+    private static final String[] REGIONS = {"us-east-1", "eu-west-1"};
+    private static final String[] METHODS = {"GET", "PUT", "POST", "DELETE", "HEAD"};
+    private static final String[] SEGMENTS = {"", ".", "..", "%2F", "%", "a%20b"};
+    private static final String TOKEN_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_";
+    private static final String RESERVED_CHARS = " !\"#$&'()*+,/:;<=>?@[\\]^`{|}~.";
+    private static final String[] NON_ASCII = {"é", "ü", "中", "😀", "\ud800", "\u0000", "\u007f"};
+    private static final CanonicalPathCache PATH_CACHE = CanonicalPathCache.builder().maximumSize(64).build();
+    private static final Map<String, SigningContext> CONTEXTS = new HashMap<>();
+
+    @Test
+    public void urlEncodingShouldMatchReference() {
+        forAll("URL encoding", c -> firstMismatch(
+                compare("encodePath", () -> URLEncoding.encodePath(c.pathAndQuery),
+                        () -> ReferenceSigner.encodePath(c.pathAndQuery)),
+                compare("encodeQueryComponent", () -> URLEncoding.encodeQueryComponent(c.pathAndQuery),
+                        () -> ReferenceSigner.encodeQueryComponent(c.pathAndQuery))));
+    }
+
+    @Test
+    public void hashingShouldMatchReference() {
+        forAll("hashing", c -> {
+            byte[] bytes = c.pathAndQuery.getBytes(StandardCharsets.UTF_8);
+            return firstMismatch(
+                    compare("Base16.encode", () -> Base16.encode(bytes), () -> ReferenceSigner.base16(bytes)),
+                    compare("Base16.encodeLowerCase", () -> Base16.encodeLowerCase(bytes),
+                            () -> ReferenceSigner.base16(bytes).toLowerCase()),
+                    compare("Sha256.get", () -> Sha256.get(c.pathAndQuery, StandardCharsets.UTF_8),
+                            () -> ReferenceSigner.sha256(c.pathAndQuery)));
+        });
+    }
+
+    @Test
+    public void signatureShouldMatchReference() {
+        forAll("signature", c -> {
+            Supplier<Signer> signer = () -> c.signer(c.headers);
+            return firstMismatch(
+                    compare("canonical request", () -> signer.get().getCanonicalRequest(), c::referenceCanonicalRequest),
+                    compare("canonical request with cached path",
+                            () -> c.builder().canonicalPathCache(PATH_CACHE).headers(c.headers.toArray(new Header[0]))
+                                    .build(c.request(), c.service, c.contentSha256()).getCanonicalRequest(),
+                            c::referenceCanonicalRequest),
+                    compare("string to sign", () -> signer.get().getStringToSign(), c::referenceStringToSign),
+                    compare("signature", () -> signer.get().getSignature(), c::referenceAuthorization),
+                    compare("signing context signature", c::signWithContext, c::referenceAuthorization));
+        });
+    }
+
+    @Test
+    public void retriedSignatureShouldMatchReference() {
+        forAll("retried signature", c -> {
+            Case retried = c.withDate(c.retryDate);
+            Supplier<Signer> signer = () -> c.signer(c.headers).withDate(c.retryDate);
+            return firstMismatch(
+                    compare("canonical request", () -> signer.get().getCanonicalRequest(),
+                            retried::referenceCanonicalRequest),
+                    compare("signature", () -> signer.get().getSignature(), retried::referenceAuthorization));
+        });
+    }
+
+    @Test
+    public void headerBlockShouldMatchHeaders() {
+        forAll("header block", c -> {
+            if (!c.isHeaderBlockSafe()) {
+                return null;
+            }
+            return compare("canonical request", () -> c.signerFromHeaderBlock().getCanonicalRequest(),
+                    c::referenceCanonicalRequest);
+        });
+    }
+
+    @Test
+    public void requestLineShouldMatchPathAndQuery() {
+        forAll("request line", c -> {
+            if (!c.isRequestLineSafe()) {
+                return null;
+            }
+            HttpRequest expected = new HttpRequest(c.method, c.pathAndQuery);
+            Supplier<HttpRequest> actual = () -> HttpRequest.of(ByteBuffer.wrap(
+                    (c.method + " " + c.pathAndQuery + " HTTP/1.1\r\n").getBytes(StandardCharsets.US_ASCII)));
+            return firstMismatch(
+                    compare("method", () -> actual.get().getMethod(), expected::getMethod),
+                    compare("path", () -> actual.get().getPath(), expected::getPath),
+                    compare("query", () -> actual.get().getQuery(), expected::getQuery));
+        });
+    }
+
+    @Test
+    public void shouldMinimiseFailingCase() {
+        Function<Case, String> property = c -> c.pathAndQuery.indexOf('x') >= 0 ? "contains x" : null;
+        Random random = new Random(SEED);
+        Case failing;
+        do {
+            failing = Case.generate(random);
+        } while (property.apply(failing) == null || failing.headers.size() < 3);
+
+        Case minimised = minimise(failing, property);
+
+        assertThat(minimised.pathAndQuery).isEqualTo("x");
+        assertThat(minimised.headers).hasSize(1);
+        assertThat(minimised.headers.get(0).getName()).isEqualToIgnoringCase(X_AMZ_DATE);
+    }
+
+    private static void forAll(String description, Function<Case, String> property) {
+        Random random = new Random(SEED);
+        for (int i = 0; i < ITERATIONS; i++) {
+            Case generated = Case.generate(random);
+            if (property.apply(generated) != null) {
+                Case minimised = minimise(generated, property);
+                fail(description + " differs from the reference (-Dfuzz.seed=" + SEED + ", iteration " + i + ")\n"
+                        + minimised + "\n" + property.apply(minimised));
+            }
+        }
+    }
+
+    /**
+     * Greedily replaces the case by the first of its simplifications that still fails, until none does.
+     */
+    static Case minimise(Case failing, Function<Case, String> property) {
+        Case current = failing;
+        boolean shrunk = true;
+        while (shrunk) {
+            shrunk = false;
+            for (Case candidate : current.shrinks()) {
+                if (property.apply(candidate) != null) {
+                    current = candidate;
+                    shrunk = true;
+                    break;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static String firstMismatch(String... mismatches) {
+        for (String mismatch : mismatches) {
+            if (mismatch != null) {
+                return mismatch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares the outcomes of both sides, a thrown exception being an outcome like any value.
+     */
+    private static String compare(String what, Supplier<?> actual, Supplier<?> expected) {
+        String actualOutcome = outcome(actual);
+        String expectedOutcome = outcome(expected);
+        if (Objects.equals(actualOutcome, expectedOutcome)) {
+            return null;
+        }
+        return what + ":\n  expected: " + Case.quote(expectedOutcome) + "\n  actual:   " + Case.quote(actualOutcome);
+    }
+
+    private static String outcome(Supplier<?> supplier) {
+        try {
+            return String.valueOf(supplier.get());
+        } catch (RuntimeException e) {
+            return "threw " + e.getClass().getSimpleName();
+        }
+    }
+
+    static final class Case {
+        private final String service;
+        private final String region;
+        private final String method;
+        private final String pathAndQuery;
+        private final List<Header> headers;
+        private final String retryDate;
+
+        private Case(String service, String region, String method, String pathAndQuery, List<Header> headers,
+                     String retryDate) {
+            this.service = service;
+            this.region = region;
+            this.method = method;
+            this.pathAndQuery = pathAndQuery;
+            this.headers = Collections.unmodifiableList(headers);
+            this.retryDate = retryDate;
+        }
+
+        static Case generate(Random random) {
+            List<Header> headers = new ArrayList<>();
+            int count = random.nextInt(6);
+            for (int i = 0; i < count; i++) {
+                String name = token(random, 1 + random.nextInt(12));
+                if (random.nextInt(4) == 0 && !headers.isEmpty()) {
+                    // repeat a name, possibly with another case
+                    name = randomCase(random, headers.get(random.nextInt(headers.size())).getName());
+                }
+                if (!name.equalsIgnoreCase(X_AMZ_DATE)) {
+                    headers.add(new Header(name, headerValue(random)));
+                }
+            }
+            headers.add(random.nextInt(headers.size() + 1), new Header(randomCase(random, X_AMZ_DATE), date(random)));
+            return new Case(pick(random, SERVICES), pick(random, REGIONS),
+                    random.nextInt(8) == 0 ? token(random, 1 + random.nextInt(6)) : pick(random, METHODS),
+                    path(random) + query(random), headers, date(random));
+        }
+
+        Case withDate(String date) {
+            List<Header> redated = new ArrayList<>(headers);
+            redated.replaceAll(h -> h.getName().equalsIgnoreCase(X_AMZ_DATE) ? new Header(h.getName(), date) : h);
+            return new Case(service, region, method, pathAndQuery, redated, retryDate);
+        }
+
+        Signer signer(List<Header> headers) {
+            Signer.Builder builder = builder();
+            for (Header header : headers) {
+                builder.header(header.getName(), header.getValue());
+            }
+            return builder.build(request(), service, contentSha256());
+        }
+
+        String signWithContext() {
+            // contexts are reused across cases, as they would be across requests
+            SigningContext context = CONTEXTS.computeIfAbsent(service + '/' + region, key -> SigningContext.builder()
+                    .awsCredentials(new AwsCredentials(ACCESS_KEY, SECRET_KEY)).region(region).service(service).build());
+            for (Header header : headers) {
+                context.header(header.getName(), header.getValue());
+            }
+            StringBuilder authorization = new StringBuilder();
+            context.sign(request(), contentSha256(), authorization);
+            return authorization.toString();
+        }
+
+        Signer signerFromHeaderBlock() {
+            StringBuilder block = new StringBuilder();
+            String lineEnd = pathAndQuery.length() % 2 == 0 ? "\r\n" : "\n";
+            for (Header header : headers) {
+                String[] lines = header.getValue().split("\n", -1);
+                block.append(header.getName()).append(": ").append(lines[0]).append(lineEnd);
+                for (int i = 1; i < lines.length; i++) {
+                    block.append(' ').append(lines[i]).append(lineEnd);
+                }
+            }
+            block.append(lineEnd);
+            return builder()
+                    .headers(ByteBuffer.wrap(block.toString().getBytes(StandardCharsets.US_ASCII)))
+                    .build(request(), service, contentSha256());
+        }
+
+        /**
+         * Folded lines are trimmed on the wire, so a value ending with lines made only of whitespace, which the
+         * canonical headers would keep as empty values, has no wire form; neither have non ASCII values.
+         */
+        boolean isHeaderBlockSafe() {
+            for (Header header : headers) {
+                String value = header.getValue();
+                if (!isAscii(value) || value.indexOf('\r') >= 0
+                        || value.split("\n").length != value.replaceAll("[ \t]+(\n|$)", "$1").split("\n").length) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isRequestLineSafe() {
+            return isAscii(method) && isAscii(pathAndQuery) && pathAndQuery.indexOf(' ') < 0
+                    && pathAndQuery.indexOf('\n') < 0 && pathAndQuery.indexOf('\r') < 0;
+        }
+
+        String referenceCanonicalRequest() {
+            return ReferenceSigner.canonicalRequest(service, method, pathAndQuery, headers, contentSha256());
+        }
+
+        String referenceStringToSign() {
+            String date = date();
+            return ReferenceSigner.stringToSign(date, date.substring(0, 8) + "/" + region + "/" + service
+                    + "/aws4_request", referenceCanonicalRequest());
+        }
+
+        String referenceAuthorization() {
+            return ReferenceSigner.authorization(ACCESS_KEY, SECRET_KEY, region, service, method, pathAndQuery, headers,
+                    contentSha256());
+        }
+
+        /**
+         * @return simpler variants of this case, the most aggressive first
+         */
+        List<Case> shrinks() {
+            List<Case> shrinks = new ArrayList<>();
+            for (int i = 0; i < headers.size(); i++) {
+                if (!headers.get(i).getName().equalsIgnoreCase(X_AMZ_DATE)) {
+                    List<Header> fewer = new ArrayList<>(headers);
+                    fewer.remove(i);
+                    shrinks.add(new Case(service, region, method, pathAndQuery, fewer, retryDate));
+                }
+            }
+            for (String shorter : shrink(pathAndQuery)) {
+                shrinks.add(new Case(service, region, method, shorter, headers, retryDate));
+            }
+            if (!"GET".equals(method)) {
+                shrinks.add(new Case(service, region, "GET", pathAndQuery, headers, retryDate));
+            }
+            for (int i = 0; i < headers.size(); i++) {
+                Header header = headers.get(i);
+                if (header.getName().equalsIgnoreCase(X_AMZ_DATE)) {
+                    continue;
+                }
+                for (String shorter : shrink(header.getValue())) {
+                    List<Header> simpler = new ArrayList<>(headers);
+                    simpler.set(i, new Header(header.getName(), shorter));
+                    shrinks.add(new Case(service, region, method, pathAndQuery, simpler, retryDate));
+                }
+                for (String shorter : shrink(header.getName())) {
+                    if (!shorter.isEmpty() && !shorter.equalsIgnoreCase(X_AMZ_DATE)) {
+                        List<Header> simpler = new ArrayList<>(headers);
+                        simpler.set(i, new Header(shorter, header.getValue()));
+                        shrinks.add(new Case(service, region, method, pathAndQuery, simpler, retryDate));
+                    }
+                }
+            }
+            return shrinks;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder()
+                    .append("service=").append(service).append(", region=").append(region)
+                    .append(", method=").append(quote(method)).append(", retryDate=").append(retryDate)
+                    .append("\n  pathAndQuery=").append(quote(pathAndQuery));
+            for (Header header : headers) {
+                builder.append("\n  header ").append(quote(header.getName())).append(": ").append(quote(header.getValue()));
+            }
+            return builder.toString();
+        }
+
+        static String quote(String value) {
+            StringBuilder builder = new StringBuilder("\"");
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c == '\n') {
+                    builder.append("\\n");
+                } else if (c < 0x20 || c > 0x7e) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+            return builder.append('"').toString();
+        }
+
+        private HttpRequest request() {
+            return new HttpRequest(method, pathAndQuery);
+        }
+
+        private Signer.Builder builder() {
+            return Signer.builder().awsCredentials(new AwsCredentials(ACCESS_KEY, SECRET_KEY)).region(region);
+        }
+
+        private String date() {
+            for (Header header : headers) {
+                if (header.getName().equalsIgnoreCase(X_AMZ_DATE)) {
+                    return header.getValue();
+                }
+            }
+            throw new IllegalStateException("no date");
+        }
+
+        private String contentSha256() {
+            return ReferenceSigner.sha256(method);
+        }
+
+        private static List<String> shrink(String value) {
+            List<String> shrinks = new ArrayList<>();
+            int length = value.length();
+            if (length == 0) {
+                return shrinks;
+            }
+            shrinks.add("");
+            if (length > 1) {
+                shrinks.add(value.substring(0, length / 2));
+                shrinks.add(value.substring(length / 2));
+            }
+            int step = Math.max(1, length / 16);
+            for (int i = 0; i < length; i += step) {
+                shrinks.add(value.substring(0, i) + value.substring(Math.min(length, i + step)));
+            }
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c > 0x7e || (c < 0x20 && c != '\n')) {
+                    shrinks.add(value.substring(0, i) + 'a' + value.substring(i + 1));
+                }
+            }
+            return shrinks;
+        }
+
+        private static String path(Random random) {
+            StringBuilder path = new StringBuilder();
+            int segments = random.nextInt(6);
+            for (int i = 0; i < segments; i++) {
+                path.append('/');
+                if (random.nextInt(3) == 0) {
+                    path.append(pick(random, SEGMENTS));
+                } else {
+                    path.append(text(random, random.nextInt(10)));
+                }
+            }
+            if (path.length() == 0 || random.nextInt(4) == 0) {
+                path.append('/');
+            }
+            return path.toString();
+        }
+
+        private static String query(Random random) {
+            if (random.nextInt(3) == 0) {
+                return "";
+            }
+            StringBuilder query = new StringBuilder("?");
+            int parameters = random.nextInt(5);
+            String previous = "a";
+            for (int i = 0; i < parameters; i++) {
+                if (i > 0) {
+                    query.append('&');
+                }
+                String name = random.nextInt(4) == 0 ? previous : text(random, random.nextInt(6));
+                previous = name;
+                query.append(name.replace("=", "").replace("&", ""));
+                if (random.nextInt(4) != 0) {
+                    query.append('=').append(text(random, random.nextInt(8)));
+                }
+            }
+            return query.toString();
+        }
+
+        private static String headerValue(Random random) {
+            StringBuilder value = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int i = 0; i < length; i++) {
+                switch (random.nextInt(8)) {
+                    case 0:
+                        value.append(' ');
+                        break;
+                    case 1:
+                        value.append(random.nextBoolean() ? "\n" : "\t");
+                        break;
+                    default:
+                        value.append(text(random, 1));
+                }
+            }
+            return value.toString();
+        }
+
+        private static String text(Random random, int length) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                int kind = random.nextInt(10);
+                if (kind < 6) {
+                    text.append(TOKEN_CHARS.charAt(random.nextInt(TOKEN_CHARS.length())));
+                } else if (kind < 9) {
+                    text.append(RESERVED_CHARS.charAt(random.nextInt(RESERVED_CHARS.length())));
+                } else {
+                    text.append(pick(random, NON_ASCII));
+                }
+            }
+            return text.toString();
+        }
+
+        private static String token(Random random, int length) {
+            StringBuilder token = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                token.append(TOKEN_CHARS.charAt(random.nextInt(TOKEN_CHARS.length())));
+            }
+            return token.toString();
+        }
+
+        private static String randomCase(Random random, String value) {
+            StringBuilder builder = new StringBuilder(value.length());
+            for (char c : value.toCharArray()) {
+                builder.append(random.nextBoolean() ? Character.toUpperCase(c) : Character.toLowerCase(c));
+            }
+            return builder.toString();
+        }
+
+        private static String date(Random random) {
+            return String.format("20%02d%02d%02dT%02d%02d%02dZ", 10 + random.nextInt(20), 1 + random.nextInt(12),
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60));
+        }
+
+        private static boolean isAscii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) > 0x7e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String pick(Random random, String[] values) {
+            return values[random.nextInt(values.length)];
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.lucasweb.aws.v4.signer.encoding.URLEncoding;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm;
+import uk.co.lucasweb.aws.v4.signer.hash.PayloadChecksum;
+import uk.co.lucasweb.aws.v4.signer.hash.Sha256;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hot paths that have a Java 17 version in the multi-release jar. Run it once against
+ * {@code target/classes} for the Java 8 versions and once against the packaged jar, on Java 17 or later, for the
+ * Java 17 versions; see the README.
+ *
+ * @author Richard Lucas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+
+    private static final String CANONICAL_REQUEST = "GET\n/photos/2013/05/24/photo.jpg\nversionId=3\n"
+            + "host:examplebucket.s3.amazonaws.com\nx-amz-content-sha256:UNSIGNED-PAYLOAD\nx-amz-date:20130524T000000Z\n\n"
+            + "host;x-amz-content-sha256;x-amz-date\nUNSIGNED-PAYLOAD";
+    private static final String PLAIN_PATH = "/photos/2013/05/24/photo.jpg";
+    private static final String ESCAPED_PATH = "/photos/2013/05/24/my photo (1).jpg";
+
+    private byte[] digest;
+    private ByteBuffer payload;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        digest = new byte[32];
+        random.nextBytes(digest);
+        byte[] bytes = new byte[64 * 1024];
+        random.nextBytes(bytes);
+        payload = ByteBuffer.allocateDirect(bytes.length);
+        payload.put(bytes).flip();
+    }
+
+    @Benchmark
+    public String hexEncode() {
+        return Base16.encodeLowerCase(digest);
+    }
+
+    @Benchmark
+    public String sha256CanonicalRequest() {
+        return Sha256.get(CANONICAL_REQUEST, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String crc32cDirect64k() {
+        PayloadChecksum checksum = ChecksumAlgorithm.CRC32C.newChecksum();
+        checksum.update(payload);
+        return checksum.getBase64();
+    }
+
+    @Benchmark
+    public String urlEncodePlainPath() {
+        return URLEncoding.encodePath(PLAIN_PATH);
+    }
+
+    @Benchmark
+    public String urlEncodeEscapedPath() {
+        return URLEncoding.encodePath(ESCAPED_PATH);
+    }
+}
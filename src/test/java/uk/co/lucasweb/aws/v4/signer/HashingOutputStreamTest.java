@@ -0,0 +1,186 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.junit.Test;
+import uk.co.lucasweb.aws.v4.signer.hash.HashingOutputStream;
+import uk.co.lucasweb.aws.v4.signer.hash.HashingWriter;
+import uk.co.lucasweb.aws.v4.signer.hash.Sha256;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Richard Lucas
+ */
+public class HashingOutputStreamTest {
+
+    private static final String BODY = "{\"TableName\":\"Music\",\"Key\":{\"Artist\":{\"S\":\"No One You Know\"}}}";
+
+    @Test
+    public void shouldHashAndKeepTheBody() throws Exception {
+        HashingOutputStream body = new HashingOutputStream();
+        try {
+            body.write(BODY.getBytes(StandardCharsets.UTF_8));
+
+            assertThat(body.getContentSha256()).isEqualTo(Sha256.get(BODY, StandardCharsets.UTF_8));
+            assertThat(body.size()).isEqualTo(BODY.length());
+            assertThat(new String(body.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(BODY);
+            ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            body.writeTo(sent);
+            assertThat(sent.toString("UTF-8")).isEqualTo(BODY);
+        } finally {
+            body.release();
+        }
+    }
+
+    @Test
+    public void shouldHashAnEmptyBody() {
+        HashingOutputStream body = new HashingOutputStream();
+        assertThat(body.getContentSha256()).isEqualTo("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+        assertThat(body.getBody().remaining()).isZero();
+        body.release();
+    }
+
+    @Test
+    public void shouldHashBodiesWrittenInPiecesOfAnySize() throws Exception {
+        Random random = new Random(42);
+        for (int length : new int[]{1, 4095, 4096, 8191, 8192, 8193, 100_000, 2_000_000}) {
+            byte[] expected = new byte[length];
+            random.nextBytes(expected);
+            HashingOutputStream body = new HashingOutputStream();
+            try {
+                int offset = 0;
+                while (offset < length) {
+                    if (random.nextInt(4) == 0) {
+                        body.write(expected[offset++]);
+                    } else {
+                        int piece = Math.min(length - offset, random.nextInt(20_000));
+                        body.write(expected, offset, piece);
+                        offset += piece;
+                    }
+                }
+                body.close();
+
+                assertThat(body.getContentSha256()).as("length %d", length).isEqualTo(sha256(expected));
+                assertThat(body.toByteArray()).isEqualTo(expected);
+            } finally {
+                body.release();
+            }
+        }
+    }
+
+    @Test
+    public void shouldExposeTheBodyReadOnly() {
+        HashingOutputStream body = new HashingOutputStream();
+        body.write(new byte[]{1, 2, 3}, 1, 2);
+        ByteBuffer view = body.getBody();
+        assertThat(view.remaining()).isEqualTo(2);
+        assertThat(view.get(0)).isEqualTo((byte) 2);
+        try {
+            view.put(0, (byte) 0);
+            fail("expected a read-only buffer");
+        } catch (ReadOnlyBufferException e) {
+            // expected
+        }
+        body.release();
+    }
+
+    @Test
+    public void shouldRejectWritesOnceTheBodyHasEnded() {
+        HashingOutputStream body = new HashingOutputStream();
+        body.write(1);
+        body.getContentSha256();
+        try {
+            body.write(2);
+            fail("expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("the body has been closed");
+        }
+        body.release();
+    }
+
+    @Test
+    public void shouldRejectUseOnceReleased() {
+        HashingOutputStream body = new HashingOutputStream();
+        body.write(1);
+        body.release();
+        body.release();
+        try {
+            body.getBody();
+            fail("expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("the body has been released");
+        }
+    }
+
+    @Test
+    public void shouldEncodeCharactersLikeStringGetBytes() throws Exception {
+        String[] values = {
+                BODY,
+                "café € 中文 😀 end",
+                "unpaired \ud83d high and \ude00 low surrogates",
+                "trailing high surrogate \ud83d",
+        };
+        for (String value : values) {
+            HashingOutputStream body = new HashingOutputStream();
+            try (HashingWriter writer = new HashingWriter(body)) {
+                writer.write(value);
+            }
+            assertThat(body.toByteArray()).as(value).isEqualTo(value.getBytes(StandardCharsets.UTF_8));
+            assertThat(body.getContentSha256()).isEqualTo(Sha256.get(value, StandardCharsets.UTF_8));
+            body.release();
+        }
+    }
+
+    @Test
+    public void shouldEncodeSurrogatePairsSplitAcrossWrites() throws Exception {
+        String value = "a😀bé" + repeat('x', 20_000) + "😁";
+        Random random = new Random(7);
+        HashingOutputStream body = new HashingOutputStream();
+        try (HashingWriter writer = new HashingWriter(body)) {
+            writer.write("\ud83d");
+            writer.write('\ude00');
+            int offset = 0;
+            while (offset < value.length()) {
+                int piece = Math.min(value.length() - offset, 1 + random.nextInt(3000));
+                if (random.nextBoolean()) {
+                    writer.write(value.toCharArray(), offset, piece);
+                } else {
+                    writer.write(value, offset, piece);
+                }
+                offset += piece;
+            }
+        }
+        assertThat(body.toByteArray()).isEqualTo(("😀" + value).getBytes(StandardCharsets.UTF_8));
+        body.release();
+    }
+
+    private static String sha256(byte[] bytes) {
+        return Sha256.get(new String(bytes, StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
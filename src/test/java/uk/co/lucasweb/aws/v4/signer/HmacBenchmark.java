@@ -0,0 +1,102 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.lucasweb.aws.v4.signer.hash.HmacSha256;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares HMAC-SHA256 through the JCA {@link Mac}, initialised per signature or kept initialised, with
+ * {@link HmacSha256} starting from the saved states of a {@link HmacSha256.Key}, for the length of a derivation step,
+ * of a SigV4 string to sign and of a large chunk. The results decide which path each signature uses; see the README.
+ *
+ * @author Richard Lucas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacBenchmark {
+
+    @Param({"32", "150", "8192"})
+    public int length;
+
+    private byte[] rawKey;
+    private byte[] message;
+    private Mac mac;
+    private HmacSha256.Key key;
+    private HmacSha256 hmac;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        rawKey = new byte[32];
+        random.nextBytes(rawKey);
+        message = new byte[length];
+        random.nextBytes(message);
+        mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(rawKey, "HmacSHA256"));
+        key = new HmacSha256.Key(rawKey);
+        hmac = new HmacSha256().init(key);
+    }
+
+    @Benchmark
+    public byte[] jcaNewMac() throws Exception {
+        Mac newMac = Mac.getInstance("HmacSHA256");
+        newMac.init(new SecretKeySpec(rawKey, "HmacSHA256"));
+        return newMac.doFinal(message);
+    }
+
+    @Benchmark
+    public byte[] jcaReusedMac() {
+        return mac.doFinal(message);
+    }
+
+    @Benchmark
+    public byte[] midstatesNewInstance() {
+        HmacSha256 newHmac = new HmacSha256().init(key);
+        newHmac.update(message);
+        return newHmac.doFinal();
+    }
+
+    @Benchmark
+    public byte[] midstatesReusedInstance() {
+        hmac.update(message);
+        return hmac.doFinal();
+    }
+
+    @Benchmark
+    public byte[] midstatesNewKey() {
+        // a key used once, as the intermediate keys of a signing key derivation are
+        HmacSha256 newHmac = new HmacSha256().init(new HmacSha256.Key(rawKey));
+        newHmac.update(message);
+        return newHmac.doFinal();
+    }
+}
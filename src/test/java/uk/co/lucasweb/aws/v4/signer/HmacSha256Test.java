@@ -0,0 +1,149 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.junit.Test;
+import uk.co.lucasweb.aws.v4.signer.hash.Base16;
+import uk.co.lucasweb.aws.v4.signer.hash.HmacSha256;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Richard Lucas
+ */
+public class HmacSha256Test {
+
+    @Test
+    public void shouldMatchRfc4231TestCases() throws Exception {
+        // test cases 1, 2 and 6 of RFC 4231: a short key, a key shorter than the output and a key longer than a block
+        assertThat(hmac(repeat((byte) 0x0b, 20), "Hi There".getBytes(StandardCharsets.US_ASCII)))
+                .isEqualTo("b0344c61d8db38535ca8afceaf0bf12b881dc200c9833da726e9376c2e32cff7");
+        assertThat(hmac("Jefe".getBytes(StandardCharsets.US_ASCII), "what do ya want for nothing?".getBytes(StandardCharsets.US_ASCII)))
+                .isEqualTo("5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843");
+        assertThat(hmac(repeat((byte) 0xaa, 131), "Test Using Larger Than Block-Size Key - Hash Key First".getBytes(StandardCharsets.US_ASCII)))
+                .isEqualTo("60e431591ee0b67f0d8a26aacbf5b77f8e0bc6213728c5140546040f0ee37f54");
+    }
+
+    @Test
+    public void shouldMatchJcaForAllKeyAndMessageLengths() throws Exception {
+        Random random = new Random(42);
+        HmacSha256 hmac = new HmacSha256();
+        for (int keyLength = 0; keyLength <= 140; keyLength += 7) {
+            byte[] key = new byte[keyLength];
+            random.nextBytes(key);
+            hmac.init(new HmacSha256.Key(key));
+            Mac mac = jcaMac(key);
+            for (int length = 0; length <= 300; length++) {
+                byte[] message = new byte[length];
+                random.nextBytes(message);
+                // feed the engine in uneven pieces to cross block boundaries in every possible way
+                int offset = 0;
+                while (offset < length) {
+                    int piece = Math.min(length - offset, random.nextInt(80));
+                    if (piece == 1) {
+                        hmac.update(message[offset]);
+                    } else {
+                        hmac.update(message, offset, piece);
+                    }
+                    offset += piece;
+                }
+                byte[] expected = mac.doFinal(message);
+                assertThat(hmac.doFinal()).as("key length %s, message length %s", keyLength, length).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteMacAtOffset() {
+        HmacSha256 hmac = new HmacSha256().init(new HmacSha256.Key("key".getBytes(StandardCharsets.US_ASCII)));
+        byte[] output = new byte[HmacSha256.LENGTH + 3];
+        hmac.update("message".getBytes(StandardCharsets.US_ASCII));
+        hmac.doFinal(output, 3);
+        hmac.update("message".getBytes(StandardCharsets.US_ASCII));
+        assertThat(Arrays.copyOfRange(output, 3, output.length)).isEqualTo(hmac.doFinal());
+    }
+
+    @Test
+    public void shouldRejectDestroyedKey() {
+        HmacSha256.Key key = new HmacSha256.Key("key".getBytes(StandardCharsets.US_ASCII));
+        key.destroy();
+        assertThat(key.isDestroyed()).isTrue();
+        try {
+            new HmacSha256().init(key).update((byte) 0);
+            fail("expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("key has been destroyed");
+        }
+    }
+
+    @Test
+    public void shouldKeepSigningWithCopyOfDestroyedKey() {
+        HmacSha256.Key key = new HmacSha256.Key("key".getBytes(StandardCharsets.US_ASCII));
+        HmacSha256.Key copy = key.copy();
+        HmacSha256 hmac = new HmacSha256().init(key);
+        hmac.update((byte) 'a');
+        byte[] expected = hmac.doFinal();
+        key.destroy();
+        hmac.init(copy).update((byte) 'a');
+        assertThat(hmac.doFinal()).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldCompleteMessageStartedBeforeKeyWasDestroyed() {
+        HmacSha256.Key key = new HmacSha256.Key("key".getBytes(StandardCharsets.US_ASCII));
+        byte[] expected = new HmacSha256().init(key.copy()).doFinal();
+        HmacSha256 hmac = new HmacSha256().init(key);
+        hmac.update(new byte[0]);
+
+        key.destroy();
+
+        assertThat(hmac.doFinal()).isEqualTo(expected);
+        try {
+            hmac.update((byte) 0);
+            fail("expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("key has been destroyed");
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRequireKey() {
+        new HmacSha256().doFinal();
+    }
+
+    private static String hmac(byte[] key, byte[] message) {
+        HmacSha256 hmac = new HmacSha256().init(new HmacSha256.Key(key));
+        hmac.update(message);
+        return Base16.encodeLowerCase(hmac.doFinal());
+    }
+
+    private static Mac jcaMac(byte[] key) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        // the JCA rejects empty keys; HMAC pads keys with zeros, so a single zero byte is the same key
+        mac.init(new SecretKeySpec(key.length == 0 ? new byte[1] : key, "HmacSHA256"));
+        return mac;
+    }
+
+    private static byte[] repeat(byte value, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+}
@@ -15,8 +15,11 @@ package uk.co.lucasweb.aws.v4.signer;
 import org.junit.Test;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * @author Richard Lucas
@@ -34,4 +37,45 @@ public class HttpRequestTest {
         assertThat(new HttpRequest("GET", new URI("http://localhost/test?test=one&hello=world")).getQuery())
                 .isEqualTo("test=one&hello=world");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldReadRequestLine() throws Exception {
+        ByteBuffer requestLine = ascii("GET /photos/photo%20one.jpg?versionId=1&acl HTTP/1.1\r\n");
+
+        HttpRequest request = HttpRequest.of(requestLine);
+
+        assertThat(request.getMethod()).isEqualTo("GET");
+        assertThat(request.getPath()).isEqualTo("/photos/photo%20one.jpg");
+        assertThat(request.getQuery()).isEqualTo("versionId=1&acl");
+        assertThat(requestLine.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReadAbsoluteFormRequestLine() throws Exception {
+        HttpRequest request = HttpRequest.of(ascii("PUT http://localhost:9000/bucket/key HTTP/1.1"));
+
+        assertThat(request.getPath()).isEqualTo("/bucket/key");
+        assertThat(request.getQuery()).isNull();
+    }
+
+    @Test
+    public void shouldMatchUriParsing() throws Exception {
+        URI uri = new URI("https://examplebucket.s3.amazonaws.com/test%24file.text?max-keys=2&prefix=J");
+        HttpRequest request = HttpRequest.of(ascii("GET " + uri.getRawPath() + "?" + uri.getRawQuery() + " HTTP/1.1"));
+        HttpRequest expected = new HttpRequest("GET", uri);
+
+        assertThat(request.getPath()).isEqualTo(expected.getPath());
+        assertThat(request.getQuery()).isEqualTo(expected.getQuery());
+    }
+
+    @Test
+    public void shouldRejectRequestLineWithoutTarget() throws Exception {
+        assertThatThrownBy(() -> HttpRequest.of(ascii("GET\r\n")))
+                .isExactlyInstanceOf(IllegalArgumentException.class)
+                .hasMessage("invalid request line: GET");
+    }
+
+    private static ByteBuffer ascii(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+    }
+}
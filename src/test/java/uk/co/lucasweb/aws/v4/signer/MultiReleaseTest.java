@@ -0,0 +1,98 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the Java 17 layer of the multi-release jar behaves like the Java 8 classes, which are the ones the
+ * other tests run against. Skipped when the layer has not been built, i.e. on JDKs older than 17.
+ *
+ * @author Richard Lucas
+ */
+public class MultiReleaseTest {
+
+    private static final File CLASSES = new File("target/classes");
+    private static final File JAVA_17_CLASSES = new File(CLASSES, "META-INF/versions/17");
+
+    private static ClassLoader java17Layer() throws Exception {
+        Assume.assumeTrue("the Java 17 layer is only built on Java 17 or later", JAVA_17_CLASSES.isDirectory());
+        // the versioned directory comes first, as a multi-release jar resolves classes on Java 17
+        return new URLClassLoader(new URL[]{JAVA_17_CLASSES.toURI().toURL(), CLASSES.toURI().toURL()},
+                ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    @Test
+    public void shouldLoadJava17Layer() throws Exception {
+        Class<?> platform = java17Layer().loadClass("uk.co.lucasweb.aws.v4.signer.hash.Platform");
+
+        assertThat(platform.getProtectionDomain().getCodeSource().getLocation())
+                .isEqualTo(JAVA_17_CLASSES.toURI().toURL());
+    }
+
+    @Test
+    public void shouldEncodeHexLikeJava8() throws Exception {
+        Class<?> base16 = java17Layer().loadClass("uk.co.lucasweb.aws.v4.signer.hash.Base16");
+        byte[] data = new byte[256];
+        new Random(7).nextBytes(data);
+
+        assertThat(base16.getMethod("encode", byte[].class).invoke(null, (Object) data))
+                .isEqualTo(uk.co.lucasweb.aws.v4.signer.hash.Base16.encode(data));
+        assertThat(base16.getMethod("encodeLowerCase", byte[].class).invoke(null, (Object) data))
+                .isEqualTo(uk.co.lucasweb.aws.v4.signer.hash.Base16.encodeLowerCase(data));
+    }
+
+    @Test
+    public void shouldHashLikeJava8() throws Exception {
+        Class<?> sha256 = java17Layer().loadClass("uk.co.lucasweb.aws.v4.signer.hash.Sha256");
+        Method get = sha256.getMethod("get", String.class, Charset.class);
+
+        for (String value : new String[]{"", "Welcome to Amazon S3.", "café"}) {
+            assertThat(get.invoke(null, value, StandardCharsets.UTF_8))
+                    .isEqualTo(uk.co.lucasweb.aws.v4.signer.hash.Sha256.get(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void shouldChecksumDirectBuffersLikeJava8() throws Exception {
+        ClassLoader loader = java17Layer();
+        byte[] bytes = new byte[100_000];
+        new Random(7).nextBytes(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        Class<?> algorithms = loader.loadClass("uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm");
+        Class<?> checksums = loader.loadClass("uk.co.lucasweb.aws.v4.signer.hash.PayloadChecksum");
+        for (uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm algorithm : uk.co.lucasweb.aws.v4.signer.hash.ChecksumAlgorithm.values()) {
+            Object checksum = algorithms.getMethod("newChecksum").invoke(algorithms.getField(algorithm.name()).get(null));
+            checksums.getMethod("update", ByteBuffer.class).invoke(checksum, direct);
+
+            uk.co.lucasweb.aws.v4.signer.hash.PayloadChecksum expected = algorithm.newChecksum();
+            expected.update(bytes, 0, bytes.length);
+            assertThat(checksums.getMethod("getBase64").invoke(checksum)).isEqualTo(expected.getBase64());
+            assertThat(direct.position()).isEqualTo(0);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * The signing algorithm as it was implemented before any optimisation, kept as the oracle of
+ * {@link DifferentialFuzzTest}.
+ * <p>
+ * The code is a straight copy of the original {@code URLEncoding}, {@code CanonicalRequest}, {@code CanonicalHeaders},
+ * {@code Base16}, {@code Sha256} and {@code Signer}, folded into static methods. It must only change if the expected
+ * behaviour changes, never to follow an optimisation.
+ * </p>
+ *
+ * @author Richard Lucas
+ */
+final class ReferenceSigner {
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final char[] UPPER_CASE_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    private static final char[] LOWER_CASE_DIGITS = "0123456789abcdef".toCharArray();
+    private static final BitSet PATH_UNESCAPED_CHARACTERS = new BitSet();
+    private static final BitSet QUERY_COMPONENT_UNESCAPED_CHARACTERS = new BitSet();
+
+    static {
+        BitSet unreserved = new BitSet();
+        unreserved.set('a', 'z' + 1);
+        unreserved.set('A', 'Z' + 1);
+        unreserved.set('0', '9' + 1);
+        unreserved.set('-');
+        unreserved.set('.');
+        unreserved.set('_');
+        unreserved.set('~');
+        PATH_UNESCAPED_CHARACTERS.set('/');
+        PATH_UNESCAPED_CHARACTERS.or(unreserved);
+        QUERY_COMPONENT_UNESCAPED_CHARACTERS.or(unreserved);
+    }
+
+    private ReferenceSigner() {
+        // hide default constructor
+    }
+
+    static String encodePath(String path) {
+        return encode(path, PATH_UNESCAPED_CHARACTERS);
+    }
+
+    static String encodeQueryComponent(String value) {
+        return encode(value, QUERY_COMPONENT_UNESCAPED_CHARACTERS);
+    }
+
+    static String base16(byte[] data) {
+        StringBuilder builder = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            builder.append(UPPER_CASE_DIGITS[(b & 0xF0) >> 4]).append(UPPER_CASE_DIGITS[b & 0x0F]);
+        }
+        return builder.toString();
+    }
+
+    static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                builder.append(LOWER_CASE_DIGITS[(b >> 4) & 0xf]).append(LOWER_CASE_DIGITS[b & 0xf]);
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String canonicalRequest(String service, String method, String pathAndQuery, List<Header> headers,
+                                   String contentSha256) {
+        int queryStart = pathAndQuery.indexOf('?');
+        String path = queryStart >= 0 ? pathAndQuery.substring(0, queryStart) : pathAndQuery;
+        String query = queryStart >= 0 ? pathAndQuery.substring(queryStart + 1) : null;
+        TreeMap<String, List<String>> sorted = sortHeaders(headers);
+        return method +
+                "\n" + normalizePath(service, path) +
+                "\n" + normalizeQuery(query) +
+                "\n" + canonicalHeaders(sorted) +
+                "\n" + String.join(";", sorted.keySet()) +
+                "\n" + contentSha256;
+    }
+
+    static String stringToSign(String date, String scope, String canonicalRequest) {
+        return ALGORITHM + "\n" + date + "\n" + scope + "\n" + sha256(canonicalRequest);
+    }
+
+    static String authorization(String accessKey, String secretKey, String region, String service, String method,
+                                String pathAndQuery, List<Header> headers, String contentSha256) {
+        String date = sortHeaders(headers).get("x-amz-date").get(0);
+        String scope = date.substring(0, 8) + "/" + region + "/" + service + "/aws4_request";
+        String stringToSign = stringToSign(date, scope,
+                canonicalRequest(service, method, pathAndQuery, headers, contentSha256));
+        byte[] kDate = hmacSha256(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date.substring(0, 8));
+        byte[] kRegion = hmacSha256(kDate, region);
+        byte[] kService = hmacSha256(kRegion, service);
+        byte[] kSigning = hmacSha256(kService, "aws4_request");
+        String signature = base16(hmacSha256(kSigning, stringToSign)).toLowerCase();
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope + ", SignedHeaders="
+                + String.join(";", sortHeaders(headers).keySet()) + ", Signature=" + signature;
+    }
+
+    private static String encode(String value, BitSet unescapedChars) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (byte c : value.getBytes(StandardCharsets.UTF_8)) {
+            int b = c;
+            if (b < 0) {
+                b = 256 + b;
+            }
+            if (unescapedChars.get(b)) {
+                buffer.write(b);
+            } else {
+                buffer.write('%');
+                buffer.write(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+                buffer.write(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String normalizePath(String service, String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        String encoded = encodePath(path);
+        if ("s3".equals(service)) {
+            return encoded;
+        }
+        try {
+            return new URI("http://" + encoded).normalize().getRawPath();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String normalizeQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        List<String[]> parameters = new ArrayList<>();
+        int endIndex = rawQuery.length() - 1;
+        int index = 0;
+        while (0 <= index && index <= endIndex) {
+            int nameValueSeparatorIndex = rawQuery.indexOf('=', index);
+            if (nameValueSeparatorIndex < 0) {
+                parameters.add(new String[]{rawQuery.substring(index), ""});
+                index = endIndex + 1;
+            } else {
+                int parameterSeparatorIndex = rawQuery.indexOf('&', nameValueSeparatorIndex);
+                if (parameterSeparatorIndex < 0) {
+                    parameterSeparatorIndex = endIndex + 1;
+                }
+                parameters.add(new String[]{rawQuery.substring(index, nameValueSeparatorIndex),
+                        rawQuery.substring(nameValueSeparatorIndex + 1, parameterSeparatorIndex)});
+                index = parameterSeparatorIndex + 1;
+            }
+        }
+        // a stable sort on the raw names, as List.sort is
+        parameters.sort((l, r) -> l[0].compareTo(r[0]));
+        return parameters.stream()
+                .map(p -> encodeQueryComponent(p[0]) + "=" + encodeQueryComponent(p[1]))
+                .collect(Collectors.joining("&"));
+    }
+
+    private static TreeMap<String, List<String>> sortHeaders(List<Header> headers) {
+        TreeMap<String, List<String>> sorted = new TreeMap<>();
+        for (Header header : headers) {
+            sorted.computeIfAbsent(header.getName().toLowerCase(), name -> new ArrayList<>()).add(header.getValue());
+        }
+        return sorted;
+    }
+
+    private static String canonicalHeaders(TreeMap<String, List<String>> headers) {
+        StringBuilder builder = new StringBuilder();
+        headers.forEach((name, values) -> builder.append(name).append(':')
+                .append(values.stream().map(ReferenceSigner::normalizeHeaderValue).collect(Collectors.joining(",")))
+                .append('\n'));
+        return builder.toString();
+    }
+
+    private static String normalizeHeaderValue(String value) {
+        return Arrays.stream(value.split("\n"))
+                .map(String::trim)
+                .map(s -> s.replaceAll(" +", " "))
+                .collect(Collectors.joining(","));
+    }
+
+    private static byte[] hmacSha256(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
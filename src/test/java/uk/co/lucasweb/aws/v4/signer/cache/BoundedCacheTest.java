@@ -0,0 +1,142 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.cache;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Richard Lucas
+ */
+public class BoundedCacheTest {
+
+    @Test
+    public void shouldLoadOnce() throws Exception {
+        BoundedCache<String, Integer> cache = BoundedCache.<String, Integer>builder().maximumSize(10).build();
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.get("a", k -> loads.incrementAndGet())).isEqualTo(1);
+        assertThat(cache.get("a", k -> loads.incrementAndGet())).isEqualTo(1);
+        assertThat(cache.getIfPresent("b")).isNull();
+
+        CacheStats stats = cache.stats();
+        assertThat(stats.getHitCount()).isEqualTo(1);
+        assertThat(stats.getMissCount()).isEqualTo(2);
+        assertThat(stats.getHitRate()).isEqualTo(1.0 / 3);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws Exception {
+        BoundedCache<String, String> cache = BoundedCache.<String, String>builder().maximumSize(2).concurrencyLevel(1).build();
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.getIfPresent("a");
+        cache.put("c", "3");
+
+        assertThat(cache.getIfPresent("a")).isEqualTo("1");
+        assertThat(cache.getIfPresent("b")).isNull();
+        assertThat(cache.getIfPresent("c")).isEqualTo("3");
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.stats().getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldBoundSizeAcrossSegments() throws Exception {
+        BoundedCache<Integer, Integer> cache = BoundedCache.<Integer, Integer>builder().maximumSize(64).concurrencyLevel(4).build();
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(64);
+        assertThat(cache.stats().getEvictionCount()).isEqualTo(1000 - cache.size());
+    }
+
+    @Test
+    public void shouldExpireAfterAccess() throws Exception {
+        AtomicLong now = new AtomicLong();
+        BoundedCache<String, String> cache = BoundedCache.<String, String>builder()
+                .expireAfterAccess(Duration.ofNanos(100))
+                .ticker(now::get)
+                .build();
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        now.set(60);
+        assertThat(cache.getIfPresent("a")).isEqualTo("1");
+        now.set(120);
+        assertThat(cache.getIfPresent("a")).isEqualTo("1");
+        assertThat(cache.getIfPresent("b")).isNull();
+        now.set(300);
+        assertThat(cache.getIfPresent("a")).isNull();
+        assertThat(cache.stats().getEvictionCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldInvalidate() throws Exception {
+        BoundedCache<String, String> cache = BoundedCache.<String, String>builder().build();
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        cache.invalidate("a");
+        assertThat(cache.getIfPresent("a")).isNull();
+        cache.invalidateAll();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotifyRemovals() throws Exception {
+        List<String> removed = new ArrayList<>();
+        BoundedCache<String, String> cache = BoundedCache.<String, String>builder()
+                .maximumSize(2)
+                .concurrencyLevel(1)
+                .removalListener((key, value) -> removed.add(key + "=" + value))
+                .build();
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("a", "3");
+        cache.put("c", "4");
+        cache.invalidate("a");
+        cache.invalidateAll();
+
+        assertThat(removed).containsExactly("a=1", "b=2", "a=3", "c=4");
+    }
+
+    @Test
+    public void shouldSnapshotLiveEntriesWithoutTouchingThem() throws Exception {
+        AtomicLong now = new AtomicLong();
+        BoundedCache<String, String> cache = BoundedCache.<String, String>builder()
+                .maximumSize(2)
+                .concurrencyLevel(1)
+                .expireAfterAccess(Duration.ofMinutes(1))
+                .ticker(now::get)
+                .build();
+        cache.put("a", "1");
+        now.addAndGet(Duration.ofSeconds(40).toNanos());
+        cache.put("b", "2");
+        now.addAndGet(Duration.ofSeconds(40).toNanos());
+
+        assertThat(cache.snapshot()).containsOnlyKeys("b");
+
+        // taking the snapshot counted no hit
+        cache.put("c", "3");
+        assertThat(cache.getIfPresent("b")).isEqualTo("2");
+        assertThat(cache.stats().getHitCount()).isEqualTo(1);
+    }
+}
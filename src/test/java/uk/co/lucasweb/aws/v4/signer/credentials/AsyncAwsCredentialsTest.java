@@ -0,0 +1,149 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.credentials;
+
+import org.junit.Test;
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Richard Lucas
+ */
+public class AsyncAwsCredentialsTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final Executor executor = tasks::add;
+
+    private AwsCredentials counting() {
+        return new AwsCredentials("AKID" + calls.incrementAndGet(), "secret");
+    }
+
+    private AsyncAwsCredentials credentials(Supplier<AwsCredentials> supplier) {
+        return AsyncAwsCredentials.builder(supplier)
+                .executor(executor)
+                .refreshInterval(Duration.ofNanos(100))
+                .ticker(now::get)
+                .build();
+    }
+
+    private void runTasks() {
+        List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        pending.forEach(Runnable::run);
+    }
+
+    @Test
+    public void shouldResolveOnceOnTheExecutor() {
+        AsyncAwsCredentials credentials = credentials(this::counting);
+
+        CompletableFuture<AwsCredentials> first = credentials.get();
+        assertThat(credentials.get()).isSameAs(first);
+        assertThat(first).isNotDone();
+        runTasks();
+
+        assertThat(first.join().getAccessKey()).isEqualTo("AKID1");
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRefreshInTheBackgroundOnceTheIntervalIsOver() {
+        AsyncAwsCredentials credentials = credentials(this::counting);
+        credentials.get();
+        runTasks();
+
+        now.set(99);
+        assertThat(credentials.get().join().getAccessKey()).isEqualTo("AKID1");
+        assertThat(tasks).isEmpty();
+        now.set(100);
+        assertThat(credentials.get().join().getAccessKey()).isEqualTo("AKID1");
+        // a single refresh, however many callers notice the interval is over
+        assertThat(credentials.get().join().getAccessKey()).isEqualTo("AKID1");
+        assertThat(tasks).hasSize(1);
+        runTasks();
+
+        assertThat(credentials.get().join().getAccessKey()).isEqualTo("AKID2");
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldKeepCredentialsWhenRefreshFails() {
+        AsyncAwsCredentials credentials = credentials(() -> {
+            if (calls.get() == 1) {
+                calls.incrementAndGet();
+                throw new SigningException("metadata service unavailable");
+            }
+            return counting();
+        });
+        credentials.get();
+        runTasks();
+        now.set(100);
+
+        credentials.get();
+        runTasks();
+        assertThat(credentials.get().join().getAccessKey()).isEqualTo("AKID1");
+        runTasks();
+
+        assertThat(credentials.get().join().getAccessKey()).isEqualTo("AKID3");
+    }
+
+    @Test
+    public void shouldResolveAgainAfterFailureOrInvalidation() {
+        AtomicInteger failures = new AtomicInteger(1);
+        AsyncAwsCredentials credentials = credentials(() -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new SigningException("no AWS credentials were provided");
+            }
+            return counting();
+        });
+        CompletableFuture<AwsCredentials> failed = credentials.get();
+        runTasks();
+        assertThat(failed).isCompletedExceptionally();
+
+        credentials.get();
+        runTasks();
+        assertThat(credentials.get().join().getAccessKey()).isEqualTo("AKID1");
+
+        credentials.invalidate();
+        credentials.get();
+        runTasks();
+        assertThat(credentials.get().join().getAccessKey()).isEqualTo("AKID2");
+    }
+
+    @Test
+    public void shouldRunResolvedCallbackBeforeHandingCredentialsOut() {
+        List<String> resolved = new ArrayList<>();
+        AsyncAwsCredentials credentials = AsyncAwsCredentials.builder(this::counting)
+                .executor(executor)
+                .onResolved(awsCredentials -> resolved.add(awsCredentials.getAccessKey()))
+                .build();
+
+        CompletableFuture<AwsCredentials> future = credentials.get();
+        assertThat(resolved).isEmpty();
+        runTasks();
+
+        assertThat(resolved).containsExactly("AKID1");
+        assertThat(future.join().getAccessKey()).isEqualTo("AKID1");
+    }
+}
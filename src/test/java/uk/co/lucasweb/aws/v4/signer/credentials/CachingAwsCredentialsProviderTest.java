@@ -0,0 +1,111 @@
+/*
+  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+  the License. You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+  an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+  specific language governing permissions and limitations under the License.
+
+  Copyright 2016 the original author or authors.
+ */
+package uk.co.lucasweb.aws.v4.signer.credentials;
+
+import org.junit.Test;
+import uk.co.lucasweb.aws.v4.signer.SigningException;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Richard Lucas
+ */
+public class CachingAwsCredentialsProviderTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private CachingAwsCredentialsProvider provider(AwsCredentialsProvider delegate) {
+        return CachingAwsCredentialsProvider.builder(delegate)
+                .refreshInterval(Duration.ofNanos(100))
+                .prefetch(Duration.ofNanos(10))
+                .ticker(now::get)
+                .build();
+    }
+
+    private Optional<AwsCredentials> counting() {
+        return Optional.of(new AwsCredentials("AKID" + calls.incrementAndGet(), "secret"));
+    }
+
+    @Test
+    public void shouldCacheCredentialsUntilPrefetch() throws Exception {
+        CachingAwsCredentialsProvider provider = provider(this::counting);
+
+        assertThat(provider.getCredentials().get().getAccessKey()).isEqualTo("AKID1");
+        now.set(89);
+        assertThat(provider.getCredentials().get().getAccessKey()).isEqualTo("AKID1");
+        now.set(95);
+        assertThat(provider.getCredentials().get().getAccessKey()).isEqualTo("AKID2");
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldKeepCredentialsWhenPrefetchFails() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CachingAwsCredentialsProvider provider = provider(() -> {
+            if (attempts.incrementAndGet() > 1) {
+                throw new IllegalStateException("metadata service unavailable");
+            }
+            return counting();
+        });
+        provider.getCredentials();
+
+        now.set(95);
+        assertThat(provider.getCredentials().get().getAccessKey()).isEqualTo("AKID1");
+        now.set(100);
+        assertThatThrownBy(provider::getCredentials)
+                .isExactlyInstanceOf(SigningException.class)
+                .hasMessage("Error refreshing credentials");
+    }
+
+    @Test
+    public void shouldRefreshOnceForConcurrentCallers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CachingAwsCredentialsProvider provider = provider(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return counting();
+        });
+        Thread[] threads = new Thread[16];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(provider::getCredentials);
+            threads[i].start();
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRefreshAfterInvalidate() throws Exception {
+        CachingAwsCredentialsProvider provider = provider(this::counting);
+        provider.getCredentials();
+
+        provider.invalidate();
+
+        assertThat(provider.getCredentials().get().getAccessKey()).isEqualTo("AKID2");
+    }
+}